@@ -0,0 +1,150 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 batch analysis
+//
+// Works out the move for every board string in a file, one per line, and writes one answer line for each to another file
+// in the same format as the move server: the chosen column (1 to 7) followed by the score for each column, or ERROR and the reason.
+//
+// The input is read and the output written through large NIO buffers. Boards are worked out a block at a time on all the cores,
+// and each block's answers are written in order before the next block is read, so the memory used is the same however big the file is.
+// Each thread works out its share of a block in batches with a BatchEvaluator, which gives the same answers as the move server.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+public class BatchAnalyser {
+	private static final int BLOCK = 16384;										// Boards read and written together.
+	private static final int CHUNK = 256;										// Boards worked out together by one thread.
+	private static final int BUFFER = 1 << 20;									// Bytes read or written at a time.
+	private static final int LONGEST = Position.WIDTH * Position.HEIGHT + 1;	// Longer lines are cut here, which is still long enough to be reported as too long.
+
+	private final Weights weights;
+	private final ForkJoinPool pool;
+	private final String[] boards = new String[BLOCK];							// The board strings in the current block.
+	private final StringBuilder[] answers = new StringBuilder[BLOCK];			// The answer for each board in the block, reused for every block.
+	private final StringBuilder line = new StringBuilder(LONGEST);				// The line being read, which can be split over two reads.
+	private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER);
+	private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER);
+	private final int[] indexes = new int[BLOCK];								// Where each board is in its chunk's batch, or -1 if it can't be used.
+	private final ThreadLocal<BatchEvaluator> batches;
+	private long boardsAnalysed = 0;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public BatchAnalyser(Weights weights, int threads) {
+		this.weights = weights;
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		batches = ThreadLocal.withInitial(() -> new BatchEvaluator(weights, CHUNK));
+		for (int i = 0; i < BLOCK; i++) {
+			answers[i] = new StringBuilder(160);
+		}
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	public long boardsAnalysed() {
+		return boardsAnalysed;
+	}
+
+	// Answer every board string in the input file, writing the answers to the output file in the same order.
+	public void analyse(Path inputFile, Path outputFile) throws IOException {
+		try (FileChannel in = FileChannel.open(inputFile, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(outputFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			input.clear();
+			input.flip();
+			output.clear();
+			line.setLength(0);
+			int count;
+			while ((count = readBlock(in)) > 0) {
+				int read = count;
+				Parallel.forEach(pool, 0, (read + CHUNK - 1) / CHUNK, chunk -> answerChunk(chunk * CHUNK, Math.min(read, (chunk + 1) * CHUNK)));
+				for (int i = 0; i < count; i++) {
+					write(out, answers[i]);
+					boards[i] = null;
+				}
+				boardsAnalysed += count;
+			}
+			flush(out);
+		}
+	}
+
+	// Stop the threads once analysis is finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Answer the boards from start up to end in one batch, in the same format as Engine.answer.
+	private void answerChunk(int start, int end) {
+		BatchEvaluator batch = batches.get();
+		batch.clear();
+		for (int i = start; i < end; i++) {
+			answers[i].setLength(0);
+			Position position = Engine.position(boards[i], answers[i]);
+			indexes[i] = (position != null) ? batch.add(position, position.toMove()) : -1;
+		}
+		batch.evaluate();
+		for (int i = start; i < end; i++) {
+			if (indexes[i] >= 0) {
+				answers[i].append(batch.move(indexes[i]) + 1);
+				for (int x = 0; x < Position.WIDTH; x++) {
+					answers[i].append(' ').append(batch.possible(indexes[i], x));
+				}
+			}
+		}
+	}
+
+	// Fill the block with the next board strings from the file. The number read is returned, which is 0 at the end of the file.
+	// Carriage returns are dropped so that files written on Windows can be read.
+	private int readBlock(FileChannel in) throws IOException {
+		int count = 0;
+		while (count < BLOCK) {
+			if (!input.hasRemaining()) {
+				input.clear();
+				int read = in.read(input);
+				input.flip();
+				if (read < 0) {
+					// The last line doesn't need a new line at the end.
+					if (line.length() > 0) {
+						boards[count++] = line.toString();
+						line.setLength(0);
+					}
+					break;
+				}
+			}
+			byte next = input.get();
+			if (next == '\n') {
+				boards[count++] = line.toString();
+				line.setLength(0);
+			}
+			else if ((next != '\r') && (line.length() < LONGEST)) {
+				line.append((char)next);
+			}
+		}
+		return count;
+	}
+
+	// Add one answer line to the output buffer, writing the buffer to the file first if it is full.
+	private void write(FileChannel out, CharSequence answer) throws IOException {
+		if (output.remaining() <= answer.length()) {
+			flush(out);
+		}
+		for (int i = 0; i < answer.length(); i++) {
+			output.put((byte)answer.charAt(i));
+		}
+		output.put((byte)'\n');
+	}
+
+	private void flush(FileChannel out) throws IOException {
+		output.flip();
+		while (output.hasRemaining()) {
+			out.write(output);
+		}
+		output.clear();
+	}
+}
@@ -0,0 +1,296 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 batch evaluation
+//
+// Works out the move for many positions in one call, for example a block of boards from a file or the positions from many self play games.
+// The result for each position is exactly the same as loading it into an Evaluator and calling selectMove, down to the last bit of each
+// column score, because every score is worked out with the same operations in the same order.
+//
+// The neurons are kept as flat arrays with one entry per position, neuron by neuron (struct of arrays), rather than one set of arrays per
+// position. So the same neuron of neighbouring positions sits side by side in memory, and one instruction can work on several at once.
+// VectorKernel does this with the Java Vector API when Java is run with --add-modules jdk.incubator.vector. Otherwise the same loops run
+// one position at a time, still over the flat arrays.
+//
+// A BatchEvaluator must only be used by one thread at a time. Each thread keeps its own.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+public class BatchEvaluator {
+	private static final int CELLS = Position.WIDTH * Position.HEIGHT;
+	private static final Kernel VECTOR = vectorKernel();	// Null if the Vector API isn't available.
+	private static final int LANES = (VECTOR != null) ? VECTOR.width() : 1;	// The capacity is a multiple of this, the doubles in one vector.
+
+	// The lines through each place, split into columns, rows, diagonals up and diagonals down, in the order Evaluator adds them.
+	static final int[][][] CELL_LINES = cellLines();
+
+	// Works out the neurons and the moves for the first 'lanes' positions, which is always a multiple of LANES.
+	interface Kernel {
+		void evaluate(BatchEvaluator batch, int lanes);
+
+		// Positions worked on at once. The vector kernel reads and writes this many from each place it starts, so the arrays are
+		// padded to a multiple of it.
+		default int width() {
+			return 1;
+		}
+	}
+
+	final int capacity;
+	final long[] red;							// Red's pieces in each position.
+	final long[] yellow;						// Yellow's pieces in each position.
+	final long[] yellowToMove;					// 1 if yellow is to move, 0 for red.
+	final double[] valuesR;						// pieces^count for each line, line by line, with blocked lines counting as 0 pieces.
+	final double[] valuesY;
+	final double[] combinedScoresR;				// Combined score for each place, place by place (x * HEIGHT + y).
+	final double[] combinedScoresY;
+	final double[] possibles;					// Score for each column, column by column.
+	final int[] moves;							// The chosen column for each position.
+	final double[] powers = new double[5];		// The weightings the kernel uses.
+	double horizontal, vertical, diagonal, oppntMove, nextMove;
+
+	private final Kernel kernel;
+	private Weights weights;
+	private int size = 0;
+
+	// Room for at least the number of positions given, using the Vector API if it is available.
+	public BatchEvaluator(Weights weights, int capacity) {
+		this(weights, capacity, true);
+	}
+
+	// The same, but only using the Vector API if vector is true and it is available.
+	public BatchEvaluator(Weights weights, int capacity, boolean vector) {
+		this.capacity = ((Math.max(capacity, 1) + LANES - 1) / LANES) * LANES;
+		red = new long[this.capacity];
+		yellow = new long[this.capacity];
+		yellowToMove = new long[this.capacity];
+		valuesR = new double[Position.LINE_COUNT * this.capacity];
+		valuesY = new double[Position.LINE_COUNT * this.capacity];
+		combinedScoresR = new double[CELLS * this.capacity];
+		combinedScoresY = new double[CELLS * this.capacity];
+		possibles = new double[Position.WIDTH * this.capacity];
+		moves = new int[this.capacity];
+		kernel = (vector && (VECTOR != null)) ? VECTOR : BatchEvaluator::evaluateScalar;
+		setWeights(weights);
+	}
+
+	// Whether the Vector API can be used, which needs Java to be run with --add-modules jdk.incubator.vector.
+	public static boolean vectorAvailable() {
+		return VECTOR != null;
+	}
+
+	public boolean vectorised() {
+		return kernel == VECTOR;
+	}
+
+	public void setWeights(Weights weights) {
+		this.weights = weights;
+		for (int count = 0; count < powers.length; count++) {
+			powers[count] = weights.power(count);
+		}
+		horizontal = weights.horizontal();
+		vertical = weights.vertical();
+		diagonal = weights.diagonal();
+		oppntMove = weights.oppntMove();
+		nextMove = weights.nextMove();
+	}
+
+	public Weights weights() {
+		return weights;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Empty the batch ready for new positions.
+	public void clear() {
+		size = 0;
+	}
+
+	// Add a position with the player to move, and return its place in the batch. The position is copied, so it can be changed afterwards.
+	public int add(Position position, char player) {
+		if (size == capacity) {
+			throw new IllegalStateException("The batch is full with " + capacity + " positions");
+		}
+		red[size] = position.red();
+		yellow[size] = position.yellow();
+		yellowToMove[size] = (player == 'Y') ? 1 : 0;
+		return size++;
+	}
+
+	// Work out the neurons and the move for every position added since the batch was cleared.
+	public void evaluate() {
+		if (size == 0) {
+			return;
+		}
+		int lanes = ((size + LANES - 1) / LANES) * LANES;
+		for (int i = size; i < lanes; i++) {
+			red[i] = 0;					// The spare places at the end are worked out as empty boards and ignored.
+			yellow[i] = 0;
+			yellowToMove[i] = 0;
+		}
+		kernel.evaluate(this, lanes);
+	}
+
+	// The move for a position in the batch, as selectMove would choose.
+	public int move(int index) {
+		return moves[index];
+	}
+
+	// The score for a column, as Evaluator.possible gives after selectMove. Full columns score zero.
+	public double possible(int index, int x) {
+		return possibles[x * capacity + index];
+	}
+
+	public double combinedScoreR(int index, int x, int y) {
+		return combinedScoresR[(x * Position.HEIGHT + y) * capacity + index];
+	}
+
+	public double combinedScoreY(int index, int x, int y) {
+		return combinedScoresY[(x * Position.HEIGHT + y) * capacity + index];
+	}
+
+	// Work out the moves for count positions, each for the player given, as many at a time as the batch holds.
+	public void selectMoves(Position[] positions, char[] players, int count, int[] selected) {
+		for (int start = 0; start < count; start += capacity) {
+			clear();
+			int end = Math.min(count, start + capacity);
+			for (int i = start; i < end; i++) {
+				add(positions[i], players[i]);
+			}
+			evaluate();
+			System.arraycopy(moves, 0, selected, start, end - start);
+		}
+	}
+
+	// The kernel without the Vector API: the same steps as Evaluator.recompute and selectMove, one position at a time in the inner loops.
+	private static void evaluateScalar(BatchEvaluator batch, int lanes) {
+		int capacity = batch.capacity;
+		long[] red = batch.red;
+		long[] yellow = batch.yellow;
+		double[] powers = batch.powers;
+
+		// Line neurons. If both players have pieces in a line it counts as zero pieces for both.
+		for (int line = 0; line < Position.LINE_COUNT; line++) {
+			long mask = Position.line(line);
+			int base = line * capacity;
+			for (int i = 0; i < lanes; i++) {
+				int countR = Long.bitCount(mask & red[i]);
+				int countY = Long.bitCount(mask & yellow[i]);
+				batch.valuesR[base + i] = powers[(countY != 0) ? 0 : countR];
+				batch.valuesY[base + i] = powers[(countR != 0) ? 0 : countY];
+			}
+		}
+
+		// Combined score neurons. Places that have already been played score zero.
+		for (int cell = 0; cell < CELLS; cell++) {
+			long bit = Position.bit(cell / Position.HEIGHT, cell % Position.HEIGHT);
+			int base = cell * capacity;
+			for (int i = 0; i < lanes; i++) {
+				boolean empty = ((red[i] | yellow[i]) & bit) == 0;
+				batch.combinedScoresR[base + i] = empty ? batch.combine(cell, batch.valuesR, i) : 0;
+				batch.combinedScoresY[base + i] = empty ? batch.combine(cell, batch.valuesY, i) : 0;
+			}
+		}
+
+		// Column scores and the move.
+		for (int i = 0; i < lanes; i++) {
+			double[] own = (batch.yellowToMove[i] != 0) ? batch.combinedScoresY : batch.combinedScoresR;
+			double[] other = (batch.yellowToMove[i] != 0) ? batch.combinedScoresR : batch.combinedScoresY;
+			long mask = red[i] | yellow[i];
+			double highest = -1.0;
+			int move = 3;
+			for (int x = 0; x < Position.WIDTH; x++) {
+				int y = Long.bitCount(mask & Position.columnMask(x));
+				double possible = 0.0;
+				if (y < Position.HEIGHT) {
+					int cell = (x * Position.HEIGHT + y) * capacity + i;
+					possible = own[cell] + (other[cell] * batch.oppntMove);
+					if (y < Position.HEIGHT - 1) {
+						possible = possible - (other[cell + capacity] * batch.nextMove);
+					}
+					if (possible > highest) {
+						highest = possible;
+						move = x;
+					}
+				}
+				batch.possibles[x * capacity + i] = possible;
+			}
+			batch.moves[i] = move;
+		}
+		batch.checkMoves(lanes);
+	}
+
+	// Add up the line values through a place for one position, each direction multiplied by its weighting, as Evaluator.combine does.
+	private double combine(int cell, double[] values, int i) {
+		int[][] lines = CELL_LINES[cell];
+		double columns = 0, rows = 0, diagonalsUp = 0, diagonalsDown = 0;
+		for (int line : lines[0]) {
+			columns += values[line * capacity + i];
+		}
+		for (int line : lines[1]) {
+			rows += values[line * capacity + i];
+		}
+		for (int line : lines[2]) {
+			diagonalsUp += values[line * capacity + i];
+		}
+		for (int line : lines[3]) {
+			diagonalsDown += values[line * capacity + i];
+		}
+		return (columns * vertical) + (rows * horizontal) + (diagonalsUp * diagonal) + (diagonalsDown * diagonal);
+	}
+
+	// As in selectMove, if the chosen column is full any column with space is used instead.
+	void checkMoves(int lanes) {
+		for (int i = 0; i < lanes; i++) {
+			long mask = red[i] | yellow[i];
+			if ((mask & Position.bit(moves[i], Position.HEIGHT - 1)) != 0) {
+				for (int x = 0; x < Position.WIDTH; x++) {
+					if ((mask & Position.bit(x, Position.HEIGHT - 1)) == 0) {
+						moves[i] = x;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static int[][][] cellLines() {
+		int[][][] cells = new int[CELLS][4][];
+		int[] firsts = {Position.COLUMN_LINES, Position.ROW_LINES, Position.UP_LINES, Position.DOWN_LINES, Position.LINE_COUNT};
+		for (int cell = 0; cell < CELLS; cell++) {
+			int[] lines = Position.cellLines(cell);
+			for (int direction = 0; direction < 4; direction++) {
+				int count = 0;
+				for (int line : lines) {
+					if ((line >= firsts[direction]) && (line < firsts[direction + 1])) {
+						count++;
+					}
+				}
+				cells[cell][direction] = new int[count];
+				count = 0;
+				for (int line : lines) {
+					if ((line >= firsts[direction]) && (line < firsts[direction + 1])) {
+						cells[cell][direction][count++] = line;
+					}
+				}
+			}
+		}
+		return cells;
+	}
+
+	// VectorKernel is only loaded if the incubator module is there, so the rest of the engine runs without it.
+	private static Kernel vectorKernel() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+			return null;
+		}
+		try {
+			return (Kernel)Class.forName("VectorKernel").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+}
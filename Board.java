@@ -0,0 +1,185 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 board of any geometry
+//
+// The board Evaluator keeps for a Geometry other than the standard 7x6, which Position holds in one 64 bit mask. Each player's pieces
+// are a bitboard of as many longs as the board needs, one bit per place numbered x * height + y, and the height of each column is kept
+// so a move doesn't have to look for the first free place. Lines are counted with the line masks of the geometry, a popcount in each long.
+//
+// The board string is the same as Position's, row by row from the bottom, with width places in each row.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.Arrays;
+
+public class Board {
+	private final Geometry geometry;
+	private final long[] red;				// Places holding a red piece.
+	private final long[] yellow;			// Places holding a yellow piece.
+	private final int[] heights;			// Pieces in each column.
+	private int moves = 0;
+
+	// A new board is empty.
+	public Board(Geometry geometry) {
+		this.geometry = geometry;
+		red = new long[geometry.words()];
+		yellow = new long[geometry.words()];
+		heights = new int[geometry.width()];
+	}
+
+	public Board(Board other) {
+		this(other.geometry);
+		set(other);
+	}
+
+	// A board string as Position.fromBoardString reads, with width places in each row, refused in the same cases.
+	public static Board fromBoardString(Geometry geometry, String text) {
+		if (text.length() > geometry.cells()) {
+			throw new IllegalArgumentException("Board string is longer than " + geometry.cells() + " characters");
+		}
+		Board board = new Board(geometry);
+		for (int i = 0; i < text.length(); i++) {
+			char piece = text.charAt(i);
+			if ((piece == 'R') || (piece == 'Y')) {
+				int x = i % geometry.width();
+				int y = i / geometry.width();
+				if (board.nextRow(x) != y) {
+					throw new IllegalArgumentException("Piece at column " + (x + 1) + " row " + (y + 1) + " has nothing below it");
+				}
+				board.play(x, piece);
+			}
+			else if (piece != ' ') {
+				throw new IllegalArgumentException("Place " + (i + 1) + " is '" + piece + "', not R, Y or a space");
+			}
+		}
+		int red = 0;
+		for (long word : board.red) {
+			red += Long.bitCount(word);
+		}
+		if (Math.abs(2 * red - board.moves) > 1) {
+			throw new IllegalArgumentException("Red has " + red + " pieces and yellow " + (board.moves - red) + ", but they take turns");
+		}
+		return board;
+	}
+
+	public String toBoardString() {
+		StringBuilder text = new StringBuilder(geometry.cells());
+		for (int y = 0; y < geometry.height(); y++) {
+			for (int x = 0; x < geometry.width(); x++) {
+				text.append(cell(x, y));
+			}
+		}
+		return text.toString();
+	}
+
+	public Geometry geometry() {
+		return geometry;
+	}
+
+	// Make this board the same as another one of the same geometry.
+	public void set(Board other) {
+		System.arraycopy(other.red, 0, red, 0, red.length);
+		System.arraycopy(other.yellow, 0, yellow, 0, yellow.length);
+		System.arraycopy(other.heights, 0, heights, 0, heights.length);
+		moves = other.moves;
+	}
+
+	public void clear() {
+		Arrays.fill(red, 0);
+		Arrays.fill(yellow, 0);
+		Arrays.fill(heights, 0);
+		moves = 0;
+	}
+
+	// The piece at a place: R, Y or a space.
+	public char cell(int x, int y) {
+		int cell = x * geometry.height() + y;
+		long bit = 1L << cell;
+		if ((red[cell >>> 6] & bit) != 0) {
+			return 'R';
+		}
+		if ((yellow[cell >>> 6] & bit) != 0) {
+			return 'Y';
+		}
+		return ' ';
+	}
+
+	public boolean isFull(int x) {
+		return heights[x] == geometry.height();
+	}
+
+	public int nextRow(int x) {
+		return heights[x];
+	}
+
+	public int moveCount() {
+		return moves;
+	}
+
+	// Drop a piece for the player into a column. The row it lands in is returned, or -1 if the column is full.
+	public int play(int x, char player) {
+		int y = heights[x];
+		if (y == geometry.height()) {
+			return -1;
+		}
+		int cell = x * geometry.height() + y;
+		if (player == 'R') {
+			red[cell >>> 6] |= 1L << cell;
+		}
+		else {
+			yellow[cell >>> 6] |= 1L << cell;
+		}
+		heights[x]++;
+		moves++;
+		return y;
+	}
+
+	// Take the top piece back out of a column. The row it was taken from is returned, or -1 if the column is empty.
+	public int undo(int x) {
+		int y = heights[x] - 1;
+		if (y < 0) {
+			return -1;
+		}
+		int cell = x * geometry.height() + y;
+		red[cell >>> 6] &= ~(1L << cell);
+		yellow[cell >>> 6] &= ~(1L << cell);
+		heights[x]--;
+		moves--;
+		return y;
+	}
+
+	// Number of pieces the player has in a line.
+	public int lineCount(int line, char player) {
+		long[] pieces = (player == 'R') ? red : yellow;
+		int count = 0;
+		for (int word = 0; word < pieces.length; word++) {
+			count += Long.bitCount(geometry.lineMask(line, word) & pieces[word]);
+		}
+		return count;
+	}
+
+	// Whether dropping a piece for the player into a column would complete a line. The column must not be full.
+	// Only the lines through the place it would land in are counted.
+	public boolean isWinningMove(int x, char player) {
+		int[] lines = geometry.cellLines(x * geometry.height() + heights[x]);
+		for (int line : lines) {
+			if (lineCount(line, player) == geometry.connect() - 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// R or Y for a winner, D if the board is full, otherwise a space.
+	public char gameEnded() {
+		int connect = geometry.connect();
+		for (int line = 0; line < geometry.lineCount(); line++) {
+			if (lineCount(line, 'R') == connect) {
+				return 'R';
+			}
+			if (lineCount(line, 'Y') == connect) {
+				return 'Y';
+			}
+		}
+		return (moves == geometry.cells()) ? 'D' : ' ';
+	}
+}
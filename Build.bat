@@ -1,6 +1,6 @@
 del *.bak
 del *.class
-Javac *.java
+Javac --add-modules jdk.incubator.vector *.java
 "C:\Program Files\Java\jdk-23\bin\jar.exe" cfm Connect4.jar mf.txt *.class
 java -jar Connect4.jar
 pause
\ No newline at end of file
@@ -1,40 +1,30 @@
 import subprocess
 
+#Start the Java program once as a move server. It keeps running and answers a board string on each line,
+#so Java doesn't have to start again for every move and no file is needed to pass the move back.
+server = subprocess.Popen(["java", "-jar", "Connect4.jar", "S"], stdin=subprocess.PIPE, stdout=subprocess.PIPE, text=True, bufsize=1)
+
+#Send a board to the server and read back the answer: the move (column 1 to 7) then the score for each column.
+def getMove(board):
+    server.stdin.write(board + "\n")
+    server.stdin.flush()
+    answer = server.stdout.readline().split()
+    if answer[0] == "ERROR":
+        raise ValueError(" ".join(answer[1:]))
+    return answer[0], answer[1:]
+
 #String for the board 6 rows of 7 columns start from the bottom.
 board = " YRYRY   YRY     R                        "
 
-#Add the board string into a string to call the Java program to process it
-print("Java bit --------------------------------------------------")
-callString = "Java -jar Connect4.jar \"" + board + "\""
-subprocess.call(callString)
-print("End Java bit ----------------------------------------------")
-print("")
-
-#Open the file, read the contents and get the last character which is the move.
-#Make sure the file is closed again ready for the next move.
-with open("Move.txt", "r") as file:
-    MoveString = file.read()
-    file.close()
-
 #Get the move into a variable so that it can be used in the game.
-Move = MoveString[5]
-print("Extracted Move " + Move)
+Move, Scores = getMove(board)
+print("Extracted Move " + Move + " scores " + " ".join(Scores))
 
 board = " YRYRY   YRY    YRR                       "
 
-#Add the board string into a string to call the Java program to process it
-print("Java bit --------------------------------------------------")
-callString = "Java -jar Connect4.jar \"" + board + "\""
-subprocess.call(callString)
-print("End Java bit ----------------------------------------------")
-print("")
+Move, Scores = getMove(board)
+print("Extracted Move " + Move + " scores " + " ".join(Scores))
 
-#Open the file, read the contents and get the last character which is the move.
-#Make sure the file is closed again ready for the next move.
-with open("Move.txt", "r") as file:
-    MoveString = file.read()
-    file.close()
-
-#Get the move into a variable so that it can be used in the game.
-Move = MoveString[5]
-print("Extracted Move " + Move)
+#Closing the input stops the server.
+server.stdin.close()
+server.wait()
@@ -0,0 +1,193 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 optimisation checkpoint
+//
+// A long optimisation saves where it has got to in FILE, Connect4.checkpoint, every so often, so that a run which is stopped or crashes
+// can be carried on with the K option instead of started again. A checkpoint holds everything the rest of the run depends on: which
+// optimisation it is, the number of trials and the first one not yet finished, the seed of the random numbers and how many have been
+// drawn from it, the number of empty places at which the solver takes over the games, the current weightings, the game log being
+// written and its length, and the line printed for each set of weightings adopted so far. The random numbers are made again from the
+// seed and the count, and the games themselves have no random element, so the run carries on with exactly the same trials and decisions
+// as if it had never stopped.
+//
+// The log is written out before each checkpoint is saved, so it holds every game the checkpoint counts, and its length then is kept.
+// Games played after the last checkpoint are played again when the run is carried on, so the log is first cut back to that length, and
+// it ends up the same as if the run had never stopped.
+//
+// The file is text, one value on each line after its name. It is replaced in one step, so a crash while saving leaves the last one.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class Checkpoint {
+	public static final String FILE = "Connect4.checkpoint";
+	private static final String HEADER = "Connect4 checkpoint 1";
+
+	private final char optimiser;			// O for Connect4.optimiseWeightings, P for Optimiser.
+	private final int trials;				// Trials in the whole run.
+	private final int next;					// The first trial not yet finished.
+	private final long seed;
+	private final long draws;				// Numbers drawn from the random stream made from the seed, or streams split from it for Optimiser.
+	private final int endgame;				// Empty places at or below which the solver plays the games.
+	private final Weights weights;			// The current weightings.
+	private final String log;				// The game log, or null if games aren't being kept.
+	private final long logLength;			// Bytes in the game log when the checkpoint was saved, or -1 if not known.
+	private final String[] adopted;			// The line printed for each set of weightings adopted, in order.
+
+	public Checkpoint(char optimiser, int trials, int next, long seed, long draws, int endgame, Weights weights, String log, String[] adopted) {
+		this(optimiser, trials, next, seed, draws, endgame, weights, log, -1, adopted);
+	}
+
+	private Checkpoint(char optimiser, int trials, int next, long seed, long draws, int endgame, Weights weights, String log, long logLength,
+		String[] adopted) {
+		if ((optimiser != 'O') && (optimiser != 'P')) {
+			throw new IllegalArgumentException("Only the O and P optimisations have checkpoints, not " + optimiser);
+		}
+		if ((next < 0) || (next > trials)) {
+			throw new IllegalArgumentException("Trial " + next + " isn't part of a run of " + trials);
+		}
+		this.optimiser = optimiser;
+		this.trials = trials;
+		this.next = next;
+		this.seed = seed;
+		this.draws = draws;
+		this.endgame = endgame;
+		this.weights = weights;
+		this.log = log;
+		this.logLength = logLength;
+		this.adopted = adopted.clone();
+	}
+
+	// The same checkpoint with the length of its game log, once the log has been written out.
+	public Checkpoint withLogLength(long length) {
+		return new Checkpoint(optimiser, trials, next, seed, draws, endgame, weights, log, length, adopted);
+	}
+
+	public char optimiser() {
+		return optimiser;
+	}
+
+	public int trials() {
+		return trials;
+	}
+
+	public int next() {
+		return next;
+	}
+
+	public long seed() {
+		return seed;
+	}
+
+	public long draws() {
+		return draws;
+	}
+
+	public int endgame() {
+		return endgame;
+	}
+
+	public Weights weights() {
+		return weights;
+	}
+
+	public String log() {
+		return log;
+	}
+
+	public long logLength() {
+		return logLength;
+	}
+
+	public String[] adopted() {
+		return adopted.clone();
+	}
+
+	// Write the checkpoint to a file, replacing it in one step.
+	public void save(Path file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		String end = System.lineSeparator();
+		text.append(HEADER).append(end);
+		text.append("optimiser ").append(optimiser).append(end);
+		text.append("trials ").append(trials).append(end);
+		text.append("next ").append(next).append(end);
+		text.append("seed ").append(seed).append(end);
+		text.append("draws ").append(draws).append(end);
+		text.append("endgame ").append(endgame).append(end);
+		text.append("weights ").append(weights.toNumbers()).append(end);
+		if (log != null) {
+			text.append("log ").append(log).append(end);
+			if (logLength >= 0) {
+				text.append("length ").append(logLength).append(end);
+			}
+		}
+		for (String line : adopted) {
+			text.append("adopted ").append(line).append(end);
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporary, text.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Read a checkpoint written by save.
+	public static Checkpoint load(Path file) throws IOException {
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+			throw new IOException("Not a checkpoint file");
+		}
+		String optimiser = null, trials = null, next = null, seed = null, draws = null, weights = null, log = null, length = null;
+		String endgame = null;
+		List<String> adopted = new ArrayList<>();
+		for (String line : lines.subList(1, lines.size())) {
+			int space = line.indexOf(' ');
+			String name = (space < 0) ? line : line.substring(0, space);
+			String value = (space < 0) ? "" : line.substring(space + 1);
+			switch (name) {
+				case "optimiser": optimiser = value; break;
+				case "trials": trials = value; break;
+				case "next": next = value; break;
+				case "seed": seed = value; break;
+				case "draws": draws = value; break;
+				case "endgame": endgame = value; break;
+				case "weights": weights = value; break;
+				case "log": log = value; break;
+				case "length": length = value; break;
+				case "adopted": adopted.add(value); break;
+				case "": break;
+				default: throw new IOException("Unknown line in checkpoint: " + line);
+			}
+		}
+		if ((optimiser == null) || (optimiser.length() != 1) || (trials == null) || (next == null) || (seed == null) || (draws == null) || (weights == null)) {
+			throw new IOException("Checkpoint is incomplete");
+		}
+		try {
+			return new Checkpoint(optimiser.charAt(0), Integer.parseInt(trials), Integer.parseInt(next), Long.parseLong(seed), Long.parseLong(draws),
+				(endgame == null) ? Solver.ENDGAME : Integer.parseInt(endgame), Weights.parse(weights), log,
+				(length == null) ? -1 : Long.parseLong(length), adopted.toArray(new String[0]));
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException("Checkpoint can't be used: " + e.getMessage());
+		}
+	}
+
+	// The checkpoint in a file, or null if there isn't one or it can't be read, with the reason printed.
+	public static Checkpoint open(Path file) {
+		try {
+			return load(file);
+		}
+		catch (NoSuchFileException e) {
+			System.err.println("No checkpoint " + file + " to carry on from");
+		}
+		catch (IOException e) {
+			System.err.println("Checkpoint " + file + " not used: " + e.getMessage());
+		}
+		return null;
+	}
+}
@@ -1,100 +1,239 @@
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 // Connect 4 an example of a Neural Net
-// 
+//
 // Martin Butler 14/03/2024
 //
 // See report for further details.
 // See Readme.txt for details about code and build.
 //
 // This is a console program that uses a form of neural network to calculate the computer's move. A database approach had been tried, but failed.
-// There are two main options: 
-//     1 to play the computer. 
+// There are two main options:
+//     1 to play the computer.
 //     Any other input will cause the computer to play itself to trial different weightings for the neural net.
 
 // There is a command line option to support use by other software.
+// O [log] [seed] on the command line runs the optimisation, and C checks the incrementally updated neurons against a full recalculation.
+// C ends with exit status 1 if any of its checks finds a mismatch, or a move that allocates on the heap.
+// P [threads] [seed] [trials] [log] runs the optimisation in parallel on all cores, or on the number of threads given.
+// Both save a Checkpoint to Connect4.checkpoint as they go, and K [threads] carries a stopped run on from it exactly where it left off.
+// The weightings an optimisation finishes with are saved to Connect4.weights, which the game and the move options load when they start.
+// H [port] [seed] [trials] runs the parallel optimisation with its games played by workers, which J [host:port] [threads] starts,
+// as many of them as wanted. The coordinator only listens on the local machine, on port 4100 if no port is given.
+// If a log file is given every optimisation game is added to it, see GameLog. D log [output] writes the games in a log as text.
+// W log [epochs] [threads] [seed] [games] trains a NeuralNetwork from the games in a log and saves it as Connect4.net.
+// If a number of games is given they are played first with random openings and added to the log.
+// E [generations] [threads] [seed] tunes all six weightings together with the evolutionary optimiser, using far fewer games.
+// A board string on the command line writes the computer's move to Move.txt as "Move " followed by the column and the column scores.
+// B input output [threads] answers every board string in the input file, one per line, writing the answers in the same order to the output file.
+// N [depth] [megabytes] [board] searches depth moves ahead from the board, or plays the search against the one move look ahead if no board is given.
+// The search uses a transposition table of the size given, 64 megabytes by default, or none if the size is 0.
+// G [plies] [depth] [threads] generates the opening book Connect4.book, searching every position with fewer than plies pieces depth moves ahead.
+// The game uses the book if it was made with the current weightings.
+// T [games] [threads] [warmup] [red] [yellow] plays games with nothing displayed and reports games and moves per second and move time
+// percentiles. The weightings are six numbers separated by commas, and are the current weightings if not given.
+// L file [threads] [seconds] plays a round-robin tournament between the sets of weightings in the file, one set on each line, and prints
+// Elo ratings every so many seconds, 10 by default, and at the end.
+// M [playouts] [threads] [milliseconds] plays the Monte Carlo tree search against the one move look ahead, stopping each move after the
+// playouts or the time given, and then shows how the playouts per second grow from 1 thread up to the number given, one per core by default.
+// V [geometries] [games] [depth] plays games and searches on other sizes of board, 7x6,8x7,9x7,10x8,9x7x5 unless others are given,
+// to show how the speed of the evaluation and the search changes with the area of the board.
+// S [port] keeps running as a move server, answering a board string on each line of standard input, or on a local TCP port if one is given.
+//
+// Running Java with -Dconnect4.metrics=true turns on the engine metrics in EngineMetrics, which can be read through JMX,
+// and -Dconnect4.metrics.log=10 also prints them every 10 seconds.
+// -Dconnect4.network=Connect4.net makes the game choose the computer's moves with the trained network instead.
+// -Dconnect4.weights=file loads the weightings from another file instead of Connect4.weights.
+// -Dconnect4.depth=12 makes the computer search 12 moves ahead in the game, and work out its replies during the human's turn (see Ponderer)
+// on one thread per core, or the number given by -Dconnect4.ponder=2, 0 for none, using at most -Dconnect4.ponder.budget=30 seconds of
+// CPU time each turn.
+// -Dconnect4.endgame=12 makes the exact Solver take over once 12 or fewer places are empty instead of 16, 0 for never. It applies to the
+// game, the search, and the games of every optimisation, tournament, throughput run and network training. A checkpoint keeps it, and a
+// coordinator gives it to its workers.
+// -Dconnect4.geometry=9x7x5 plays the game on another board, here 9 columns by 7 rows needing 5 in a line, with the same Evaluator.
+// The book, the solver and the trained network are only used on the standard 7x6 board.
+//
+// The neural network itself is in Evaluator, with the board in Position and the weightings in Weights.
+// Engine.bestMove works out a move for any board and weightings, and SelfPlay plays the computer against itself.
+// MoveServer answers board strings from other software without starting Java again for every move.
+// None of these share any state, so any number of games can be worked out at once.
 //
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
 import java.awt.*;			// General Java
 import java.io.*;			// Input and output for keyboard input
 import java.util.Random;	// A pseudo random number stream to support a random element to computer move.
-import java.lang.Math.*;	// Math library to support raising a number to a power. x^1, x^2, x^3 so that 3 in a line has a much higher weighting.
+import java.util.Arrays;	// Copying the command line values.
+import java.nio.file.Files;	// Removing a finished optimisation's checkpoint.
+import java.nio.file.Paths;	// File names for batch analysis.
+import java.lang.management.ManagementFactory;	// Per thread allocation counter used to check that working out a move doesn't allocate.
 
-// The game is all contained in one class.
+// The console game and optimisation.
 public class Connect4 {
-	private static Random myRandom = new Random();						// Set up a pseudo random number chain.
-
-	private static char[][]   gameTable = new char[7][6]; 				// Standard Connect 4 game board with 7 rows and 6 columns.
-	private static int[][][]  winningColumns = new int[7][3][2];		// Array of possible vertical winning groups of 4, with counts of 'R' red and 'Y' pieces.
-	private static int[][][]  winningRows = new int[4][6][2];			// Array of possible horizontal winning groups of 4, with counts of 'R' red and 'Y' pieces.
-	private static int[][][]  winningDiagonalsUp = new int[4][3][2];	// Array of possible diagonal up/right winning groups of 4, with counts of 'R' red and 'Y' pieces.
-	private static int[][][]  winningDiagonalsDown = new int[4][3][2];	// Array of possible diagonal down/right winning groups of 4, with counts of 'R' red and 'Y' pieces.
-	private static double[][] combinedScoresR = new double[7][6];		// Array used to combine vertical, horizontal and diagonal scores for each board position for red.
-	private static double[][] combinedScoresY = new double[7][6];		// Array used to combine vertical, horizontal and diagonal scores for each board position for yellow.
-
-	// The default values below have been selected after optimisation.
-	private static double 	PIECESDEFAULT = 6.0; 						// (x from documentation) Now not optimised	
-	private static double	HORIZONTALDEFAULT = 1.0;					// (h from documentation) 
-	private static double	VERTICALDEFAULT = 1.0;						// (v documentation)
-	private static double	DIAGONALDEFAULT = 1.0;						// (d from documentation)
-	private static double	OPPNTMOVEDEFAULT = 0.5; 					// (o from documentation)
-	private static double	NEXTMOVEDEFAULT = 0.5;						// (n from documentation)
-	
-	// Weightings used in neural network calculations. These are optimised by lthe computer playing against itself.
-	private static double 	piecesWeight = PIECESDEFAULT;				// Number which is raised to the count of pieces 1, 2 or 3, so for 4.0 this would give 64 for 3 pieces.
-	private static double 	horizontalWeight = HORIZONTALDEFAULT; 		// Horizontal scores are multiplied by this weighting.
-	private static double 	verticalWeight = VERTICALDEFAULT;			// Weighting for verticals.
-	private static double 	diagonalWeight = DIAGONALDEFAULT;			// Weighting for diagonals.
-	private static double	oppntMoveWeight = OPPNTMOVEDEFAULT;			// 
-	private static double 	nextMoveWeight = NEXTMOVEDEFAULT;			// Weighting to multiply the score for the following move, before it is subtracted from the score for this move.
-
-	// Trial weightings used for optimising neural network.
-	private static double 	piecesNew = PIECESDEFAULT;
-	private static double 	horizontalNew = HORIZONTALDEFAULT; 		
-	private static double 	verticalNew = VERTICALDEFAULT;			
-	private static double 	diagonalNew = DIAGONALDEFAULT;			
-	private static double	oppntMoveNew = OPPNTMOVEDEFAULT;
-	private static double 	nextMoveNew = NEXTMOVEDEFAULT;			
-	
+
+	// Weightings used in neural network calculations. These are optimised by the computer playing against itself.
+	// The game and the move options replace the defaults with the weightings saved by the last optimisation, see loadWeights.
+	private Weights currentWeights = Weights.DEFAULT;
+
+	// The computer's neurons. The evaluator holds the game table and updates the neurons as each piece is played.
+	private Evaluator computer = new Evaluator(currentWeights);
+
+	// Moves for the first few plies, looked up instead of worked out. Null if there is no book for the current weightings.
+	private OpeningBook book = null;
+
+	// Works out the moves exactly once few places are left empty.
+	private Solver solver = new Solver();
+
+	// Empty places at or below which the solver plays, for the game, the search and self play. 0 for never.
+	private final int endgame = Math.max(Integer.getInteger("connect4.endgame", Solver.ENDGAME), 0);
+
+	// The trained network, if the game was asked to use one. Null for the standard evaluation.
+	private NeuralNetwork network = null;
+
+	// Searches ahead for the computer's moves and thinks during the human's turn, if the game was asked to search. Null otherwise.
+	private Ponderer ponderer = null;
+
+	// The board the game is played on. The computer's evaluator is made for it if it isn't the standard board.
+	private Geometry geometry = Geometry.STANDARD;
+
 	// The main program always starts at main. This just runs Connect 4 if there is no command line argument.
 	public static void main(String[] args) {
+		EngineMetrics.configure();		// Metrics are only turned on if asked for on the Java command line.
 		// If there is no command line argument then run the game
-		if (args.length == 0) {			
+		if (args.length == 0) {
 			new Connect4("");
 		}
 		// Otherwise pass the command line to the game to process.
 		else {
-			new Connect4(args[0]);
+			new Connect4(args[0], Arrays.copyOfRange(args, 1, args.length));
 		}
 	}
 
 	// The connect 4 start program. This can either run the game for a player or run optimisation.
 	// It also has the option to process a game board passed in via the command line argument.
 	Connect4(String cmdLine) {
-		int option = 0;
-		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-		String inputSt;
-		int move = 0;
+		this(cmdLine, new String[0]);
+	}
 
+	// Some options take further values from the command line.
+	Connect4(String cmdLine, String[] values) {
 		// Run the game
 		if (cmdLine == "") {
 			playConnect4();
 		}
 		// If the command line is 'O' run the optimisation.
 		else if (cmdLine.charAt(0) == 'O') {
-			optimiseWeightings();
+			optimiseWeightings((values.length > 0) ? values[0] : null, value(values, 1, System.nanoTime()), null);
+		}
+		// If the command line is 'H' run the parallel optimisation with its games played by workers.
+		else if (cmdLine.charAt(0) == 'H') {
+			coordinateOptimisation((int)value(values, 0, 4100), value(values, 1, System.nanoTime()), (int)value(values, 2, 10000));
+		}
+		// If the command line is 'J' join a coordinator as a worker.
+		else if (cmdLine.charAt(0) == 'J') {
+			joinCoordinator((values.length > 0) ? values[0] : "localhost:4100", (int)value(values, 1, 0));
+		}
+		// If the command line is 'K' carry on an optimisation from its checkpoint.
+		else if (cmdLine.charAt(0) == 'K') {
+			resumeOptimisation((int)value(values, 0, 0));
+		}
+		// If the command line is 'C' check the incremental neurons against a full recalculation.
+		// Java exits with 1 if any check finds a mismatch or a move allocates, so a build or script can tell.
+		else if (cmdLine.charAt(0) == 'C') {
+			if (checkEvaluator() > 0) {
+				System.exit(1);
+			}
+		}
+		// If the command line is 'P' run the optimisation in parallel.
+		else if (cmdLine.charAt(0) == 'P') {
+			optimiseInParallel((int)value(values, 0, 0), value(values, 1, System.nanoTime()), (int)value(values, 2, 10000),
+				(values.length > 3) ? values[3] : null, null);
+		}
+		// If the command line is 'W' train the neural network from a game log.
+		else if ((cmdLine.charAt(0) == 'W') && (values.length >= 1)) {
+			trainNetwork(values[0], (int)value(values, 1, 10), (int)value(values, 2, 0), value(values, 3, 1), (int)value(values, 4, 0));
+		}
+		// If the command line is 'D' write out the games in a game log as text.
+		else if ((cmdLine.charAt(0) == 'D') && (values.length >= 1)) {
+			dumpGameLog(values[0], (values.length > 1) ? values[1] : null);
+		}
+		// If the command line is 'E' tune all the weightings together by evolution.
+		else if (cmdLine.charAt(0) == 'E') {
+			optimiseByEvolution((int)value(values, 0, 25), (int)value(values, 1, 0), value(values, 2, System.nanoTime()));
+		}
+		// If the command line is 'S' keep running and answer board strings from standard input, or from a local port if one is given.
+		else if (cmdLine.charAt(0) == 'S') {
+			serveMoves((int)value(values, 0, 0));
+		}
+		// If the command line is 'N' search ahead from a board, or play the search against the one move look ahead if there is no board.
+		else if (cmdLine.charAt(0) == 'N') {
+			searchAhead((int)value(values, 0, 10), (int)value(values, 1, 64), (values.length > 2) ? values[2] : null);
+		}
+		// If the command line is 'G' generate the opening book.
+		else if (cmdLine.charAt(0) == 'G') {
+			generateBook((int)value(values, 0, 8), (int)value(values, 1, 8), (int)value(values, 2, 0));
+		}
+		// If the command line is 'T' measure how fast games are played.
+		else if (cmdLine.charAt(0) == 'T') {
+			measureThroughput((int)value(values, 0, 100000), (int)value(values, 1, 0), (int)value(values, 2, 10000),
+				(values.length > 3) ? values[3] : null, (values.length > 4) ? values[4] : null);
+		}
+		// If the command line is 'M' play the Monte Carlo tree search and measure how it scales with threads.
+		else if (cmdLine.charAt(0) == 'M') {
+			monteCarlo(value(values, 0, 20000), (int)value(values, 1, 0), value(values, 2, 0));
+		}
+		// If the command line is 'V' measure the speed on other sizes of board.
+		else if (cmdLine.charAt(0) == 'V') {
+			measureGeometries((values.length > 0) ? values[0] : "7x6,8x7,9x7,10x8,9x7x5", (int)value(values, 1, 20000), (int)value(values, 2, 6));
+		}
+		// If the command line is 'B' answer every board string in a file, writing the answers to another file.
+		else if ((cmdLine.charAt(0) == 'B') && (values.length >= 2)) {
+			analyseFile(values[0], values[1], (int)value(values, 2, 0));
+		}
+		// If the command line is 'L' play a tournament between the weightings in a file.
+		else if ((cmdLine.charAt(0) == 'L') && (values.length >= 1)) {
+			playTournament(values[0], (int)value(values, 1, 0), (int)value(values, 2, 10));
+		}
+		// Otherwise the command line is a board string. The move is written to Move.txt for the calling program to read.
+		else {
+			moveForBoard(cmdLine);
 		}
 	}
 
 	// Loop to keep playing connect 4 alternating human and computer moves, checking for game end and keeping score.
 	// On alternate goes the human or the computer get to start.
 	// Note that human always places R red and computer Y yellow.
-	private static void playConnect4() {
+	private void playConnect4() {
+		loadWeights();
+		String geometryText = System.getProperty("connect4.geometry");
+		if (geometryText != null) {
+			try {
+				geometry = Geometry.parse(geometryText);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage() + ", so the standard board is used");
+			}
+			if (!geometry.isStandard()) {
+				computer = new Evaluator(geometry, currentWeights);
+			}
+		}
+		String networkFile = System.getProperty("connect4.network");
+		if ((networkFile != null) && geometry.isStandard()) {
+			network = NeuralNetwork.open(Paths.get(networkFile));
+		}
+		if ((network == null) && geometry.isStandard()) {
+			book = OpeningBook.open(Paths.get(OpeningBook.FILE), currentWeights);
+			int depth = Integer.getInteger("connect4.depth", 0);
+			if (depth > 0) {
+				int threads = Integer.getInteger("connect4.ponder", Math.min(Runtime.getRuntime().availableProcessors(), Position.WIDTH));
+				ponderer = new Ponderer(currentWeights, new TranspositionTable(64), book, depth, endgame, threads, Long.getLong("connect4.ponder.budget", 30) * 1000);
+				System.out.println("The computer searches " + depth + " moves ahead" + ((ponderer.threads() > 0) ? ", thinking on " + ponderer.threads() + " threads during your turn" : ""));
+			}
+		}
 		char winner = ' ';
 		int Ywin = 0;	// Counts of game wins and draws
 		int Rwin = 0;
 		int Draw = 0;
-		
+
 		// This could be a higher number, but it is unlikely that a human would have 10000 games in a row.
 		for (int z = 0;z < 10000; z++) {
 			// Human goes first
@@ -106,13 +245,13 @@ public class Connect4 {
 					winner = gameEnded();
 					if (winner != ' ') {	// This construct just exits the loop if the game has ended
 						break;
-					}				
+					}
 					displayBoard();
-					calculateMove('Y', 2); // computer plays yellow with current weightings
+					computerMove(); // computer plays yellow with current weightings
 					winner = gameEnded();
 					if (winner != ' ') {
 						break;
-					}				
+					}
 				}
 			}
 			// Computer goes first
@@ -120,720 +259,1092 @@ public class Connect4 {
 				clearGameTable();
 				for(;;) {
 					displayBoard();
-					calculateMove('Y', 2);
+					computerMove();
 					winner = gameEnded();
 					if (winner != ' ') {
 						break;
-					}				
+					}
 					displayBoard();
 					humanMove();
 					winner = gameEnded();
 					if (winner != ' ') {
 						break;
-					}				
+					}
 				}
 			}
 			displayBoard();	// Display the board again to show the winning move.
+			if (ponderer != null) {
+				ponderer.stop();
+			}
+			if (EngineMetrics.on()) {
+				EngineMetrics.INSTANCE.gameFinished();
+			}
 			//Update and display the winning counts.
 			if (winner == 'Y') { Ywin++; }
 			if (winner == 'R') { Rwin++; }
 			if (winner == 'D') { Draw++; }
-			System.out.println("Winner " + winner + "   R-wins " + Rwin + " Y-wins " + Ywin + " Draws " + Draw);				
+			System.out.println("Winner " + winner + "   R-wins " + Rwin + " Y-wins " + Ywin + " Draws " + Draw);
+			if ((ponderer != null) && (ponderer.threads() > 0)) {
+				System.out.println("Replies worked out during your turn " + ponderer.pondered() + ", after it " + ponderer.missed() + ", " + (float)ponderer.ponderSeconds() + " CPU seconds thinking during your turns");
+			}
 		}
 	}
-	
+
 	// Optimisation is done by playing the current weightings against the default weightings and then the new weightings. If the new weightings win more games, the new weightings are adopted.
-	private static void optimiseWeightings() {
-		char winner = ' ';
-		// Winning counts used to determine if the weightings are an improvement.
-		int Ywin = 0;
-		int Rwin = 0;
-		int Draw = 0;
-		
-		for (int a = 0; a < 10000; a++)
+	// A checkpoint is saved every CHECKPOINT trials and whenever weightings are adopted, and a run is carried on from one if it is given.
+	private void optimiseWeightings(String logFile, long seed, Checkpoint resume) {
+		final int trials = 10000;
+		final int CHECKPOINT = 100;
+		int solveFrom = (resume != null) ? resume.endgame() : endgame;		// A run carried on keeps its own, so it plays the same games.
+		SelfPlay selfPlay = new SelfPlay(solveFrom);
+		SelfPlay.Result result;
+		Random random = new Random(seed);		// Made from a seed so a checkpoint can make the same numbers again.
+		long draws = 0;
+		int first = 0;
+		String[] adopted = new String[0];
+		if (resume != null) {
+			first = resume.next();
+			currentWeights = resume.weights();
+			adopted = resume.adopted();
+			for (String line : adopted) {
+				System.out.println(line);
+			}
+			for (; draws < resume.draws(); draws++) {
+				random.nextDouble();
+			}
+		}
+		else {
+			System.out.println("Optimising " + trials + " trials with seed " + seed);
+		}
+		GameLog.Writer log = openGameLog(logFile, resume);
+		selfPlay.recordGames(log);
+
+		for (int a = first; a < trials; a++)
 		{
-			piecesNew = PIECESDEFAULT; //myRandom.nextDouble()     * 7.0 + 1.01; // 1.0 to 8.0
-			horizontalNew = myRandom.nextDouble() * 1.5 + 0.51; // 0.5 to 2.0
-			verticalNew = myRandom.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0
-			diagonalNew = DIAGONALDEFAULT; // myRandom.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0
-			nextMoveNew = OPPNTMOVEDEFAULT; // myRandom.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0			
-			oppntMoveNew = NEXTMOVEDEFAULT; // myRandom.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0			
-
-			// The counts are cleared before each run of games.
-			Ywin = 0;
-			Rwin = 0;
-			Draw = 0;
+			// Trial weightings used for optimising neural network.
+			Weights newWeights = new Weights(
+				Weights.PIECESDEFAULT, 						// random.nextDouble()     * 7.0 + 1.01; // 1.0 to 8.0
+				random.nextDouble() * 1.5 + 0.51,			// horizontal 0.5 to 2.0
+				random.nextDouble() * 1.5 + 0.51,			// vertical 0.5 to 2.0
+				Weights.DIAGONALDEFAULT,					// random.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0
+				Weights.OPPNTMOVEDEFAULT,					// random.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0
+				Weights.NEXTMOVEDEFAULT);					// random.nextDouble()   * 1.5 + 0.51; // 0.5 to 2.0
+			draws += 2;
+			boolean adopt = false;
+
 			// Play games with players alternately playing first.
 			// Red plays the default weightings, Yellow plays the new ones.
 			// Not many games are played as the games are likely to be similar.
-			for (int z = 0;z < 14; z++) {
-				if (z%2 == 1) {
-					gameTable[z%7][0] = 'Y';
-					clearGameTable();
-					for(;;) {
-						calculateMove('R', 1); // Default weightings
-						winner = gameEnded();
-						if (winner != ' ') {
-							break;
-						}				
-						calculateMove('Y', 3); // Trial weightings
-						winner = gameEnded();
-						if (winner != ' ') {
-							break;
-						}				
-					}
-				}
-				else {
-					clearGameTable();
-					gameTable[z%7][0] = 'R';
-					for(;;) {
-						calculateMove('Y', 3);
-						winner = gameEnded();
-						if (winner != ' ') {
-							break;
-						}				
-						calculateMove('R', 1);
-						winner = gameEnded();
-						if (winner != ' ') {
-							break;
-						}				
-					}
-				}
-				if (winner == 'Y') { Ywin++; }
-				if (winner == 'R') { Rwin++; }
-				if (winner == 'D') { Draw++; }
-			}
-			
+			result = selfPlay.playMatch(Weights.DEFAULT, newWeights, 14);
+
 			// If the new weightings won more games than the default weightings, try playing the current weightings.
 			// Only bother if there is a noticeable difference. The random effect allows for some change anyway.
-			if (Ywin > (Rwin + 2)) {
-				// The counts are again cleared.
-				Ywin = 0;
-				Rwin = 0;
-				Draw = 0;
-				// Play games with players alternately playing first.
+			if (result.yellowWins > (result.redWins + 2)) {
 				// Red plays current weightings, yellow plays the new ones.
-				// Red first
-				for (int z = 0;z < 14; z++) {
-					if (z%2 == 1) {
-						clearGameTable();
-						gameTable[z%7][0] = 'Y';
-						for(;;) {
-							calculateMove('R', 2); // current weightings
-							winner = gameEnded();
-							if (winner != ' ') {
-								break;
-							}				
-							calculateMove('Y', 3); // Trial weightings
-							winner = gameEnded();
-							if (winner != ' ') {
-								break;
-							}				
-						}
-					}
-					// Yellow first
-					else {
-						clearGameTable();
-						gameTable[z%7][0] = 'R';
-						for(;;) {
-							calculateMove('Y', 3);
-							winner = gameEnded();
-							if (winner != ' ') {
-								break;
-							}				
-							calculateMove('R', 2);
-							winner = gameEnded();
-							if (winner != ' ') {
-								break;
-							}				
-						}
-					}
-					if (winner == 'Y') { Ywin++; }
-					if (winner == 'R') { Rwin++; }
-					if (winner == 'D') { Draw++; }
-				}
-		
+				result = selfPlay.playMatch(currentWeights, newWeights, 14);
+
 				// If the new settings won more use them.
 				// Only bother if there is a noticeable difference. The random effect allows for some change anyway.
-				if (Ywin > (Rwin + 2)) {
-					piecesWeight = piecesNew;
-					horizontalWeight = horizontalNew; 		
-					verticalWeight = verticalNew;			
-					diagonalWeight = diagonalNew;			
-					nextMoveWeight = nextMoveNew;
-					oppntMoveWeight = oppntMoveNew;
-					System.out.println(a + " R " + Rwin + " Y " + Ywin + " Pieces " + (float)((int)(piecesWeight*10)/10.0) + " Horizontal " + (float)((int)(horizontalWeight*10)/10.0) + " Vertical " + (float)((int)(verticalWeight*10)/10.0) + " Diagonal " + (float)((int)(diagonalWeight*10)/10.0) + " OppntMove " + (float)((int)(oppntMoveWeight*10)/10.0) + " NextMove " + (float)((int)(nextMoveWeight*10)/10.0));
+				if (result.yellowWins > (result.redWins + 2)) {
+					currentWeights = newWeights;
+					String line = a + " R " + result.redWins + " Y " + result.yellowWins + " " + currentWeights;
+					adopted = Arrays.copyOf(adopted, adopted.length + 1);
+					adopted[adopted.length - 1] = line;
+					System.out.println(line);
+					adopt = true;
 				}
 			}
+			if (adopt || ((a + 1) % CHECKPOINT == 0)) {
+				saveCheckpoint(new Checkpoint('O', trials, a + 1, seed, draws, solveFrom, currentWeights, logFile, adopted), log);
+			}
 		}
+		Solver solved = selfPlay.solver();
+		System.out.println("Endgame solver: " + solved.solves() + " moves, " + solved.totalNodes() + " nodes, " + (float)(solved.totalNanos() / 1e9) + " seconds");
+		closeGameLog(log);
+		keepWeights(true);
 	}
-	
-	// This is a small function to clear all places in the game table ready for a new game.
-	private static void clearGameTable() {
-		for (int x = 0; x < 7; x++) {
-			for (int y = 0; y < 6; y++) {
-				gameTable[x][y] = ' ';
+
+	// Carry on the optimisation saved in Connect4.checkpoint, with the game log it was writing. The parallel one uses the threads given.
+	private void resumeOptimisation(int threads) {
+		Checkpoint checkpoint = Checkpoint.open(Paths.get(Checkpoint.FILE));
+		if (checkpoint == null) {
+			return;
+		}
+		System.out.println("Carrying on optimisation " + checkpoint.optimiser() + " from trial " + checkpoint.next() + " of " + checkpoint.trials() + " with seed " + checkpoint.seed());
+		if (checkpoint.optimiser() == 'O') {
+			optimiseWeightings(checkpoint.log(), checkpoint.seed(), checkpoint);
+		}
+		else {
+			optimiseInParallel(threads, checkpoint.seed(), checkpoint.trials(), checkpoint.log(), checkpoint);
+		}
+	}
+
+	// Save a checkpoint after writing out the games played so far, with the length of the log then.
+	// A checkpoint that can't be saved is reported and the run goes on.
+	private void saveCheckpoint(Checkpoint checkpoint, GameLog.Writer log) {
+		try {
+			if (log != null) {
+				log.flush();
+				checkpoint = checkpoint.withLogLength(log.length());
 			}
+			checkpoint.save(Paths.get(Checkpoint.FILE));
+		}
+		catch (IOException e) {
+			System.err.println("Unable to save the checkpoint: " + e.getMessage());
 		}
-		return;
 	}
 
-	// This function prompts the human player for their move. If the value they enter does not correspond to a column with space to play, they are prompted again.
-	private static void humanMove() {
-		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-		String inputSt;
-		int move = 0;
-		for (;;) {
-			System.out.println("Select the column (1 to 7)");
-			// try catch must be used. As a string is entered, there is no chance of an exception.
-			try {
-				inputSt = br.readLine();
-				move = Integer.parseInt(inputSt);
+	// Save the weightings an optimisation finished with for the game and the move options to load.
+	// A run that saved checkpoints is over, so its checkpoint is removed.
+	private void keepWeights(boolean checkpointed) {
+		try {
+			currentWeights.save(Paths.get(Weights.FILE));
+			System.out.println("Weightings saved to " + Weights.FILE);
+			if (checkpointed) {
+				Files.deleteIfExists(Paths.get(Checkpoint.FILE));
 			}
-				catch (Exception e) {
+		}
+		catch (IOException e) {
+			System.err.println("Unable to save the weightings: " + e.getMessage());
+		}
+	}
+
+	// Use the weightings saved by the last optimisation, from Connect4.weights or the file given by -Dconnect4.weights, instead of the
+	// defaults. If there are none the defaults are kept.
+	private void loadWeights() {
+		currentWeights = Weights.open(Paths.get(System.getProperty("connect4.weights", Weights.FILE)));
+		computer.reset(currentWeights);
+	}
+
+	// Open a game log to add games to, or return null if no file is given or it can't be opened.
+	// A run carried on from a checkpoint first cuts the log back to its length then, as the games after it are played again.
+	private GameLog.Writer openGameLog(String logFile, Checkpoint resume) {
+		if (logFile == null) {
+			return null;
+		}
+		try {
+			if ((resume != null) && (resume.logLength() >= 0)) {
+				return GameLog.append(Paths.get(logFile), resume.logLength());
 			}
-			// Only if the move is inside the game table and the column has space is the move used and the function exited.
-			if ((move >= 1) && (move <= 7)) {
-				for (int  y = 0; y < 6; y++) {
-					if (gameTable[move - 1][y] == ' ') {
-						gameTable[move - 1][y] = 'R';
-						return;
-					}
+			return GameLog.append(Paths.get(logFile));
+		}
+		catch (IOException e) {
+			System.err.println("Unable to open the game log, games will not be kept: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void closeGameLog(GameLog.Writer log) {
+		if (log == null) {
+			return;
+		}
+		try {
+			log.close();
+			System.out.println(log.games() + " games added to the game log");
+		}
+		catch (IOException e) {
+			System.err.println("Unable to finish writing the game log: " + e.getMessage());
+		}
+	}
+
+	// Train a network with 64 and 32 hidden units from the games in a log, save it, and play it against the current weightings.
+	// The first 8 moves of each new game are random.
+	private void trainNetwork(String logFile, int epochs, int threads, long seed, int games) {
+		NetworkTrainer trainer = new NetworkTrainer(threads, endgame);
+		try {
+			if (games > 0) {
+				try (GameLog.Writer log = GameLog.append(Paths.get(logFile))) {
+					long start = System.nanoTime();
+					trainer.generate(log, currentWeights, games, 8, seed);
+					System.out.println(games + " games with random openings added to " + logFile + " in " + (float)((System.nanoTime() - start) / 1e9) + " seconds");
 				}
 			}
+			long loaded = trainer.load(Paths.get(logFile));
+			System.out.println(loaded + " games, " + trainer.positions() + " positions including mirrored ones");
+			NeuralNetwork trained = NeuralNetwork.random(64, 32, seed);
+			trainer.train(trained, epochs, 256, 0.001, seed);
+			trained.save(Paths.get(NeuralNetwork.FILE));
+			System.out.println("Saved " + NeuralNetwork.FILE);
+			int[] results = NetworkTrainer.match(trained, currentWeights, endgame);
+			System.out.println("Against " + currentWeights + ": network wins " + results[0] + " losses " + results[1] + " draws " + results[2]);
 		}
-	}	
+		catch (IOException e) {
+			System.err.println("Training stopped: " + e.getMessage());
+		}
+		trainer.shutdown();
+	}
 
-	// This function looks through all of the possible winning lines of 4 to see if there is a winner. If there is a winner R is returned for red or Y for yellow.
-	// If the top row of the board is full the game is over and it was a draw, otherwise a space is returned.
-	private static char gameEnded() {
-		// Check for vertical winning lines.
-		for (int x = 0; x < 7; x++) {
-			for (int y = 0; y < 3; y++) {
-				if ((gameTable[x][y] == 'R') && (gameTable[x][y+1] == 'R') && (gameTable[x][y+2] == 'R') && (gameTable[x][y+3] == 'R')) {
-					return 'R';
-				}
-				if ((gameTable[x][y] == 'Y') && (gameTable[x][y+1] == 'Y') && (gameTable[x][y+2] == 'Y') && (gameTable[x][y+3] == 'Y')) {
-					return 'Y';
+	// Write every set of weightings and game in a log as text, one to a line, to a file or the console.
+	private void dumpGameLog(String logFile, String outputFile) {
+		try (GameLog.Reader reader = GameLog.read(Paths.get(logFile));
+			PrintWriter out = (outputFile != null) ? new PrintWriter(new BufferedWriter(new FileWriter(outputFile))) : new PrintWriter(System.out)) {
+			int weightsShown = 0;
+			GameLog.Game game;
+			while ((game = reader.next()) != null) {
+				while (weightsShown < reader.weights().size()) {
+					Weights w = reader.weights().get(weightsShown);
+					out.println("weights " + weightsShown + " " + w.pieces() + "," + w.horizontal() + "," + w.vertical() + ","
+						+ w.diagonal() + "," + w.oppntMove() + "," + w.nextMove());
+					weightsShown++;
 				}
+				out.println("game " + reader.games() + " " + game);
 			}
+			out.flush();
+			System.err.println(reader.games() + " games");
 		}
-		// Check for horizontal winning lines.
-		for (int x = 0; x < 4; x++) {
-			for (int y = 0; y < 6; y++) {
-				if ((gameTable[x][y] == 'R') && (gameTable[x+1][y] == 'R') && (gameTable[x+2][y] == 'R') && (gameTable[x+3][y] == 'R')) {
-					return 'R';
-				}
-				if ((gameTable[x][y] == 'Y') && (gameTable[x+1][y] == 'Y') && (gameTable[x+2][y] == 'Y') && (gameTable[x+3][y] == 'Y')) {
-					return 'Y';
-				}
+		catch (IOException e) {
+			System.err.println("Unable to read the game log: " + e.getMessage());
+		}
+	}
+
+	// Run the optimisation on a number of threads, 0 for one per core. The seed is printed so that a run can be repeated exactly.
+	// A checkpoint is saved after every block of trials, and a run is carried on from one if it is given.
+	private void optimiseInParallel(int threads, long seed, int trials, String logFile, Checkpoint resume) {
+		Optimiser optimiser = new Optimiser(threads, (resume != null) ? resume.endgame() : endgame);	// A run carried on keeps its own.
+		GameLog.Writer log = openGameLog(logFile, resume);
+		optimiser.recordGames(log);
+		optimiser.checkpointTo(Paths.get(Checkpoint.FILE), logFile);
+		System.out.println("Optimising " + trials + " trials on " + optimiser.threads() + " threads with seed " + seed);
+		long start = System.nanoTime();
+		currentWeights = (resume != null) ? optimiser.resume(resume) : optimiser.optimise(trials, seed);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		optimiser.shutdown();
+		System.out.println("Finished with " + currentWeights);
+		System.out.println(optimiser.gamesPlayed() + " games in " + (float)seconds + " seconds, " + (long)(optimiser.gamesPlayed() / seconds) + " games per second");
+		closeGameLog(log);
+		keepWeights(true);
+	}
+
+	// Run the parallel optimisation with every game played by workers connected to a port on this machine, saving checkpoints as P does.
+	// A run stopped part way is carried on by K, on this machine's threads, with the same results.
+	private void coordinateOptimisation(int port, long seed, int trials) {
+		Coordinator coordinator;
+		try {
+			coordinator = new Coordinator(port, 30, endgame);
+		}
+		catch (IOException e) {
+			System.err.println("Unable to listen on port " + port + ": " + e.getMessage());
+			return;
+		}
+		Optimiser optimiser = new Optimiser(1, endgame);
+		optimiser.distributeTo(coordinator);
+		optimiser.checkpointTo(Paths.get(Checkpoint.FILE), null);
+		System.out.println("Optimising " + trials + " trials with seed " + seed + ", waiting for workers on port " + coordinator.port());
+		long start = System.nanoTime();
+		currentWeights = optimiser.optimise(trials, seed);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		try {
+			coordinator.close();
+		}
+		catch (IOException e) {
+			System.err.println("Unable to stop listening: " + e.getMessage());
+		}
+		optimiser.shutdown();
+		System.out.println("Finished with " + currentWeights);
+		System.out.println(optimiser.gamesPlayed() + " games in " + (float)seconds + " seconds, " + (long)(optimiser.gamesPlayed() / seconds) + " games per second");
+		System.out.println(coordinator.gamesPlayed() + " results counted, " + coordinator.duplicates() + " duplicates dropped, "
+			+ coordinator.reassigned() + " games reassigned from " + coordinator.workersLost() + " lost workers, " + coordinator.copies() + " second copies sent");
+		keepWeights(true);
+	}
+
+	// Play games for a coordinator until it finishes, on all cores or the number of threads given.
+	private void joinCoordinator(String address, int threads) {
+		int colon = address.lastIndexOf(':');
+		String host = (colon < 0) ? "localhost" : address.substring(0, colon);
+		int port;
+		try {
+			port = Integer.parseInt(address.substring(colon + 1));
+		}
+		catch (NumberFormatException e) {
+			System.err.println("A coordinator is given as host:port, such as localhost:4100, not " + address);
+			return;
+		}
+		GameWorker worker = new GameWorker(threads);
+		System.out.println("Joining " + host + ":" + port + " with " + worker.threads() + " threads");
+		long start = System.nanoTime();
+		try {
+			worker.run(host, port, 60);
+		}
+		catch (IOException e) {
+			System.err.println("Worker stopped: " + e.getMessage());
+		}
+		worker.shutdown();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(worker.gamesPlayed() + " games played in " + (float)seconds + " seconds");
+	}
+
+	// Run the evolutionary optimisation for a number of generations on a number of threads, 0 for one per core.
+	// The seed is printed so that a run can be repeated exactly.
+	private void optimiseByEvolution(int generations, int threads, long seed) {
+		EvolutionOptimiser optimiser = new EvolutionOptimiser(threads, endgame);
+		System.out.println("Optimising " + generations + " generations on " + optimiser.threads() + " threads with seed " + seed);
+		long start = System.nanoTime();
+		currentWeights = optimiser.optimise(generations, seed);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		optimiser.shutdown();
+		System.out.println("Finished with " + currentWeights);
+		System.out.println(optimiser.gamesPlayed() + " games in " + (float)seconds + " seconds, " + (long)(optimiser.gamesPlayed() / seconds) + " games per second");
+		keepWeights(false);
+	}
+
+	// Play every set of weightings in a file against every other on a number of threads, 0 for one per core.
+	private void playTournament(String file, int threads, int reportSeconds) {
+		Tournament tournament = new Tournament(threads, endgame);
+		try {
+			tournament.load(Paths.get(file));
+		}
+		catch (IOException e) {
+			System.err.println("Unable to read the weightings: " + e.getMessage());
+			tournament.shutdown();
+			return;
+		}
+		if (tournament.entrants() < 2) {
+			System.err.println("A tournament needs at least two sets of weightings");
+		}
+		else {
+			tournament.run(reportSeconds);
+		}
+		tournament.shutdown();
+	}
+
+	// Work out the move for one board string and write it to Move.txt.
+	private void moveForBoard(String board) {
+		loadWeights();
+		StringBuilder answer = new StringBuilder("Move ");
+		Engine.answer(board, currentWeights, answer);
+		System.out.println(answer);
+		try (PrintWriter file = new PrintWriter(new FileWriter("Move.txt"))) {
+			file.print(answer);
+		}
+		catch (IOException e) {
+			System.err.println("Unable to write Move.txt: " + e.getMessage());
+		}
+	}
+
+	// Answer every board string in a file on all cores, or on the number of threads given.
+	private void analyseFile(String inputFile, String outputFile, int threads) {
+		loadWeights();
+		BatchAnalyser analyser = new BatchAnalyser(currentWeights, threads);
+		long start = System.nanoTime();
+		try {
+			analyser.analyse(Paths.get(inputFile), Paths.get(outputFile));
+		}
+		catch (IOException e) {
+			System.err.println("Batch analysis stopped: " + e.getMessage());
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		analyser.shutdown();
+		System.out.println(analyser.boardsAnalysed() + " boards in " + (float)seconds + " seconds on " + analyser.threads() + " threads, " + (long)(analyser.boardsAnalysed() / seconds) + " boards per second");
+	}
+
+	// Answer board strings until the input is closed, or until the program is stopped if listening on a port.
+	// Nothing else is written to standard output, so the answers can be read straight back by the calling program.
+	private void serveMoves(int port) {
+		loadWeights();
+		MoveServer server = new MoveServer(currentWeights);
+		try {
+			if (port > 0) {
+				server.listen(port);
+			}
+			else {
+				server.serveConsole();
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Move server stopped: " + e.getMessage());
+		}
+	}
+
+	// Search from one board and show the move, or with no board play a match of the search against selectMove and show how fast it searched.
+	private void searchAhead(int depth, int megabytes, String board) {
+		TranspositionTable table = (megabytes > 0) ? new TranspositionTable(megabytes) : null;
+		Search search = new Search(currentWeights, table, endgame);
+		if (board != null) {
+			Position position = Position.fromBoardString(board);
+			char player = position.toMove();
+			int move = search.bestMove(position, player, depth);
+			System.out.println(player + " move " + (move + 1) + " score " + search.score() + " depth " + depth + " nodes " + search.nodes() + " in " + (search.nanos() / 1000000.0) + " ms, " + search.nodesPerSecond() + " nodes per second");
+			if (table != null) {
+				System.out.println(table.statistics());
 			}
+			return;
 		}
-		// Check for diagonal up winning lines.
-		for (int x = 0; x < 4; x++) {
-			for (int y = 0; y < 3; y++) {
-				if ((gameTable[x][y] == 'R') && (gameTable[x+1][y+1] == 'R') && (gameTable[x+2][y+2] == 'R') && (gameTable[x+3][y+3] == 'R')) {
-					return 'R';
+		// The search plays yellow and selectMove plays red, opening in each column in turn with each side starting alternately.
+		Evaluator red = new Evaluator(currentWeights);
+		int Ywin = 0;
+		int Rwin = 0;
+		int Draw = 0;
+		long nodes = 0;
+		long nanos = 0;
+		long slowest = 0;
+		int moves = 0;
+		for (int z = 0; z < 14; z++) {
+			red.reset(currentWeights);
+			char player = (z%2 == 1) ? 'Y' : 'R';
+			red.play(z%7, player);
+			char winner;
+			while ((winner = red.position().gameEnded()) == ' ') {
+				player = (player == 'R') ? 'Y' : 'R';
+				if (player == 'R') {
+					red.calculateMove('R');
 				}
-				if ((gameTable[x][y] == 'Y') && (gameTable[x+1][y+1] == 'Y') && (gameTable[x+2][y+2] == 'Y') && (gameTable[x+3][y+3] == 'Y')) {
-					return 'Y';
+				else {
+					red.play(search.bestMove(red.position(), 'Y', depth), 'Y');
+					nodes += search.nodes();
+					nanos += search.nanos();
+					slowest = Math.max(slowest, search.nanos());
+					moves++;
 				}
 			}
+			if (winner == 'Y') { Ywin++; }
+			if (winner == 'R') { Rwin++; }
+			if (winner == 'D') { Draw++; }
 		}
-		// Check for diagonal down winning lines.
-		for (int x = 0; x < 4; x++) {
-			for (int y = 3; y < 6; y++) {
-				if ((gameTable[x][y] == 'R') && (gameTable[x+1][y-1] == 'R') && (gameTable[x+2][y-2] == 'R') && (gameTable[x+3][y-3] == 'R')) {
-					return 'R';
+		System.out.println("Search depth " + depth + " as Y against selectMove as R: R " + Rwin + " Y " + Ywin + " D " + Draw);
+		System.out.println(moves + " moves, " + (nodes / Math.max(moves, 1)) + " nodes per move, " + (nanos / Math.max(moves, 1) / 1000000.0) + " ms per move, slowest "
+			+ (slowest / 1000000.0) + " ms, " + (long)(nodes * 1e9 / Math.max(nanos, 1)) + " nodes per second");
+		if (table != null) {
+			System.out.println(table.statistics());
+		}
+	}
+
+	// Play the Monte Carlo tree search as yellow against selectMove as red, opening in each column in turn with each side starting
+	// alternately, then time a fixed number of playouts from the same positions on 1, 2, 4 ... threads up to the number asked for.
+	// The scaling efficiency is the speed on n threads divided by n times the speed on one.
+	private void monteCarlo(long playouts, int threads, long millis) {
+		int maxThreads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+		MonteCarlo search = new MonteCarlo(currentWeights, maxThreads, 1 << 22);
+		Evaluator red = new Evaluator(currentWeights);
+		int Ywin = 0;
+		int Rwin = 0;
+		int Draw = 0;
+		long total = 0;
+		long nanos = 0;
+		int moves = 0;
+		for (int z = 0; z < 14; z++) {
+			red.reset(currentWeights);
+			char player = (z%2 == 1) ? 'Y' : 'R';
+			red.play(z%7, player);
+			char winner;
+			while ((winner = red.position().gameEnded()) == ' ') {
+				player = (player == 'R') ? 'Y' : 'R';
+				if (player == 'R') {
+					red.calculateMove('R');
 				}
-				if ((gameTable[x][y] == 'Y') && (gameTable[x+1][y-1] == 'Y') && (gameTable[x+2][y-2] == 'Y') && (gameTable[x+3][y-3] == 'Y')) {
-					return 'Y';
+				else {
+					red.play(search.bestMove(red.position(), 'Y', playouts, millis), 'Y');
+					total += search.playouts();
+					nanos += search.nanos();
+					moves++;
 				}
 			}
+			if (winner == 'Y') { Ywin++; }
+			if (winner == 'R') { Rwin++; }
+			if (winner == 'D') { Draw++; }
 		}
-		// Check if the top row is full, showing the board is full and therefore the end of the game.
-		if ((gameTable[0][5] != ' ')&&(gameTable[1][5] != ' ')&&(gameTable[2][5] != ' ')&&(gameTable[3][5] != ' ')&&(gameTable[4][5] != ' ')&&(gameTable[5][5] != ' ')&&(gameTable[6][5] != ' ')) {
-			return 'D';
+		search.shutdown();
+		System.out.println("Monte Carlo as Y against selectMove as R: R " + Rwin + " Y " + Ywin + " D " + Draw);
+		System.out.println(moves + " moves, " + (total / Math.max(moves, 1)) + " playouts per move, " + (nanos / Math.max(moves, 1) / 1000000.0) + " ms per move, "
+			+ (long)(total * 1e9 / Math.max(nanos, 1)) + " playouts per second on " + maxThreads + " threads");
+
+		// The same positions for every number of threads: the board after the first three moves of each opening.
+		Position[] positions = new Position[7];
+		for (int x = 0; x < positions.length; x++) {
+			red.reset(currentWeights);
+			red.play(x, 'R');
+			red.calculateMove('Y');
+			red.calculateMove('R');
+			positions[x] = new Position(red.position());
 		}
+		long scalePlayouts = (playouts > 0) ? playouts : 20000;
+		double single = 0;
+		for (int t = 1; ; t = Math.min(t * 2, maxThreads)) {
+			MonteCarlo scaled = new MonteCarlo(currentWeights, t, 1 << 22);
+			scaled.bestMove(positions[0], 'Y', scalePlayouts, 0);		// Compile the code first.
+			long done = 0;
+			long taken = 0;
+			for (Position position : positions) {
+				scaled.bestMove(position, 'Y', scalePlayouts, 0);
+				done += scaled.playouts();
+				taken += scaled.nanos();
+			}
+			scaled.shutdown();
+			double rate = done * 1e9 / taken;
+			if (t == 1) {
+				single = rate;
+			}
+			System.out.println(t + " threads: " + (long)rate + " playouts per second, scaling efficiency " + (float)(rate / (t * single)));
+			if (t == maxThreads) {
+				break;
+			}
+		}
+	}
 
-		// If not over return a blank.
-		return ' ';
+	// Make the opening book for the current weightings and check that it reads back.
+	private void generateBook(int plies, int depth, int threads) {
+		loadWeights();
+		long start = System.nanoTime();
+		try {
+			OpeningBook.generate(Paths.get(OpeningBook.FILE), currentWeights, plies, depth, threads);
+		}
+		catch (IOException e) {
+			System.err.println("Unable to write " + OpeningBook.FILE + ": " + e.getMessage());
+			return;
+		}
+		OpeningBook made = OpeningBook.open(Paths.get(OpeningBook.FILE), currentWeights);
+		if (made != null) {
+			System.out.println(OpeningBook.FILE + " has " + made.size() + " positions, made in " + (float)((System.nanoTime() - start) / 1e9) + " seconds");
+		}
 	}
-		
-	// function to display the board.
-	private static void displayBoard() {
-		System.out.println("");
-		System.out.println("-----------------------------");
-		System.out.println("| " + gameTable[0][5] + " | " + gameTable[1][5] + " | " + gameTable[2][5] + " | " + gameTable[3][5] + " | " + gameTable[4][5] + " | " + gameTable[5][5] + " | " + gameTable[6][5] + " | ");
-		System.out.println("| " + gameTable[0][4] + " | " + gameTable[1][4] + " | " + gameTable[2][4] + " | " + gameTable[3][4] + " | " + gameTable[4][4] + " | " + gameTable[5][4] + " | " + gameTable[6][4] + " | ");
-		System.out.println("| " + gameTable[0][3] + " | " + gameTable[1][3] + " | " + gameTable[2][3] + " | " + gameTable[3][3] + " | " + gameTable[4][3] + " | " + gameTable[5][3] + " | " + gameTable[6][3] + " | ");
-		System.out.println("| " + gameTable[0][2] + " | " + gameTable[1][2] + " | " + gameTable[2][2] + " | " + gameTable[3][2] + " | " + gameTable[4][2] + " | " + gameTable[5][2] + " | " + gameTable[6][2] + " | ");
-		System.out.println("| " + gameTable[0][1] + " | " + gameTable[1][1] + " | " + gameTable[2][1] + " | " + gameTable[3][1] + " | " + gameTable[4][1] + " | " + gameTable[5][1] + " | " + gameTable[6][1] + " | ");
-		System.out.println("| " + gameTable[0][0] + " | " + gameTable[1][0] + " | " + gameTable[2][0] + " | " + gameTable[3][0] + " | " + gameTable[4][0] + " | " + gameTable[5][0] + " | " + gameTable[6][0] + " | ");
-		System.out.println("-----------------------------");
-		System.out.println("");
-		return;
+
+	// Play games between two sets of weightings as fast as possible and report the speed.
+	private void measureThroughput(int games, int threads, int warmup, String redWeights, String yellowWeights) {
+		Weights red = currentWeights;
+		Weights yellow = currentWeights;
+		try {
+			if (redWeights != null) {
+				red = Weights.parse(redWeights);
+			}
+			if (yellowWeights != null) {
+				yellow = Weights.parse(yellowWeights);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		Throughput throughput = new Throughput(threads, endgame);
+		throughput.run(red, yellow, warmup, games);
+		throughput.shutdown();
 	}
 
-	// function to work out the computer move. This calls different functions to calculate the neural network. 
-	// Then puts the computer move into the next available space in the chosen column.
-	private static int calculateMove(char Player, int weights) {	// The player selects R for red or Y for Yellow. The weights is 1 default, 2 current or 3 new
-		int move = 0;
-		doWinningColumns();					// 21 neurons
-		doWinningRows();					// 24 neurons
-		doWinningDiagonalsUp();				// 12 neurons
-		doWinningDiagonalsDown();			// 12 neurons
-		doCombinedScores(weights);			// The selection of which weightings to use must be passed to the function.
-		move = selectMove(Player, weights); // The move selected depends on the player viewpoint as well as weightings.
-		// put the player move into the game table.
-		for (int  y = 0; y < 6; y++) {
-			if (gameTable[move][y] == ' ') {
-				gameTable[move][y] = Player;
-				// The move is returned to support the command line option.
-				break;
+	// Play the computer against itself and search ahead on each geometry in the list, to show how the speed changes with the area of the board.
+	// The games open in each column in turn with each side starting alternately, and each search starts after the first few moves of a game.
+	// Everything is run once before it is timed so the code is compiled. The standard board is kept in a Position, and it is also shown kept
+	// in a Board, as the other geometries are, to show what the bitboard saves.
+	private void measureGeometries(String list, int games, int depth) {
+		String[] names = list.split(",");
+		Geometry[] geometries = new Geometry[names.length];
+		try {
+			for (int i = 0; i < names.length; i++) {
+				geometries[i] = Geometry.parse(names[i]);
 			}
 		}
-		return(move);
-	}
-
-	// function to look at the combined scores for each column and select the highest as the computer move.
-	// 8 neurons
-	private static int selectMove(char Player, int weights) {	// The player selects R for red or Y for Yellow. The weights is 1 default, 2 current or 3 new
-		double 	nextMoveLocal 	= NEXTMOVEDEFAULT;
-		double  oppntMoveLocal	= OPPNTMOVEDEFAULT;
-		double possibles[] = new double[7]; 		// array of scores for each column to select move.
-		double highest = -1.0; 						// variable to select the highest to identify the column.
-		int move = 3; 								// The move is set to default to the middle of the table.
-
-		// Select the weighting to be used.
-		if (weights == 2) { 
-			nextMoveLocal 	= nextMoveWeight; 
-			oppntMoveLocal	= oppntMoveWeight;
-		}
-		if (weights == 3) { 
-			nextMoveLocal 	= nextMoveNew; 
-			oppntMoveLocal	= oppntMoveNew;
-		}			
-
-		// Go through all columns to calculate the score for each one to select the move.
-		for (int x = 0; x < 7; x++) {
-			// The possibles array isn't strictly needed, but helps with debugging and development.
-			possibles[x] = 0.0;	
-			// Go through the column to find the next free place.
-			for (int y = 0; y < 6; y++) {
-				if (gameTable[x][y] == ' ') { 
-					// Calculate the score for the column by adding the red and yellow scores.
-					// It is a good idea to block a position, if it is a good move for the opponent.
-					if (Player == 'Y') {
-						possibles[x] = combinedScoresY[x][y] + (combinedScoresR[x][y] * oppntMoveLocal);
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		Evaluator red = new Evaluator(Geometry.STANDARD, currentWeights, false);
+		Evaluator yellow = new Evaluator(Geometry.STANDARD, currentWeights, false);
+		playCheckGames(red, yellow, games);
+		long start = System.nanoTime();
+		int moves = playCheckGames(red, yellow, games);
+		long nanos = System.nanoTime() - start;
+		System.out.println("7x6 on a Board instead of a Position: " + (long)(moves * 1e9 / nanos) + " moves per second, " + (nanos / moves) + " ns per move");
+		System.out.println("Geometry  Places  Lines  Moves per second  ns per move  Nodes per second  Nodes per search  ms per search (depth " + depth + ")");
+		for (Geometry geometry : geometries) {
+			Evaluator redVariant = new Evaluator(geometry, currentWeights);
+			Evaluator yellowVariant = new Evaluator(geometry, currentWeights);
+			playCheckGames(redVariant, yellowVariant, games);
+			start = System.nanoTime();
+			moves = playCheckGames(redVariant, yellowVariant, games);
+			nanos = System.nanoTime() - start;
+
+			Search search = new Search(new Evaluator(geometry, currentWeights), null, 0);		// No solver, so every board searches the same way.
+			int searches = 2 * geometry.width();
+			long nodes = 0;
+			long searchNanos = 0;
+			for (int pass = 0; pass < 2; pass++) {
+				nodes = 0;
+				searchNanos = 0;
+				for (int z = 0; z < searches; z++) {
+					redVariant.clear();
+					char player = (z%2 == 0) ? 'R' : 'Y';
+					redVariant.play(z % geometry.width(), player);
+					for (int ply = 0; (ply < 5) && (redVariant.gameEnded() == ' '); ply++) {
+						player = (player == 'R') ? 'Y' : 'R';
+						redVariant.calculateMove(player);
 					}
-					else {
-						possibles[x] = combinedScoresR[x][y] + (combinedScoresY[x][y] * oppntMoveLocal);
+					search.bestMove(redVariant, (player == 'R') ? 'Y' : 'R', depth);
+					nodes += search.nodes();
+					searchNanos += search.nanos();
+				}
+			}
+			System.out.println(String.format("%-8s  %6d  %5d  %16d  %11d  %16d  %16d  %13.2f", geometry, geometry.cells(), geometry.lineCount(),
+				(long)(moves * 1e9 / nanos), nanos / moves, (long)(nodes * 1e9 / searchNanos), nodes / searches, searchNanos / 1e6 / searches));
+		}
+	}
+
+	// Read a number from the command line values, or use the default if it is missing or not a number.
+	private static long value(String[] values, int index, long defaultValue) {
+		try {
+			return Long.parseLong(values[index]);
+		}
+		catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	// Run every check, returning the number of mismatches found, with any allocation during play counted as one.
+	private int checkEvaluator() {
+		Random checkRandom = new Random(1);
+		Weights[] weights = checkWeights(checkRandom);
+		int failed = checkIncremental(weights, checkRandom);
+		failed += checkBatch(weights, checkRandom);
+		failed += checkSymmetry(checkRandom);
+		failed += checkGeometry(checkRandom);
+		failed += checkAllocation(weights[0], weights[1]);
+		return failed;
+	}
+
+	// The sets of weightings the checks use: the defaults and two random ones.
+	private static Weights[] checkWeights(Random checkRandom) {
+		Weights[] weights = new Weights[3];
+		weights[0] = Weights.DEFAULT;
+		for (int i = 1; i < weights.length; i++) {
+			weights[i] = new Weights(checkRandom.nextDouble() * 7.0 + 1.01, checkRandom.nextDouble() * 1.5 + 0.51, checkRandom.nextDouble() * 1.5 + 0.51,
+				checkRandom.nextDouble() * 1.5 + 0.51, checkRandom.nextDouble() * 1.5 + 0.51, checkRandom.nextDouble() * 1.5 + 0.51);
+		}
+		return weights;
+	}
+
+	// Check that the incrementally updated neurons always match a full recalculation.
+	// Random games are played, with some moves taken back again, and after every change each evaluator is compared with a new evaluator
+	// recalculated from the same board. The number of mismatches is returned.
+	private int checkIncremental(Weights[] weights, Random checkRandom) {
+		int checked = 0;
+		int failed = 0;
+		Evaluator[] evaluators = new Evaluator[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			evaluators[i] = new Evaluator(weights[i]);
+		}
+		Evaluator full = new Evaluator(Weights.DEFAULT);
+
+		for (int z = 0; z < 1000; z++) {
+			for (int i = 0; i < evaluators.length; i++) {
+				evaluators[i].clear();
+			}
+			Position board = evaluators[0].position();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			while (board.gameEnded() == ' ') {
+				int x = checkRandom.nextInt(7);
+				if (board.isFull(x)) {
+					continue;
+				}
+				for (int i = 0; i < evaluators.length; i++) {
+					evaluators[i].play(x, player);
+				}
+				// Take back about one move in four to check undo.
+				if (checkRandom.nextInt(4) == 0) {
+					for (int i = 0; i < evaluators.length; i++) {
+						evaluators[i].undo(x);
 					}
-					// check if column at top before looking at next move.
-					if (y < 5) {
-					// If there is a space above, subtract the opponents score from the score calculated.
-					// This is to reduce the score if the move lets the opponent get an advantage or win.
-					// The next move score is adjusted by the weighting.
-						if (Player == 'Y') {
-							possibles[x] = possibles[x]  - (combinedScoresR[x][y+1] * nextMoveLocal);
-						}
-						else {
-							possibles[x] = possibles[x]  - (combinedScoresY[x][y+1] * nextMoveLocal);
+				}
+				else {
+					player = (player == 'R') ? 'Y' : 'R';
+				}
+				for (int i = 0; i < evaluators.length; i++) {
+					full.load(board, weights[i]);
+					if (!evaluators[i].matches(full)) {
+						failed++;
+						System.out.println("Mismatch for weightings " + weights[i] + " on board \"" + board.toBoardString() + "\"");
+					}
+					checked++;
+				}
+			}
+		}
+		System.out.println("Evaluator check: " + checked + " positions checked, " + failed + " mismatches");
+		return failed;
+	}
+
+	// Check the generated line tables against Position, and the evaluation on a Board against the bitboard. On the standard board random games
+	// must give the same moves, column scores, combined scores, winning moves and results with the board kept either way, and Search the same
+	// move and score. On other boards the incremental neurons are checked against a full recalculation. The number of mismatches is returned.
+	private int checkGeometry(Random checkRandom) {
+		Geometry standard = Geometry.STANDARD;
+		int checked = 0;
+		int failed = 0;
+		boolean same = standard.lineCount() == Position.LINE_COUNT;
+		for (int line = 0; same && (line < Position.LINE_COUNT); line++) {
+			same = Arrays.equals(standard.lineCells(line), Position.lineCells(line));
+		}
+		for (int cell = 0; same && (cell < standard.cells()); cell++) {
+			same = Arrays.equals(standard.cellLines(cell), Position.cellLines(cell));
+		}
+		if (!same) {
+			failed++;
+			System.out.println("Generated line tables don't match Position");
+		}
+
+		Evaluator fixed = new Evaluator(Weights.DEFAULT);
+		Evaluator general = new Evaluator(standard, Weights.DEFAULT, false);
+		Search fixedSearch = new Search(new Evaluator(Weights.DEFAULT), null, 0);
+		Search generalSearch = new Search(new Evaluator(standard, Weights.DEFAULT, false), null, 0);
+		for (int z = 0; z < 300; z++) {
+			fixed.clear();
+			general.clear();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			while (fixed.position().gameEnded() == ' ') {
+				int x = checkRandom.nextInt(7);
+				if (fixed.play(x, player) < 0) {
+					continue;
+				}
+				general.play(x, player);
+				player = (player == 'R') ? 'Y' : 'R';
+				same = general.gameEnded() == fixed.position().gameEnded();
+				if (fixed.position().gameEnded() == ' ') {
+					same &= general.selectMove(player) == fixed.selectMove(player);
+					for (int col = 0; col < Position.WIDTH; col++) {
+						same &= Double.compare(general.possible(col), fixed.possible(col)) == 0;
+						same &= fixed.position().isFull(col) || (general.isWinningMove(col, player) == fixed.position().isWinningMove(col, player));
+						for (int row = 0; row < Position.HEIGHT; row++) {
+							same &= (Double.compare(general.combinedScoreR(col, row), fixed.combinedScoreR(col, row)) == 0)
+								&& (Double.compare(general.combinedScoreY(col, row), fixed.combinedScoreY(col, row)) == 0);
 						}
 					}
-					// check each possible value to see if it is the highest, then capture it and the corresponding move. 
-					if (possibles[x] > highest) {
-						highest = possibles[x];
-						move = x;
+					if (z < 30) {
+						same &= generalSearch.bestMove(general, player, 4) == fixedSearch.bestMove(fixed.position(), player, 4);
+						same &= Double.compare(generalSearch.score(), fixedSearch.score()) == 0;
 					}
-					y = 6; // exit the y loop, once the column has been processed.
 				}
+				if (!same) {
+					failed++;
+					System.out.println("Geometry mismatch on board \"" + fixed.position().toBoardString() + "\"");
+				}
+				checked++;
 			}
 		}
-		// Just in case something has gone wrong, the move is checked to see that there is space for it to fit. 
-		// If there isn't, the table is searched for any valid move.
-		// Coding errors in the neural network meant this happened in the past.
-		if (gameTable[move][5] != ' ') { 
-			for (int x = 0; x < 7; x++) {
-				if (gameTable[x][5] == ' ') {
-					move = x;
-					break;
+
+		for (Geometry geometry : new Geometry[] {new Geometry(8, 7, 4), new Geometry(10, 8, 4), new Geometry(9, 7, 5), new Geometry(5, 4, 3)}) {
+			Evaluator incremental = new Evaluator(geometry, Weights.DEFAULT);
+			Evaluator full = new Evaluator(geometry, Weights.DEFAULT);
+			for (int z = 0; z < 100; z++) {
+				incremental.clear();
+				char player = (z%2 == 0) ? 'R' : 'Y';
+				while (incremental.gameEnded() == ' ') {
+					int x = checkRandom.nextInt(geometry.width());
+					if (incremental.play(x, player) < 0) {
+						continue;
+					}
+					if (checkRandom.nextInt(4) == 0) {
+						incremental.undo(x);
+					}
+					else {
+						player = (player == 'R') ? 'Y' : 'R';
+					}
+					full.load(incremental);
+					if (!incremental.matches(full)) {
+						failed++;
+						System.out.println("Mismatch on " + geometry + " board \"" + incremental.toBoardString() + "\"");
+					}
+					checked++;
 				}
 			}
 		}
-		return (move);
-	}
-
-	// This function populates the array of piece counts for each players columns.
-	// 21 neurons
-	private static void doWinningColumns() {		
-		for (int x = 0; x < 7; x++) {
-			for (int y = 0; y < 3; y++) {
-				winningColumns[x][y][0] = 0; 
-				if (gameTable[x][y] == 'R')   { winningColumns[x][y][0] = winningColumns[x][y][0] + 1; }
-				if (gameTable[x][y+1] == 'R') { winningColumns[x][y][0] = winningColumns[x][y][0] + 1; }
-				if (gameTable[x][y+2] == 'R') { winningColumns[x][y][0] = winningColumns[x][y][0] + 1; }
-				if (gameTable[x][y+3] == 'R') { winningColumns[x][y][0] = winningColumns[x][y][0] + 1; }
-
-				winningColumns[x][y][1] = 0; 
-				if (gameTable[x][y] == 'Y')   { winningColumns[x][y][1] = winningColumns[x][y][1] + 1; }
-				if (gameTable[x][y+1] == 'Y') { winningColumns[x][y][1] = winningColumns[x][y][1] + 1; }
-				if (gameTable[x][y+2] == 'Y') { winningColumns[x][y][1] = winningColumns[x][y][1] + 1; }
-				if (gameTable[x][y+3] == 'Y') { winningColumns[x][y][1] = winningColumns[x][y][1] + 1; }
-				
-				// If both players have pieces, the line is blocked and no longer part of the game, so set the scores to zero.
-				if ((winningColumns[x][y][0] != 0)&&(winningColumns[x][y][1] != 0)) {
-					winningColumns[x][y][0] = 0;
-					winningColumns[x][y][1] = 0;
+		System.out.println("Geometry check: " + checked + " positions checked, " + failed + " mismatches");
+		return failed;
+	}
+
+	// Check that the stores shared by a position and its reflection give back the move reflected for the reflection: the transposition
+	// table with a random move saved for each position, the opening book if there is one for the current weightings, and the solver,
+	// which must give both the same score. Positions with 20 to 30 pieces are also given to the solver. The number of mismatches is returned.
+	private int checkSymmetry(Random checkRandom) {
+		TranspositionTable table = new TranspositionTable(1);
+		TranspositionTable.Entry entry = new TranspositionTable.Entry();
+		OpeningBook checkBook = OpeningBook.open(Paths.get(OpeningBook.FILE), currentWeights);
+		Solver checkSolver = new Solver();
+		int checked = 0;
+		int failed = 0;
+		int solved = 0;
+		int booked = 0;
+		for (int z = 0; z < 2000; z++) {
+			Position board = new Position();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			int pieces = (z < 500) ? 20 + checkRandom.nextInt(11) : checkRandom.nextInt(20);
+			while ((board.moveCount() < pieces) && (board.gameEnded() == ' ')) {
+				int x = checkRandom.nextInt(7);
+				if (board.play(x, player) >= 0) {
+					player = (player == 'R') ? 'Y' : 'R';
 				}
 			}
-		}		
-		return;
+			if (board.gameEnded() != ' ') {
+				continue;
+			}
+			Position mirrored = board.mirror();
+			boolean same = (Position.mirrorKey(board.key()) == mirrored.key()) && (mirrored.mirror().key() == board.key());
+			for (int x = 0; x < Position.WIDTH; x++) {
+				for (int y = 0; y < Position.HEIGHT; y++) {
+					same &= board.cell(x, y) == mirrored.cell(Position.mirrorMove(x), y);
+				}
+			}
+
+			// A position that is its own reflection keeps its move.
+			boolean symmetric = mirrored.key() == board.key();
+			int move = checkRandom.nextInt(7);
+			table.store(TranspositionTable.key(board, player), z, TranspositionTable.EXACT, 1, move);
+			same &= table.probe(TranspositionTable.key(board, player), entry) && (entry.move == move) && (entry.score == z);
+			same &= table.probe(TranspositionTable.key(mirrored, player), entry) && (entry.move == (symmetric ? move : Position.mirrorMove(move))) && (entry.score == z);
+
+			if ((checkBook != null) && (checkBook.move(board, player) >= 0)) {
+				int bookMove = checkBook.move(board, player);
+				same &= checkBook.move(mirrored, player) == (symmetric ? bookMove : Position.mirrorMove(bookMove));
+				booked++;
+			}
+			if (pieces >= 20) {
+				same &= checkSolver.solve(board, player) == checkSolver.solve(mirrored, player);
+				solved++;
+			}
+			if (!same) {
+				failed++;
+				System.out.println("Symmetry mismatch on board \"" + board.toBoardString() + "\" with " + player + " to move");
+			}
+			checked++;
+		}
+		System.out.println("Symmetry check: " + checked + " positions checked (" + solved + " solved, " + booked + " in the book), " + failed + " mismatches");
+		return failed;
 	}
 
-	// This function populates the array of piece counts for each players rows.
-	// 24 neurons
-	private static void doWinningRows() {
-		for (int x = 0; x < 4; x++) {
-			for (int y = 0; y < 6; y++) {
-				winningRows[x][y][0] = 0; 
-				if (gameTable[x][y] == 'R')   { winningRows[x][y][0] = winningRows[x][y][0] + 1; }
-				if (gameTable[x+1][y] == 'R') { winningRows[x][y][0] = winningRows[x][y][0] + 1; }
-				if (gameTable[x+2][y] == 'R') { winningRows[x][y][0] = winningRows[x][y][0] + 1; }
-				if (gameTable[x+3][y] == 'R') { winningRows[x][y][0] = winningRows[x][y][0] + 1; }
-
-				winningRows[x][y][1] = 0; 
-				if (gameTable[x][y] == 'Y')   { winningRows[x][y][1] = winningRows[x][y][1] + 1; }
-				if (gameTable[x+1][y] == 'Y') { winningRows[x][y][1] = winningRows[x][y][1] + 1; }
-				if (gameTable[x+2][y] == 'Y') { winningRows[x][y][1] = winningRows[x][y][1] + 1; }
-				if (gameTable[x+3][y] == 'Y') { winningRows[x][y][1] = winningRows[x][y][1] + 1; }
-
-				// If both players have pieces, the line is blocked and no longer part of the game, so set the scores to zero.
-				if ((winningRows[x][y][0] != 0)&&(winningRows[x][y][1] != 0)) {
-					winningRows[x][y][0] = 0;
-					winningRows[x][y][1] = 0;
+	// Check that BatchEvaluator chooses the same moves with the same column scores as selectMove, with the scalar kernel and,
+	// if Java was run with --add-modules jdk.incubator.vector, the vector kernel. Full and won boards are included.
+	// The number of mismatches from both kernels is returned.
+	private int checkBatch(Weights[] weights, Random checkRandom) {
+		int count = 5000;
+		Position[] positions = new Position[count];
+		char[] players = new char[count];
+		Position board = new Position();
+		char player = 'R';
+		for (int i = 0; i < count; i++) {
+			if (board.gameEnded() != ' ') {
+				board.clear();
+			}
+			int x = checkRandom.nextInt(7);
+			if (!board.isFull(x)) {
+				board.play(x, player);
+				player = (player == 'R') ? 'Y' : 'R';
+			}
+			positions[i] = new Position(board);
+			players[i] = (checkRandom.nextInt(8) == 0) ? 'R' : board.toMove();
+		}
+		Evaluator single = new Evaluator(Weights.DEFAULT);
+		BatchEvaluator scalar = new BatchEvaluator(Weights.DEFAULT, 1000, false);
+		BatchEvaluator vector = BatchEvaluator.vectorAvailable() ? new BatchEvaluator(Weights.DEFAULT, 1000) : null;
+		int scalarFailed = 0;
+		int vectorFailed = 0;
+		for (Weights w : weights) {
+			scalar.setWeights(w);
+			if (vector != null) {
+				vector.setWeights(w);
+			}
+			for (int start = 0; start < count; start += scalar.capacity()) {
+				int end = Math.min(count, start + scalar.capacity());
+				scalar.clear();
+				if (vector != null) {
+					vector.clear();
+				}
+				for (int i = start; i < end; i++) {
+					scalar.add(positions[i], players[i]);
+					if (vector != null) {
+						vector.add(positions[i], players[i]);
+					}
+				}
+				scalar.evaluate();
+				if (vector != null) {
+					vector.evaluate();
+				}
+				for (int i = start; i < end; i++) {
+					single.load(positions[i], w);
+					int move = single.selectMove(players[i]);
+					if (!sameAnswer(single, move, scalar, i - start)) {
+						scalarFailed++;
+						System.out.println("Scalar batch mismatch for weightings " + w + " on board \"" + positions[i].toBoardString() + "\"");
+					}
+					if ((vector != null) && !sameAnswer(single, move, vector, i - start)) {
+						vectorFailed++;
+						System.out.println("Vector batch mismatch for weightings " + w + " on board \"" + positions[i].toBoardString() + "\"");
+					}
 				}
 			}
 		}
-		return;
+		System.out.println("Batch check: " + (count * weights.length) + " positions checked, " + scalarFailed + " scalar mismatches, "
+			+ ((vector != null) ? vectorFailed + " vector mismatches" : "vector kernel not available"));
+		return scalarFailed + vectorFailed;
 	}
-	
-	// This function populates the array of piece counts for each players diagonals going up/right.
-	// 12 neurons
-	private static void doWinningDiagonalsUp() {
-		for (int x = 0; x < 4; x++) {
-			for (int y = 0; y < 3; y++) {
-				winningDiagonalsUp[x][y][0] = 0; 
-				if (gameTable[x][y] == 'R')     { winningDiagonalsUp[x][y][0] = winningDiagonalsUp[x][y][0] + 1; }
-				if (gameTable[x+1][y+1] == 'R') { winningDiagonalsUp[x][y][0] = winningDiagonalsUp[x][y][0] + 1; }
-				if (gameTable[x+2][y+2] == 'R') { winningDiagonalsUp[x][y][0] = winningDiagonalsUp[x][y][0] + 1; }
-				if (gameTable[x+3][y+3] == 'R') { winningDiagonalsUp[x][y][0] = winningDiagonalsUp[x][y][0] + 1; }
-	
-				winningDiagonalsUp[x][y][1] = 0; 
-				if (gameTable[x][y] == 'Y')     { winningDiagonalsUp[x][y][1] = winningDiagonalsUp[x][y][1] + 1; }
-				if (gameTable[x+1][y+1] == 'Y') { winningDiagonalsUp[x][y][1] = winningDiagonalsUp[x][y][1] + 1; }
-				if (gameTable[x+2][y+2] == 'Y') { winningDiagonalsUp[x][y][1] = winningDiagonalsUp[x][y][1] + 1; }
-				if (gameTable[x+3][y+3] == 'Y') { winningDiagonalsUp[x][y][1] = winningDiagonalsUp[x][y][1] + 1; }
-
-				// If both players have pieces, the line is blocked and no longer part of the game, so set the scores to zero.
-				if ((winningDiagonalsUp[x][y][0] != 0)&&(winningDiagonalsUp[x][y][1] != 0)) {
-					winningDiagonalsUp[x][y][0] = 0;
-					winningDiagonalsUp[x][y][1] = 0;
+
+	// The move, every column score and every combined score must be exactly the same.
+	private boolean sameAnswer(Evaluator single, int move, BatchEvaluator batch, int index) {
+		if (batch.move(index) != move) {
+			return false;
+		}
+		for (int x = 0; x < Position.WIDTH; x++) {
+			if (Double.compare(batch.possible(index, x), single.possible(x)) != 0) {
+				return false;
+			}
+			for (int y = 0; y < Position.HEIGHT; y++) {
+				if ((Double.compare(batch.combinedScoreR(index, x, y), single.combinedScoreR(x, y)) != 0)
+					|| (Double.compare(batch.combinedScoreY(index, x, y), single.combinedScoreY(x, y)) != 0)) {
+					return false;
 				}
 			}
 		}
-		return;
+		return true;
 	}
-	
-	// This function populates the array of piece counts for each players diagonals going down/right.
-	// 12 neurons
-	private static void doWinningDiagonalsDown() {
-		for (int x = 0; x < 4; x++) {
-			for (int y = 3; y < 6; y++) {
-				winningDiagonalsDown[x][y-3][0] = 0; 
-				if (gameTable[x][y] == 'R')     { winningDiagonalsDown[x][y-3][0] = winningDiagonalsDown[x][y-3][0] + 1; }
-				if (gameTable[x+1][y-1] == 'R') { winningDiagonalsDown[x][y-3][0] = winningDiagonalsDown[x][y-3][0] + 1; }
-				if (gameTable[x+2][y-2] == 'R') { winningDiagonalsDown[x][y-3][0] = winningDiagonalsDown[x][y-3][0] + 1; }
-				if (gameTable[x+3][y-3] == 'R') { winningDiagonalsDown[x][y-3][0] = winningDiagonalsDown[x][y-3][0] + 1; }
-	
-				winningDiagonalsDown[x][y-3][1] = 0; 
-				if (gameTable[x][y] == 'Y')     { winningDiagonalsDown[x][y-3][1] = winningDiagonalsDown[x][y-3][1] + 1; }
-				if (gameTable[x+1][y-1] == 'Y') { winningDiagonalsDown[x][y-3][1] = winningDiagonalsDown[x][y-3][1] + 1; }
-				if (gameTable[x+2][y-2] == 'Y') { winningDiagonalsDown[x][y-3][1] = winningDiagonalsDown[x][y-3][1] + 1; }
-				if (gameTable[x+3][y-3] == 'Y') { winningDiagonalsDown[x][y-3][1] = winningDiagonalsDown[x][y-3][1] + 1; }
-
-				// If both players have pieces, the line is blocked and no longer part of the game, so set the scores to zero.
-				if ((winningDiagonalsDown[x][y-3][0] != 0)&&(winningDiagonalsDown[x][y-3][1] != 0)) {
-					winningDiagonalsDown[x][y-3][0] = 0;
-					winningDiagonalsDown[x][y-3][1] = 0;
-				}
+
+	// Check that calculateMove doesn't allocate anything on the heap, using the thread allocation counter.
+	// Games are played first so that all classes are loaded and the code is compiled before counting starts.
+	// Returns the number of engines that allocated, so anything other than 0 is a failure.
+	private int checkAllocation(Weights redWeights, Weights yellowWeights) {
+		int failed = 0;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		Evaluator red = new Evaluator(redWeights);
+		Evaluator yellow = new Evaluator(yellowWeights);
+		playCheckGames(red, yellow, 2000);
+		long before = threads.getCurrentThreadAllocatedBytes();
+		before = threads.getCurrentThreadAllocatedBytes();	// The first call can allocate, so it is made twice.
+		int moves = playCheckGames(red, yellow, 2000);
+		long after = threads.getCurrentThreadAllocatedBytes();
+		System.out.println("Allocation check: " + moves + " moves, " + (after - before) + " bytes allocated, " + ((after - before) / moves) + " bytes per move");
+		if (after != before) {
+			failed++;
+		}
+
+		// The same for the trained network, with random weights as only the arithmetic matters here.
+		NeuralNetwork check = NeuralNetwork.random(64, 32, 1);
+		Position board = new Position();
+		playNetworkCheckGames(check, board, 200);
+		before = threads.getCurrentThreadAllocatedBytes();
+		moves = playNetworkCheckGames(check, board, 200);
+		after = threads.getCurrentThreadAllocatedBytes();
+		System.out.println("Network allocation check: " + moves + " moves, " + (after - before) + " bytes allocated, " + ((after - before) / moves) + " bytes per move");
+		if (after != before) {
+			failed++;
+		}
+		return failed;
+	}
+
+	// Play the network against itself from each opening, and return the number of moves made.
+	private int playNetworkCheckGames(NeuralNetwork check, Position board, int games) {
+		int moves = 0;
+		for (int z = 0; z < games; z++) {
+			board.clear();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			board.play(z%7, player);
+			while (board.gameEnded() == ' ') {
+				player = (player == 'R') ? 'Y' : 'R';
+				board.play(check.selectMove(board, player), player);
+				moves++;
 			}
 		}
-		return;
+		return moves;
 	}
 
-	// This function populates the combined score array to determine moves.
-	// 42 neurons
-	private static void doCombinedScores(int weights) {	// The weights is 1 default, 2 current or 3 new
-		// To simplify neuron processing for people to understand the arrays are re-populated to 7x6 to match the game board so that they can be added.
-		double[][] combinedColumnsR = new double[7][6];
-		double[][] combinedColumnsY = new double[7][6];
-		double[][] combinedRowsR = new double[7][6];
-		double[][] combinedRowsY = new double[7][6];
-		double[][] combinedDiagonalsUpR = new double[7][6];
-		double[][] combinedDiagonalsUpY = new double[7][6];
-		double[][] combinedDiagonalsDownR = new double[7][6];
-		double[][] combinedDiagonalsDownY = new double[7][6];
-
-		// Local copies of weightings so that code can be used with each different type of weighting.
-		double 	piecesLocal 	= PIECESDEFAULT;	// Local copy taken so it can be optimised.
-		double 	horizontalLocal = HORIZONTALDEFAULT;
-		double 	verticalLocal 	= VERTICALDEFAULT;
-		double 	diagonalLocal 	= DIAGONALDEFAULT;
-
-		// Select the weighting to be used.
-		if (weights == 2) {
-			piecesLocal 	= piecesWeight;
-			horizontalLocal = horizontalWeight;
-			verticalLocal	= verticalWeight;
-			diagonalLocal	= diagonalWeight;
-		}
-		if (weights == 3) {
-			piecesLocal 	= piecesNew;
-			horizontalLocal = horizontalNew;
-			verticalLocal	= verticalNew;
-			diagonalLocal	= diagonalNew;
-		}
-			
-		// Do arrays of 7 by 6 of the scores for vertical.
-		// This can't all be simplified with a loop, positions in the middle of the table are in multiple lines of 4.
-		for (int x = 0; x < 7; x++) {
-			combinedColumnsR[x][0] = Math.pow(piecesLocal,(double)winningColumns[x][0][0]);
-			combinedColumnsR[x][1] = Math.pow(piecesLocal,(double)winningColumns[x][0][0]) + Math.pow(piecesLocal,(double)winningColumns[x][1][0]);
-			combinedColumnsR[x][2] = Math.pow(piecesLocal,(double)winningColumns[x][0][0]) + Math.pow(piecesLocal,(double)winningColumns[x][1][0]) + Math.pow(piecesLocal,(double)winningColumns[x][2][0]);
-			combinedColumnsR[x][3] = Math.pow(piecesLocal,(double)winningColumns[x][0][0]) + Math.pow(piecesLocal,(double)winningColumns[x][1][0]) + Math.pow(piecesLocal,(double)winningColumns[x][2][0]);
-			combinedColumnsR[x][4] = Math.pow(piecesLocal,(double)winningColumns[x][1][0]) + Math.pow(piecesLocal,(double)winningColumns[x][2][0]);
-			combinedColumnsR[x][5] = Math.pow(piecesLocal,(double)winningColumns[x][2][0]);
-
-			combinedColumnsY[x][0] = Math.pow(piecesLocal,(double)winningColumns[x][0][1]);
-			combinedColumnsY[x][1] = Math.pow(piecesLocal,(double)winningColumns[x][0][1]) + Math.pow(piecesLocal,(double)winningColumns[x][1][1]);
-			combinedColumnsY[x][2] = Math.pow(piecesLocal,(double)winningColumns[x][0][1]) + Math.pow(piecesLocal,(double)winningColumns[x][1][1]) + Math.pow(piecesLocal,(double)winningColumns[x][2][1]);
-			combinedColumnsY[x][3] = Math.pow(piecesLocal,(double)winningColumns[x][0][1]) + Math.pow(piecesLocal,(double)winningColumns[x][1][1]) + Math.pow(piecesLocal,(double)winningColumns[x][2][1]);
-			combinedColumnsY[x][4] = Math.pow(piecesLocal,(double)winningColumns[x][1][1]) + Math.pow(piecesLocal,(double)winningColumns[x][2][1]);
-			combinedColumnsY[x][5] = Math.pow(piecesLocal,(double)winningColumns[x][2][1]);
-		}
-			
-		// Do arrays of 7 by 6 for the scores for horizontal.
-		// This can't all be simplified with a loop, positions in the middle of the table are in multiple lines of 4.
-		for (int y = 0; y < 6; y++) {
-			combinedRowsR[0][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][0]);
-			combinedRowsR[1][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][0]) + Math.pow(piecesLocal,(double)winningRows[1][y][0]);
-			combinedRowsR[2][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][0]) + Math.pow(piecesLocal,(double)winningRows[1][y][0]) + Math.pow(piecesLocal,(double)winningRows[2][y][0]);
-			combinedRowsR[3][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][0]) + Math.pow(piecesLocal,(double)winningRows[1][y][0]) + Math.pow(piecesLocal,(double)winningRows[2][y][0]) + Math.pow(piecesLocal,(double)winningRows[3][y][0]);
-			combinedRowsR[4][y] =  Math.pow(piecesLocal,(double)winningRows[1][y][0]) + Math.pow(piecesLocal,(double)winningRows[2][y][0]) + Math.pow(piecesLocal,(double)winningRows[3][y][0]);
-			combinedRowsR[5][y] =  Math.pow(piecesLocal,(double)winningRows[2][y][0]) + Math.pow(piecesLocal,(double)winningRows[3][y][0]);
-			combinedRowsR[6][y] =  Math.pow(piecesLocal,(double)winningRows[3][y][0]);
-
-			combinedRowsY[0][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][1]);
-			combinedRowsY[1][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][1]) + Math.pow(piecesLocal,(double)winningRows[1][y][1]);
-			combinedRowsY[2][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][1]) + Math.pow(piecesLocal,(double)winningRows[1][y][1]) + Math.pow(piecesLocal,(double)winningRows[2][y][1]);
-			combinedRowsY[3][y] =  Math.pow(piecesLocal,(double)winningRows[0][y][1]) + Math.pow(piecesLocal,(double)winningRows[1][y][1]) + Math.pow(piecesLocal,(double)winningRows[2][y][1]) + Math.pow(piecesLocal,(double)winningRows[3][y][1]);
-			combinedRowsY[4][y] =  Math.pow(piecesLocal,(double)winningRows[1][y][1]) + Math.pow(piecesLocal,(double)winningRows[2][y][1]) + Math.pow(piecesLocal,(double)winningRows[3][y][1]);
-			combinedRowsY[5][y] =  Math.pow(piecesLocal,(double)winningRows[2][y][1]) + Math.pow(piecesLocal,(double)winningRows[3][y][1]);
-			combinedRowsY[6][y] =  Math.pow(piecesLocal,(double)winningRows[3][y][1]);
-		}
-			
-		// Do an arrays of 7 by 6 for diagonals.
-		// Diagonals need to be processed with a specific line of code for each position. Some positions are not part of diagonals at all, some are in one and some are more than one diagonal of 4.
-		combinedDiagonalsUpR[0][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][0]);
-		combinedDiagonalsUpR[1][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][0]);
-		combinedDiagonalsUpR[2][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][0]);
-		combinedDiagonalsUpR[3][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][0]);
-		combinedDiagonalsUpR[4][0] = 0;
-		combinedDiagonalsUpR[5][0] = 0;
-		combinedDiagonalsUpR[6][0] = 0;
-		combinedDiagonalsUpR[0][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][0]);
-		combinedDiagonalsUpR[1][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][0]);
-		combinedDiagonalsUpR[2][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][0]);
-		combinedDiagonalsUpR[3][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][0]);
-		combinedDiagonalsUpR[4][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][0]);
-		combinedDiagonalsUpR[5][1] = 0;
-		combinedDiagonalsUpR[6][1] = 0;
-		combinedDiagonalsUpR[0][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][0]);
-		combinedDiagonalsUpR[1][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][0]);
-		combinedDiagonalsUpR[2][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][0]);
-		combinedDiagonalsUpR[3][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][0]);
-		combinedDiagonalsUpR[4][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][0]);
-		combinedDiagonalsUpR[5][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][0]);
-		combinedDiagonalsUpR[6][2] = 0;
-		combinedDiagonalsUpR[0][3] = 0;
-		combinedDiagonalsUpR[1][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][0]);
-		combinedDiagonalsUpR[2][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][0]);
-		combinedDiagonalsUpR[3][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][0]);
-		combinedDiagonalsUpR[4][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][0]);
-		combinedDiagonalsUpR[5][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][0]);
-		combinedDiagonalsUpR[6][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][0]);
-		combinedDiagonalsUpR[0][4] = 0;
-		combinedDiagonalsUpR[1][4] = 0;
-		combinedDiagonalsUpR[2][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][0]);
-		combinedDiagonalsUpR[3][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][0]);
-		combinedDiagonalsUpR[4][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][0]);
-		combinedDiagonalsUpR[5][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][0]);
-		combinedDiagonalsUpR[6][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][0]);
-		combinedDiagonalsUpR[0][5] = 0;
-		combinedDiagonalsUpR[1][5] = 0;
-		combinedDiagonalsUpR[2][5] = 0;
-		combinedDiagonalsUpR[3][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][0]);
-		combinedDiagonalsUpR[4][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][0]);
-		combinedDiagonalsUpR[5][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][0]);
-		combinedDiagonalsUpR[6][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][0]);
-
-		combinedDiagonalsUpY[0][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][1]);
-		combinedDiagonalsUpY[1][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][1]);
-		combinedDiagonalsUpY[2][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][1]);
-		combinedDiagonalsUpY[3][0] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][1]);
-		combinedDiagonalsUpY[4][0] = 0;
-		combinedDiagonalsUpY[5][0] = 0;
-		combinedDiagonalsUpY[6][0] = 0;
-		combinedDiagonalsUpY[0][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][1]);
-		combinedDiagonalsUpY[1][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][1]);
-		combinedDiagonalsUpY[2][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][1]);
-		combinedDiagonalsUpY[3][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][1]);
-		combinedDiagonalsUpY[4][1] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][1]);
-		combinedDiagonalsUpY[5][1] = 0;
-		combinedDiagonalsUpY[6][1] = 0;
-		combinedDiagonalsUpY[0][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][1]);
-		combinedDiagonalsUpY[1][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][1]);
-		combinedDiagonalsUpY[2][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][1]);
-		combinedDiagonalsUpY[3][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][1]);
-		combinedDiagonalsUpY[4][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][1]);
-		combinedDiagonalsUpY[5][2] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][1]);
-		combinedDiagonalsUpY[6][2] = 0;
-		combinedDiagonalsUpY[0][3] = 0;
-		combinedDiagonalsUpY[1][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][1]);
-		combinedDiagonalsUpY[2][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][1]);
-		combinedDiagonalsUpY[3][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][1]);
-		combinedDiagonalsUpY[4][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][1]);
-		combinedDiagonalsUpY[5][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][0][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][1]);
-		combinedDiagonalsUpY[6][3] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][0][1]);
-		combinedDiagonalsUpY[0][4] = 0;
-		combinedDiagonalsUpY[1][4] = 0;
-		combinedDiagonalsUpY[2][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][1]);
-		combinedDiagonalsUpY[3][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][1]);
-		combinedDiagonalsUpY[4][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][1]);
-		combinedDiagonalsUpY[5][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][1]);
-		combinedDiagonalsUpY[6][4] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][1][1]);
-		combinedDiagonalsUpY[0][5] = 0;
-		combinedDiagonalsUpY[1][5] = 0;
-		combinedDiagonalsUpY[2][5] = 0;
-		combinedDiagonalsUpY[3][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[0][2][1]);
-		combinedDiagonalsUpY[4][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[1][2][1]);
-		combinedDiagonalsUpY[5][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[2][2][1]);
-		combinedDiagonalsUpY[6][5] = Math.pow(piecesLocal,(double)winningDiagonalsUp[3][2][1]);
-			
-		combinedDiagonalsDownR[0][0] = 0;
-		combinedDiagonalsDownR[1][0] = 0;
-		combinedDiagonalsDownR[2][0] = 0;
-		combinedDiagonalsDownR[3][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][0]);
-		combinedDiagonalsDownR[4][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][0]);
-		combinedDiagonalsDownR[5][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][0]);
-		combinedDiagonalsDownR[6][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][0]);
-		combinedDiagonalsDownR[0][1] = 0;
-		combinedDiagonalsDownR[1][1] = 0;
-		combinedDiagonalsDownR[2][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][0]);
-		combinedDiagonalsDownR[3][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][0]);
-		combinedDiagonalsDownR[4][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][0]);
-		combinedDiagonalsDownR[5][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][0]);
-		combinedDiagonalsDownR[6][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][0]);
-		combinedDiagonalsDownR[0][2] = 0;
-		combinedDiagonalsDownR[1][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][0]);
-		combinedDiagonalsDownR[2][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][0]);
-		combinedDiagonalsDownR[3][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][0]);
-		combinedDiagonalsDownR[4][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][0]);
-		combinedDiagonalsDownR[5][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][0]);
-		combinedDiagonalsDownR[6][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][0]);
-		combinedDiagonalsDownR[0][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][0]);
-		combinedDiagonalsDownR[1][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][0]);
-		combinedDiagonalsDownR[2][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][0]);
-		combinedDiagonalsDownR[3][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][0]);
-		combinedDiagonalsDownR[4][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][0]);
-		combinedDiagonalsDownR[5][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][0]);
-		combinedDiagonalsDownR[6][3] = 0;
-		combinedDiagonalsDownR[0][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][0]);
-		combinedDiagonalsDownR[1][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][0]);
-		combinedDiagonalsDownR[2][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][0]);
-		combinedDiagonalsDownR[3][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][0]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][0]);
-		combinedDiagonalsDownR[4][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][0]);
-		combinedDiagonalsDownR[5][4] = 0;
-		combinedDiagonalsDownR[6][4] = 0;
-		combinedDiagonalsDownR[0][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][0]);
-		combinedDiagonalsDownR[1][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][0]);
-		combinedDiagonalsDownR[2][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][2][0]);
-		combinedDiagonalsDownR[3][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][0]);
-		combinedDiagonalsDownR[4][5] = 0;
-		combinedDiagonalsDownR[5][5] = 0;
-		combinedDiagonalsDownR[6][5] = 0;
-
-		combinedDiagonalsDownY[0][0] = 0;
-		combinedDiagonalsDownY[1][0] = 0;
-		combinedDiagonalsDownY[2][0] = 0;
-		combinedDiagonalsDownY[3][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][1]);
-		combinedDiagonalsDownY[4][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][1]);
-		combinedDiagonalsDownY[5][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][1]);
-		combinedDiagonalsDownY[6][0] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][1]);
-		combinedDiagonalsDownY[0][1] = 0;
-		combinedDiagonalsDownY[1][1] = 0;
-		combinedDiagonalsDownY[2][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][1]);
-		combinedDiagonalsDownY[3][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][1]);
-		combinedDiagonalsDownY[4][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][1]);
-		combinedDiagonalsDownY[5][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][1]);
-		combinedDiagonalsDownY[6][1] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][1]);
-		combinedDiagonalsDownY[0][2] = 0;
-		combinedDiagonalsDownY[1][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][1]);
-		combinedDiagonalsDownY[2][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][1]);
-		combinedDiagonalsDownY[3][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][1]);
-		combinedDiagonalsDownY[4][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][1]);
-		combinedDiagonalsDownY[5][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][1]);
-		combinedDiagonalsDownY[6][2] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][1]);
-		combinedDiagonalsDownY[0][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][0][1]);
-		combinedDiagonalsDownY[1][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][0][1]);
-		combinedDiagonalsDownY[2][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][0][1]);
-		combinedDiagonalsDownY[3][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][0][1]);
-		combinedDiagonalsDownY[4][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][1]);
-		combinedDiagonalsDownY[5][3] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][1]);
-		combinedDiagonalsDownY[6][3] = 0;
-		combinedDiagonalsDownY[0][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][1][1]);
-		combinedDiagonalsDownY[1][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[1][1][1]);
-		combinedDiagonalsDownY[2][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[2][1][1]);
-		combinedDiagonalsDownY[3][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][1]) + Math.pow(piecesLocal,(double)winningDiagonalsDown[3][1][1]);
-		combinedDiagonalsDownY[4][4] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][1]);
-		combinedDiagonalsDownY[5][4] = 0;
-		combinedDiagonalsDownY[6][4] = 0;
-		combinedDiagonalsDownY[0][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[0][2][1]);
-		combinedDiagonalsDownY[1][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[1][2][1]);
-		combinedDiagonalsDownY[2][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[2][2][1]);
-		combinedDiagonalsDownY[3][5] = Math.pow(piecesLocal,(double)winningDiagonalsDown[3][2][1]);
-		combinedDiagonalsDownY[4][5] = 0;
-		combinedDiagonalsDownY[5][5] = 0;
-		combinedDiagonalsDownY[6][5] = 0;
-
-		// Go through the board and combine the different scores for each position. However if the position has already been played, set it to 0. 
-		for (int x = 0; x < 7; x++) {
-			for (int y = 0; y < 6; y++) {
-				if (gameTable[x][y] == ' ') {
-					// For each position the corresponding vertical, horizontal and diagonals scores are added.
-					// Each of the scores is multiplied by a weighting, before the addition.
-					combinedScoresR[x][y] = (combinedColumnsR[x][y] * verticalLocal) + (combinedRowsR[x][y] * horizontalLocal) + (combinedDiagonalsUpR[x][y] * diagonalLocal) + (combinedDiagonalsDownR[x][y] * diagonalLocal);
-					combinedScoresY[x][y] = (combinedColumnsY[x][y] * verticalLocal) + (combinedRowsY[x][y] * horizontalLocal) + (combinedDiagonalsUpY[x][y] * diagonalLocal) + (combinedDiagonalsDownY[x][y] * diagonalLocal);
+	// Play games the same way as optimisation, with each player's evaluator following the other's moves, and return the number of moves made.
+	private int playCheckGames(Evaluator red, Evaluator yellow, int games) {
+		int width = red.geometry().width();
+		int moves = 0;
+		for (int z = 0; z < games; z++) {
+			red.clear();
+			yellow.clear();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			red.play(z % width, player);
+			yellow.play(z % width, player);
+			while (red.gameEnded() == ' ') {
+				player = (player == 'R') ? 'Y' : 'R';
+				if (player == 'R') {
+					yellow.play(red.calculateMove('R'), 'R');
 				}
 				else {
-					// Clearing the array elements that have already been played isn't strictly necessary, but it makes the code easier to debug.
-					combinedScoresR[x][y] = 0;
-					combinedScoresY[x][y] = 0;
+					red.play(yellow.calculateMove('Y'), 'Y');
+				}
+				moves++;
+			}
+		}
+		return moves;
+	}
+
+	// The computer's move as yellow, from the opening book if the position is in it, from the solver near the end of the game,
+	// otherwise from the trained network if the game was asked to use one, or else the neural network evaluation.
+	private void computerMove() {
+		if (!geometry.isStandard()) {
+			computer.calculateMove('Y');
+			return;
+		}
+		if (ponderer != null) {
+			long start = System.nanoTime();
+			computer.play(ponderer.reply(computer.position(), 'Y'), 'Y');
+			System.out.println("Computer's move took " + (System.nanoTime() - start) / 1000000 + " ms" + (ponderer.lastPondered() ? ", worked out during your turn" : ""));
+			return;
+		}
+		int move = (book != null) ? book.move(computer.position(), 'Y') : -1;
+		if ((move < 0) && ((Position.WIDTH * Position.HEIGHT) - computer.position().moveCount() <= endgame)) {
+			move = solver.bestMove(computer.position(), 'Y');
+		}
+		if ((move < 0) && (network != null)) {
+			move = network.selectMove(computer.position(), 'Y');
+		}
+		if (move >= 0) {
+			computer.play(move, 'Y');
+		}
+		else {
+			computer.calculateMove('Y');
+		}
+	}
+
+	// This is a small function to clear all places in the game table ready for a new game.
+	private void clearGameTable() {
+		computer.reset(currentWeights);
+		return;
+	}
+
+	// This function prompts the human player for their move. If the value they enter does not correspond to a column with space to play, they are prompted again.
+	private void humanMove() {
+		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+		String inputSt;
+		int move = 0;
+		if (ponderer != null) {
+			ponderer.start(computer.position(), 'R');
+		}
+		for (;;) {
+			System.out.println("Select the column (1 to " + geometry.width() + ")");
+			// try catch must be used. As a string is entered, there is no chance of an exception.
+			try {
+				inputSt = br.readLine();
+				move = Integer.parseInt(inputSt);
+			}
+				catch (Exception e) {
+			}
+			// Only if the move is inside the game table and the column has space is the move used and the function exited.
+			if ((move >= 1) && (move <= geometry.width())) {
+				if (computer.play(move - 1, 'R') >= 0) {
+					return;
 				}
 			}
-		}		
+		}
+	}
+
+	// This function looks through all of the possible winning lines of 4 to see if there is a winner. If there is a winner R is returned for red or Y for yellow.
+	// If the board is full the game is over and it was a draw, otherwise a space is returned.
+	// The bitboard checks all 69 lines with a few shifts and ANDs, rather than comparing each place in turn.
+	private char gameEnded() {
+		return computer.gameEnded();
+	}
+
+	// function to display the board, a row at a time from the top, for any size of board.
+	private void displayBoard() {
+		StringBuilder rule = new StringBuilder("-");
+		for (int x = 0; x < geometry.width(); x++) {
+			rule.append("----");
+		}
+		System.out.println("");
+		System.out.println(rule);
+		for (int y = geometry.height() - 1; y >= 0; y--) {
+			StringBuilder row = new StringBuilder("|");
+			for (int x = 0; x < geometry.width(); x++) {
+				row.append(' ').append(computer.cell(x, y)).append(" |");
+			}
+			System.out.println(row.append(' '));
+		}
+		System.out.println(rule);
+		System.out.println("");
 		return;
 	}
 }
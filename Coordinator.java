@@ -0,0 +1,407 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 self play coordinator
+//
+// Hands out self play games to worker programs (GameWorker) connected over TCP, so an optimisation's games can be played by as many
+// separate Java programs as are started, rather than the threads of one. Each game is one work unit: the red and yellow weightings and the game
+// number, which gives the opening column and the colour that plays first as in SelfPlay.playGame. Any number of workers can join or
+// leave at any time.
+//
+// The protocol is lines of text, as for MoveServer. The coordinator starts with GREETING and the worker answers with HELLO and its
+// number of threads. The coordinator then says when the solver takes over the games, and after that sends batches of up to BATCH games,
+// and the worker answers each batch with one result line per game, in the same order, in a single write:
+//     S endgame              the solver plays once this many places or fewer are empty, sent once before any games.
+//     W number weightings    gives a set of weightings a number on this connection, the six numbers separated by commas.
+//     G id red yellow game   is a game, with the numbers of its weightings.
+//     E                      ends a batch.
+//     R id winner            is the result of a game, R, Y or D.
+// Each worker holds AHEAD batches, so it always has the next one to start on while its results are on the way back.
+//
+// A worker is lost if its connection closes or it sends nothing for the timeout while it has games. Every game it held that hasn't got
+// a result yet goes back on the queue for the other workers. Once the queue is empty, a worker with nothing to do is given a second
+// copy of games still out with other workers, so one slow or stuck worker doesn't hold up the rest. A game can therefore be played
+// more than once, but each id has one place for its result and only the first result is counted; later ones, and results from an
+// earlier call to play, are counted as duplicates and dropped. The games have no random element, so every copy gives the same result
+// and the optimisation makes the same decisions as Optimiser on one machine with the same seed.
+//
+// The coordinator listens on the loopback address only, so workers on the same machine can connect but no others.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+public class Coordinator implements Closeable {
+	public static final String GREETING = "Connect4 coordinator 2";
+	public static final String HELLO = "Connect4 worker";
+	public static final int BATCH = 256;			// Games sent to a worker at a time.
+	private static final int AHEAD = 2;				// Batches a worker holds at once.
+
+	private final ServerSocket server;
+	private final int timeoutMillis;
+	private final int endgame;
+	private final Object lock = new Object();		// Guards everything below.
+	private boolean closed = false;
+
+	// The games of the current call to play. Ids are the round in the top 32 bits and the game's index in the bottom 32.
+	private int round = 0;
+	private int count = 0;
+	private IntFunction<Weights> reds;
+	private IntFunction<Weights> yellows;
+	private IntUnaryOperator games;
+	private char[] winners;
+	private boolean[] done;
+	private byte[] issued;							// Times each game has been sent, up to 2 for a second copy.
+	private int remaining = 0;						// Games without a result.
+	private int scan = 0;							// Where to look next for games to send a second copy of.
+	private final Deque<Integer> queue = new ArrayDeque<>();
+
+	private final Set<Socket> connections = new HashSet<>();
+	private int workers = 0;
+	private long gamesPlayed = 0;					// Results counted, one for each game.
+	private long duplicates = 0;					// Results dropped as the game already had one.
+	private long reassigned = 0;					// Games put back on the queue from lost workers.
+	private long copies = 0;						// Second copies sent of games still out with other workers.
+	private int lost = 0;
+
+	// Listen for workers on a local port, 0 for any free one. A worker that sends nothing for the timeout while it has games is lost.
+	public Coordinator(int port, int timeoutSeconds) throws IOException {
+		this(port, timeoutSeconds, Solver.ENDGAME);
+	}
+
+	// The same, with the workers' solver playing once endgame places or fewer are empty, 0 for never.
+	public Coordinator(int port, int timeoutSeconds, int endgame) throws IOException {
+		server = new ServerSocket(port, 64, InetAddress.getLoopbackAddress());
+		timeoutMillis = timeoutSeconds * 1000;
+		this.endgame = endgame;
+		Thread listener = new Thread(this::listen, "Connect4 coordinator");
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	// The port listened on, which is the one picked if 0 was given.
+	public int port() {
+		return server.getLocalPort();
+	}
+
+	// Play a number of games on the workers and return the winner of each, R, Y or D. The weightings and game number of each game are
+	// given by its index. This waits for as long as it takes, including for the first worker to join.
+	public char[] play(int gameCount, IntFunction<Weights> red, IntFunction<Weights> yellow, IntUnaryOperator game) {
+		synchronized (lock) {
+			round++;
+			count = gameCount;
+			reds = red;
+			yellows = yellow;
+			games = game;
+			winners = new char[gameCount];
+			done = new boolean[gameCount];
+			issued = new byte[gameCount];
+			remaining = gameCount;
+			scan = 0;
+			queue.clear();
+			for (int i = 0; i < gameCount; i++) {
+				queue.add(i);
+			}
+			lock.notifyAll();
+			while ((remaining > 0) && !closed) {
+				try {
+					lock.wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while the workers were playing");
+				}
+			}
+			if (remaining > 0) {
+				throw new IllegalStateException("The coordinator was closed while the workers were playing");
+			}
+			return winners;
+		}
+	}
+
+	public int endgame() {
+		return endgame;
+	}
+
+	public int workers() {
+		synchronized (lock) {
+			return workers;
+		}
+	}
+
+	public long gamesPlayed() {
+		synchronized (lock) {
+			return gamesPlayed;
+		}
+	}
+
+	public long duplicates() {
+		synchronized (lock) {
+			return duplicates;
+		}
+	}
+
+	public long reassigned() {
+		synchronized (lock) {
+			return reassigned;
+		}
+	}
+
+	public long copies() {
+		synchronized (lock) {
+			return copies;
+		}
+	}
+
+	public int workersLost() {
+		synchronized (lock) {
+			return lost;
+		}
+	}
+
+	// Stop listening and tell every worker there are no more games, which ends its run.
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+			for (Socket socket : connections) {
+				try {
+					socket.shutdownOutput();
+				}
+				catch (IOException e) {
+					// The worker has already gone.
+				}
+			}
+		}
+		server.close();
+	}
+
+	// Games sent to a worker together, with their weightings and game numbers looked up when the batch was made.
+	private static final class Batch {
+		final long[] ids;
+		final Weights[] red;
+		final Weights[] yellow;
+		final int[] game;
+
+		Batch(int size) {
+			ids = new long[size];
+			red = new Weights[size];
+			yellow = new Weights[size];
+			game = new int[size];
+		}
+	}
+
+	private void listen() {
+		for (;;) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (IOException e) {
+				return;		// Closed.
+			}
+			Thread connection = new Thread(() -> serve(socket), "Connect4 worker " + socket.getRemoteSocketAddress());
+			connection.setDaemon(true);
+			connection.start();
+		}
+	}
+
+	// Keep one worker busy until the coordinator is closed or the worker is lost.
+	private void serve(Socket socket) {
+		String name = String.valueOf(socket.getRemoteSocketAddress());
+		Deque<Batch> held = new ArrayDeque<>();
+		Map<Weights, Integer> numbers = new HashMap<>();
+		boolean joined = false;
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeoutMillis);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII), 65536);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII), 65536);
+			writer.write(GREETING + "\n");
+			writer.flush();
+			String hello = reader.readLine();
+			if ((hello == null) || !hello.startsWith(HELLO)) {
+				return;
+			}
+			synchronized (lock) {
+				if (closed) {
+					return;
+				}
+				connections.add(socket);
+				workers++;
+				joined = true;
+			}
+			System.out.println("Worker " + name + " joined with " + hello.substring(HELLO.length()).trim() + " threads");
+			writer.write("S " + endgame + "\n");
+			for (;;) {
+				while (held.size() < AHEAD) {
+					Batch batch = take(held.isEmpty());
+					if (batch == null) {
+						break;
+					}
+					held.add(batch);		// Before sending, so the games are put back if the worker goes while they are on the way.
+					send(batch, numbers, writer);
+				}
+				if (held.isEmpty()) {
+					return;		// Closed.
+				}
+				Batch batch = held.peek();
+				for (int i = 0; i < batch.ids.length; i++) {
+					String line = reader.readLine();
+					if (line == null) {
+						throw new EOFException("connection closed");
+					}
+					String[] parts = line.split(" ");
+					if ((parts.length != 3) || !parts[0].equals("R") || (Long.parseLong(parts[1]) != batch.ids[i]) || (parts[2].length() != 1)) {
+						throw new IOException("unexpected result \"" + line + "\"");
+					}
+					record(batch.ids[i], parts[2].charAt(0));
+				}
+				held.remove();
+			}
+		}
+		catch (IOException | NumberFormatException e) {
+			if (joined) {
+				System.out.println("Worker " + name + " lost: " + e.getMessage());
+			}
+		}
+		finally {
+			synchronized (lock) {
+				if (joined) {
+					connections.remove(socket);
+					workers--;
+				}
+				if (!held.isEmpty()) {
+					lost++;
+					requeue(held);
+				}
+			}
+		}
+	}
+
+	// The next batch for a worker: games from the queue, or second copies of games still out if the queue is empty.
+	// Second copies only go to a worker holding nothing, so it isn't sent games it already has.
+	// If wait is true this waits until there are games or the coordinator is closed, otherwise null is returned at once if there are none.
+	private Batch take(boolean wait) {
+		synchronized (lock) {
+			for (;;) {
+				if (closed) {
+					return null;
+				}
+				if (!queue.isEmpty()) {
+					Batch batch = new Batch(Math.min(BATCH, queue.size()));
+					for (int i = 0; i < batch.ids.length; i++) {
+						add(batch, i, queue.poll());
+					}
+					return batch;
+				}
+				if (wait && (remaining > 0)) {
+					int size = 0;
+					int[] second = new int[BATCH];
+					for (; (scan < count) && (size < BATCH); scan++) {
+						if (!done[scan] && (issued[scan] == 1)) {
+							second[size++] = scan;
+						}
+					}
+					if (size > 0) {
+						Batch batch = new Batch(size);
+						for (int i = 0; i < size; i++) {
+							add(batch, i, second[i]);
+						}
+						copies += size;
+						return batch;
+					}
+				}
+				if (!wait) {
+					return null;
+				}
+				try {
+					lock.wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+	}
+
+	// Called holding the lock.
+	private void add(Batch batch, int i, int index) {
+		batch.ids[i] = ((long)round << 32) | index;
+		batch.red[i] = reds.apply(index);
+		batch.yellow[i] = yellows.apply(index);
+		batch.game[i] = games.applyAsInt(index);
+		if (issued[index] < 2) {
+			issued[index]++;
+		}
+	}
+
+	private static void send(Batch batch, Map<Weights, Integer> numbers, Writer writer) throws IOException {
+		StringBuilder text = new StringBuilder(batch.ids.length * 24);
+		for (int i = 0; i < batch.ids.length; i++) {
+			int red = number(batch.red[i], numbers, text);
+			int yellow = number(batch.yellow[i], numbers, text);
+			text.append("G ").append(batch.ids[i]).append(' ').append(red).append(' ').append(yellow).append(' ').append(batch.game[i]).append('\n');
+		}
+		text.append("E\n");
+		writer.append(text);
+		writer.flush();
+	}
+
+	// The number of a set of weightings on a connection, adding a W line to give it one the first time it is used.
+	private static int number(Weights weights, Map<Weights, Integer> numbers, StringBuilder text) {
+		Integer number = numbers.get(weights);
+		if (number == null) {
+			number = numbers.size();
+			numbers.put(weights, number);
+			text.append("W ").append(number).append(' ').append(weights.toNumbers()).append('\n');
+		}
+		return number;
+	}
+
+	// Count a result unless its game already has one or it belongs to an earlier round.
+	private void record(long id, char winner) throws IOException {
+		if ((winner != 'R') && (winner != 'Y') && (winner != 'D')) {
+			throw new IOException("unexpected winner " + winner);
+		}
+		synchronized (lock) {
+			int index = (int)id;
+			if (((int)(id >>> 32) != round) || done[index]) {
+				duplicates++;
+				return;
+			}
+			winners[index] = winner;
+			done[index] = true;
+			gamesPlayed++;
+			if (--remaining == 0) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	// Put the games a lost worker held without results back on the queue. Called holding the lock.
+	private void requeue(Deque<Batch> held) {
+		for (Batch batch : held) {
+			for (long id : batch.ids) {
+				int index = (int)id;
+				if (((int)(id >>> 32) == round) && !done[index]) {
+					queue.add(index);
+					reassigned++;
+				}
+			}
+		}
+		lock.notifyAll();
+	}
+}
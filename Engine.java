@@ -0,0 +1,66 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 engine
+//
+// The entry point for working out a move for any board and set of weightings. There is no shared state that can change,
+// as each thread works on its own evaluator, so any number of threads can ask for moves at the same time.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+public final class Engine {
+	// Each thread keeps one evaluator and loads the board into it for each request, so asking for a move doesn't allocate.
+	private static final ThreadLocal<Evaluator> EVALUATORS = ThreadLocal.withInitial(() -> new Evaluator(Weights.DEFAULT));
+
+	private Engine() {
+	}
+
+	// The best column (0 to 6) for the player to move, see Position.toMove. The position isn't changed.
+	public static int bestMove(Position position, Weights weights) {
+		return bestMove(position, position.toMove(), weights);
+	}
+
+	// The best column (0 to 6) for the player given, R for red or Y for yellow. The position isn't changed.
+	public static int bestMove(Position position, char player, Weights weights) {
+		return evaluate(position, player, weights).selectMove(player);
+	}
+
+	// Load the position into this thread's evaluator so that the column scores can be read as well as the move.
+	// The evaluator returned belongs to the calling thread and is reused by the next call from it.
+	public static Evaluator evaluate(Position position, char player, Weights weights) {
+		Evaluator evaluator = EVALUATORS.get();
+		evaluator.load(position, weights);
+		return evaluator;
+	}
+
+	// Work out the move for a board string, as used by other software, and add the answer to the end of the string builder.
+	// The answer is the chosen column (1 to 7) followed by the score for each column, separated by spaces,
+	// or ERROR followed by the reason if the board string can't be used.
+	public static void answer(String board, Weights weights, StringBuilder answer) {
+		Position position = position(board, answer);
+		if (position == null) {
+			return;
+		}
+		char player = position.toMove();
+		Evaluator evaluator = evaluate(position, player, weights);
+		answer.append(evaluator.selectMove(player) + 1);
+		for (int x = 0; x < Position.WIDTH; x++) {
+			answer.append(' ').append(evaluator.possible(x));
+		}
+	}
+
+	// Read a board string for answer. If it can't be used the error is added to the answer instead, and null is returned.
+	public static Position position(String board, StringBuilder answer) {
+		Position position;
+		try {
+			position = Position.fromBoardString(board);
+		}
+		catch (IllegalArgumentException e) {
+			answer.append("ERROR ").append(e.getMessage());
+			return null;
+		}
+		if (position.moveCount() == Position.WIDTH * Position.HEIGHT) {
+			answer.append("ERROR The board is full");
+			return null;
+		}
+		return position;
+	}
+}
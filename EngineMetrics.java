@@ -0,0 +1,201 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 engine metrics
+//
+// Counters and timers for each part of working out a move: updating the line of 4 neurons, updating the combined scores, and selectMove.
+// Also counted are games finished, how often selectMove's full column fallback is used, and how many lines are blocked or still live.
+//
+// Metrics are off unless turned on, and then each part of the engine only reads one flag, so the cost is close to nothing.
+// When on, the counts are LongAdders, which keep a separate cell for each thread that is busy at the same time, so any number
+// of threads can count without waiting for each other.
+//
+// They can be read through JMX, and a summary line can also be printed every few seconds. Both are set up from the command line:
+//     -Dconnect4.metrics=true          turn the metrics on and register them with JMX
+//     -Dconnect4.metrics.log=10        also print a summary every 10 seconds
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public final class EngineMetrics implements EngineMetricsMXBean {
+	public static final EngineMetrics INSTANCE = new EngineMetrics();
+	public static final String NAME = "Connect4:type=EngineMetrics";
+
+	private static volatile boolean on = false;		// Read by the engine before anything is measured.
+
+	private final LongAdder movesEvaluated = new LongAdder();
+	private final LongAdder selectMoveNanos = new LongAdder();
+	private final LongAdder fallbackMoves = new LongAdder();
+	private final LongAdder neuronPasses = new LongAdder();
+	private final LongAdder neuronPassNanos = new LongAdder();
+	private final LongAdder combinedScorePasses = new LongAdder();
+	private final LongAdder combinedScoreNanos = new LongAdder();
+	private final LongAdder gamesFinished = new LongAdder();
+	private final LongAdder blockedLines = new LongAdder();
+	private final LongAdder liveLines = new LongAdder();
+
+	private EngineMetrics() {
+	}
+
+	// True if the engine should measure what it does.
+	public static boolean on() {
+		return on;
+	}
+
+	// Set up the metrics from the system properties described above.
+	public static void configure() {
+		if (!Boolean.getBoolean("connect4.metrics")) {
+			return;
+		}
+		on = true;
+		register();
+		int seconds = Integer.getInteger("connect4.metrics.log", 0);
+		if (seconds > 0) {
+			startLogging(seconds);
+		}
+	}
+
+	// Make the metrics visible to JMX clients.
+	public static void register() {
+		try {
+			ObjectName name = new ObjectName(NAME);
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+			}
+		}
+		catch (JMException e) {
+			System.err.println("Unable to register " + NAME + ": " + e.getMessage());
+		}
+	}
+
+	// Print a summary to standard error every few seconds. Standard error is used so a move server's answers aren't mixed up with it.
+	public static void startLogging(int seconds) {
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "Connect4 metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(() -> System.err.println(INSTANCE.summary()), seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	// Counts made by the engine, only called when on() is true.
+	public void selectMove(long nanos, boolean fallback) {
+		movesEvaluated.increment();
+		selectMoveNanos.add(nanos);
+		if (fallback) {
+			fallbackMoves.increment();
+		}
+	}
+
+	public void lines(int blocked, int live) {
+		blockedLines.add(blocked);
+		liveLines.add(live);
+	}
+
+	public void neuronPass(long nanos) {
+		neuronPasses.increment();
+		neuronPassNanos.add(nanos);
+	}
+
+	public void combinedScorePass(long nanos) {
+		combinedScorePasses.increment();
+		combinedScoreNanos.add(nanos);
+	}
+
+	public void gameFinished() {
+		gamesFinished.increment();
+	}
+
+	// One line with every count, and the average time of each part.
+	public String summary() {
+		long moves = movesEvaluated.sum();
+		long neurons = neuronPasses.sum();
+		long combined = combinedScorePasses.sum();
+		return "Metrics: moves " + moves + " (" + average(selectMoveNanos.sum(), moves) + " ns), neuron passes " + neurons + " (" + average(neuronPassNanos.sum(), neurons)
+			+ " ns), combined score passes " + combined + " (" + average(combinedScoreNanos.sum(), combined) + " ns), games " + gamesFinished.sum()
+			+ ", fallbacks " + fallbackMoves.sum() + ", blocked lines " + blockedLines.sum() + ", live lines " + liveLines.sum();
+	}
+
+	private static long average(long total, long count) {
+		return (count > 0) ? total / count : 0;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return on;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		on = enabled;
+	}
+
+	@Override
+	public long getMovesEvaluated() {
+		return movesEvaluated.sum();
+	}
+
+	@Override
+	public long getSelectMoveNanos() {
+		return selectMoveNanos.sum();
+	}
+
+	@Override
+	public long getFallbackMoves() {
+		return fallbackMoves.sum();
+	}
+
+	@Override
+	public long getNeuronPasses() {
+		return neuronPasses.sum();
+	}
+
+	@Override
+	public long getNeuronPassNanos() {
+		return neuronPassNanos.sum();
+	}
+
+	@Override
+	public long getCombinedScorePasses() {
+		return combinedScorePasses.sum();
+	}
+
+	@Override
+	public long getCombinedScoreNanos() {
+		return combinedScoreNanos.sum();
+	}
+
+	@Override
+	public long getGamesFinished() {
+		return gamesFinished.sum();
+	}
+
+	@Override
+	public long getBlockedLines() {
+		return blockedLines.sum();
+	}
+
+	@Override
+	public long getLiveLines() {
+		return liveLines.sum();
+	}
+
+	@Override
+	public void reset() {
+		movesEvaluated.reset();
+		selectMoveNanos.reset();
+		fallbackMoves.reset();
+		neuronPasses.reset();
+		neuronPassNanos.reset();
+		combinedScorePasses.reset();
+		combinedScoreNanos.reset();
+		gamesFinished.reset();
+		blockedLines.reset();
+		liveLines.reset();
+	}
+}
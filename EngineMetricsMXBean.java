@@ -0,0 +1,27 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 engine metrics as seen through JMX
+//
+// The attributes and operations EngineMetrics shows in JConsole or any other JMX client, under Connect4:type=EngineMetrics.
+// Times are totals in nanoseconds, so the time for each pass is the time divided by the count.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+public interface EngineMetricsMXBean {
+	boolean isEnabled();
+	void setEnabled(boolean enabled);
+
+	long getMovesEvaluated();			// selectMove calls
+	long getSelectMoveNanos();
+	long getFallbackMoves();			// Moves where the chosen column was full and the first free column was used instead.
+
+	long getNeuronPasses();				// Line of 4 neuron updates, for one piece or for a whole board.
+	long getNeuronPassNanos();
+	long getCombinedScorePasses();		// Combined score updates, for one piece or for a whole board.
+	long getCombinedScoreNanos();
+
+	long getGamesFinished();
+	long getBlockedLines();				// Lines holding both colours, summed over every move evaluated.
+	long getLiveLines();				// Lines that can still be won, summed over every move evaluated.
+
+	void reset();
+}
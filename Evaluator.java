@@ -0,0 +1,511 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 neural network evaluation
+//
+// An evaluator holds its own board and the neurons for one set of weightings: a neuron for each line of a Geometry, 69 lines of 4 on the
+// standard board, and a combined score neuron for each place. The lines, the places in each line and the lines through each place all come
+// from the tables the geometry generates, so the same evaluation plays the standard 7x6 game and larger boards or longer lines.
+// The doWinning and doCombinedScores functions recalculate the neurons from the whole board.
+// A dropped piece only changes the lines passing through its place (at most 13 on 7x6), and only the places in those lines can get a new
+// score, so play and undo update just those lines and places. A search can walk up and down a tree of moves without recomputing the board.
+//
+// On the standard geometry the board is a Position, one 64 bit mask for each player, which the book, the solver and the transposition
+// table key on, and which finds a win with a few shifts. Other geometries keep a Board of as many longs as they need, and find wins from
+// the line counts. Only the board differs: the neurons, selectMove and balance are the same code for both, which the C option and
+// GeometryTest check by playing the standard board both ways.
+//
+// Nothing is shared between evaluators, so each game or thread uses its own and any number can run at once.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+public class Evaluator {
+	private final Geometry geometry;
+	private final Position position;				// The evaluator's own copy of the board on the standard geometry, otherwise null.
+	private final Board board;						// The evaluator's own copy of the board on any other geometry, otherwise null.
+	private final int height;
+	private final int connect;
+	private final int[] countsR;					// Count of red pieces in each line.
+	private final int[] countsY;					// Count of yellow pieces in each line.
+	private final double[] valuesR;					// pieces^count for each line, with blocked lines counting as 0 pieces.
+	private final double[] valuesY;
+	private final double[] combinedScoresR;			// Combined vertical, horizontal and diagonal scores for each place for red, x * height + y.
+	private final double[] combinedScoresY;			// Combined vertical, horizontal and diagonal scores for each place for yellow.
+	private final boolean[] filled;					// The places already played, so a place can be scored without asking the board.
+	private final double[] possibles;				// Score for each column from the last selectMove, kept so a move doesn't allocate.
+	private final int[] touched;					// Marks places already rescored for the current move, so shared places are only done once.
+	private int touchMark = 0;
+	private int completeR = 0;						// Lines each player has filled, so a win is found on a Board without looking at every line.
+	private int completeY = 0;
+
+	private Weights weights;
+
+	// The evaluator starts with an empty standard board and the weightings given.
+	public Evaluator(Weights weights) {
+		this(Geometry.STANDARD, weights);
+	}
+
+	// An empty board of any geometry.
+	public Evaluator(Geometry geometry, Weights weights) {
+		this(geometry, weights, geometry.isStandard());
+	}
+
+	// The standard geometry can be kept on a Board as well, so the checks can compare the two boards.
+	Evaluator(Geometry geometry, Weights weights, boolean bitboard) {
+		if (bitboard && !geometry.isStandard()) {
+			throw new IllegalArgumentException("Only the standard board fits in a Position, not " + geometry);
+		}
+		this.geometry = geometry;
+		position = bitboard ? new Position() : null;
+		board = bitboard ? null : new Board(geometry);
+		height = geometry.height();
+		connect = geometry.connect();
+		countsR = new int[geometry.lineCount()];
+		countsY = new int[geometry.lineCount()];
+		valuesR = new double[geometry.lineCount()];
+		valuesY = new double[geometry.lineCount()];
+		combinedScoresR = new double[geometry.cells()];
+		combinedScoresY = new double[geometry.cells()];
+		filled = new boolean[geometry.cells()];
+		possibles = new double[geometry.width()];
+		touched = new int[geometry.cells()];
+		this.weights = weights;
+		recompute();
+	}
+
+	public Geometry geometry() {
+		return geometry;
+	}
+
+	// Changing the weightings changes every score, so everything is recalculated.
+	public void setWeights(Weights weights) {
+		if (!weights.equals(this.weights)) {
+			this.weights = weights;
+			recompute();
+		}
+	}
+
+	public Weights weights() {
+		return weights;
+	}
+
+	// Start again from an empty board.
+	public void clear() {
+		clearBoard();
+		recompute();
+	}
+
+	// Start a new game with an empty board and the weightings given, recalculating only once.
+	public void reset(Weights weights) {
+		this.weights = weights;
+		clearBoard();
+		recompute();
+	}
+
+	// Copy a standard board and weightings into the evaluator and recalculate everything from them.
+	public void load(Position other, Weights weights) {
+		if (!geometry.isStandard()) {
+			throw new IllegalArgumentException("A 7x6 board can't be loaded into a " + geometry + " evaluator");
+		}
+		this.weights = weights;
+		if (position != null) {
+			position.set(other);
+		}
+		else {
+			clearBoard();
+			for (int x = 0; x < Position.WIDTH; x++) {
+				for (int y = 0; y < other.nextRow(x); y++) {
+					board.play(x, other.cell(x, y));
+				}
+			}
+		}
+		recompute();
+	}
+
+	// Copy the board of another evaluator of the same geometry, keeping these weightings, and recalculate everything from it.
+	public void load(Evaluator other) {
+		if (!geometry.equals(other.geometry)) {
+			throw new IllegalArgumentException("A " + other.geometry + " board can't be loaded into a " + geometry + " evaluator");
+		}
+		if ((position != null) && (other.position != null)) {
+			position.set(other.position);
+		}
+		else if ((board != null) && (other.board != null)) {
+			board.set(other.board);
+		}
+		else {
+			clearBoard();
+			for (int x = 0; x < geometry.width(); x++) {
+				for (int y = 0; y < other.nextRow(x); y++) {
+					playBoard(x, other.cell(x, y));
+				}
+			}
+		}
+		recompute();
+	}
+
+	// Full recalculation of every neuron from the board.
+	public void recompute() {
+		boolean measure = EngineMetrics.on();
+		long start = measure ? System.nanoTime() : 0;
+		doWinningColumns();					// 21 neurons on 7x6
+		doWinningRows();					// 24 neurons
+		doWinningDiagonalsUp();				// 12 neurons
+		doWinningDiagonalsDown();			// 12 neurons
+		completeR = 0;
+		completeY = 0;
+		for (int line = 0; line < countsR.length; line++) {
+			completeR += (countsR[line] == connect) ? 1 : 0;
+			completeY += (countsY[line] == connect) ? 1 : 0;
+		}
+		long middle = measure ? System.nanoTime() : 0;
+		doCombinedScores();					// 42 neurons
+		if (measure) {
+			EngineMetrics.INSTANCE.neuronPass(middle - start);
+			EngineMetrics.INSTANCE.combinedScorePass(System.nanoTime() - middle);
+		}
+	}
+
+	// These functions populate the piece counts for each player's columns, rows and diagonals from the board.
+	// Each count is one popcount of a line mask in each long of the board.
+	public void doWinningColumns() {
+		doWinningLines(geometry.columnLines(), geometry.rowLines());
+	}
+
+	public void doWinningRows() {
+		doWinningLines(geometry.rowLines(), geometry.upLines());
+	}
+
+	public void doWinningDiagonalsUp() {
+		doWinningLines(geometry.upLines(), geometry.downLines());
+	}
+
+	public void doWinningDiagonalsDown() {
+		doWinningLines(geometry.downLines(), geometry.lineCount());
+	}
+
+	private void doWinningLines(int first, int end) {
+		for (int line = first; line < end; line++) {
+			countsR[line] = (position != null) ? position.lineCount(line, 'R') : board.lineCount(line, 'R');
+			countsY[line] = (position != null) ? position.lineCount(line, 'Y') : board.lineCount(line, 'Y');
+			updateLineValues(line);
+		}
+	}
+
+	// This function populates the combined score for every place from the line neurons.
+	public void doCombinedScores() {
+		for (int x = 0; x < geometry.width(); x++) {
+			for (int y = 0; y < height; y++) {
+				filled[x * height + y] = cell(x, y) != ' ';
+			}
+		}
+		for (int cell = 0; cell < combinedScoresR.length; cell++) {
+			updateCell(cell);
+		}
+	}
+
+	// Drop a piece into a column and update only the lines and places it affects. The row is returned, or -1 if the column is full.
+	public int play(int x, char player) {
+		int y = playBoard(x, player);
+		if (y >= 0) {
+			filled[x * height + y] = true;
+			update(x * height + y, player, 1);
+		}
+		return y;
+	}
+
+	// Take the top piece back out of a column, undoing play. The row is returned, or -1 if the column is empty.
+	public int undo(int x) {
+		int y = nextRow(x) - 1;
+		if (y < 0) {
+			return -1;
+		}
+		char player = cell(x, y);
+		if (position != null) {
+			position.undo(x);
+		}
+		else {
+			board.undo(x);
+		}
+		filled[x * height + y] = false;
+		update(x * height + y, player, -1);
+		return y;
+	}
+
+	// Work out the move for the player and put it into the next free place in the chosen column.
+	public int calculateMove(char player) {
+		int move = selectMove(player);
+		play(move, player);
+		return move;
+	}
+
+	// function to look at the combined scores for each column and select the highest as the computer move.
+	// 8 neurons on 7x6
+	public int selectMove(char player) {
+		boolean measure = EngineMetrics.on();
+		long start = measure ? System.nanoTime() : 0;
+		boolean fallback = false;
+		double highest = -1.0; 						// variable to select the highest to identify the column.
+		int move = geometry.order(0); 				// The move is set to default to the middle of the table.
+
+		// Go through all columns to calculate the score for each one to select the move.
+		for (int x = 0; x < possibles.length; x++) {
+			possibles[x] = 0.0;
+			// Find the next free place in the column, if there is one.
+			if (!isFull(x)) {
+				int y = nextRow(x);
+				int cell = x * height + y;
+				// Calculate the score for the column by adding the red and yellow scores.
+				// It is a good idea to block a position, if it is a good move for the opponent.
+				if (player == 'Y') {
+					possibles[x] = combinedScoresY[cell] + (combinedScoresR[cell] * weights.oppntMove());
+				}
+				else {
+					possibles[x] = combinedScoresR[cell] + (combinedScoresY[cell] * weights.oppntMove());
+				}
+				// check if column at top before looking at next move.
+				if (y < height - 1) {
+				// If there is a space above, subtract the opponents score from the score calculated.
+				// This is to reduce the score if the move lets the opponent get an advantage or win.
+				// The next move score is adjusted by the weighting.
+					if (player == 'Y') {
+						possibles[x] = possibles[x]  - (combinedScoresR[cell + 1] * weights.nextMove());
+					}
+					else {
+						possibles[x] = possibles[x]  - (combinedScoresY[cell + 1] * weights.nextMove());
+					}
+				}
+				// check each possible value to see if it is the highest, then capture it and the corresponding move.
+				if (possibles[x] > highest) {
+					highest = possibles[x];
+					move = x;
+				}
+			}
+		}
+		// Just in case something has gone wrong, the move is checked to see that there is space for it to fit.
+		// If there isn't, the table is searched for any valid move.
+		// Coding errors in the neural network meant this happened in the past.
+		if (isFull(move)) {
+			fallback = true;
+			for (int x = 0; x < possibles.length; x++) {
+				if (!isFull(x)) {
+					move = x;
+					break;
+				}
+			}
+		}
+		if (measure) {
+			EngineMetrics.INSTANCE.selectMove(System.nanoTime() - start, fallback);
+			countLines();
+		}
+		return move;
+	}
+
+	// Count the lines blocked by both colours and the lines that can still be won, for the metrics.
+	private void countLines() {
+		int blocked = 0;
+		for (int line = 0; line < countsR.length; line++) {
+			if ((countsR[line] != 0) && (countsY[line] != 0)) {
+				blocked++;
+			}
+		}
+		EngineMetrics.INSTANCE.lines(blocked, countsR.length - blocked);
+	}
+
+	// The score for a column from the last selectMove. Full columns score zero.
+	public double possible(int x) {
+		return possibles[x];
+	}
+
+	// The board as the evaluator sees it on the standard geometry, or null on any other. This is the evaluator's own copy and must only be
+	// changed through play and undo. The board on other geometries is read through cell, nextRow and the functions after them.
+	public Position position() {
+		return position;
+	}
+
+	// The piece at a place: R for red, Y for yellow or a space if it is empty.
+	public char cell(int x, int y) {
+		return (position != null) ? position.cell(x, y) : board.cell(x, y);
+	}
+
+	public boolean isFull(int x) {
+		return (position != null) ? position.isFull(x) : board.isFull(x);
+	}
+
+	// The next free row in a column, the height of the board for a full column.
+	public int nextRow(int x) {
+		return (position != null) ? position.nextRow(x) : board.nextRow(x);
+	}
+
+	public int moveCount() {
+		return (position != null) ? position.moveCount() : board.moveCount();
+	}
+
+	// Whether dropping a piece for the player into a column would complete a line. The column must not be full.
+	// On a Board only the counts of the lines through the place it would land in are looked at.
+	public boolean isWinningMove(int x, char player) {
+		if (position != null) {
+			return position.isWinningMove(x, player);
+		}
+		int[] own = (player == 'R') ? countsR : countsY;
+		int[] lines = geometry.cellLines(x * height + board.nextRow(x));
+		for (int i = 0; i < lines.length; i++) {
+			if (own[lines[i]] == connect - 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// R or Y for a winner, D if the board is full, otherwise a space.
+	public char gameEnded() {
+		if (position != null) {
+			return position.gameEnded();
+		}
+		if (completeR > 0) {
+			return 'R';
+		}
+		if (completeY > 0) {
+			return 'Y';
+		}
+		return (board.moveCount() == geometry.cells()) ? 'D' : ' ';
+	}
+
+	// The board in the format of Position.fromBoardString, row by row from the bottom with the width of the geometry in each row.
+	public String toBoardString() {
+		return (position != null) ? position.toBoardString() : board.toBoardString();
+	}
+
+	// The total of the player's combined scores over every empty place, less the opponent's total. This is the score Search uses
+	// when it stops looking further ahead, so a position with more open lines for the player than the opponent scores higher.
+	public double balance(char player) {
+		double total = 0;
+		for (int cell = 0; cell < combinedScoresR.length; cell++) {
+			total += combinedScoresR[cell] - combinedScoresY[cell];
+		}
+		return (player == 'R') ? total : -total;
+	}
+
+	public double combinedScoreR(int x, int y) {
+		return combinedScoresR[x * height + y];
+	}
+
+	public double combinedScoreY(int x, int y) {
+		return combinedScoresY[x * height + y];
+	}
+
+	// Line counts with blocked lines set to zero for both players, as in the original winningColumns, winningRows and winningDiagonals arrays.
+	public int lineCountR(int line) {
+		return (countsY[line] != 0) ? 0 : countsR[line];
+	}
+
+	public int lineCountY(int line) {
+		return (countsR[line] != 0) ? 0 : countsY[line];
+	}
+
+	// Check that the incrementally updated state matches another evaluator, normally a full recalculation from the same board.
+	public boolean matches(Evaluator other) {
+		if ((completeR != other.completeR) || (completeY != other.completeY)) {
+			return false;
+		}
+		for (int line = 0; line < countsR.length; line++) {
+			if ((countsR[line] != other.countsR[line]) || (countsY[line] != other.countsY[line])) {
+				return false;
+			}
+		}
+		for (int cell = 0; cell < combinedScoresR.length; cell++) {
+			if ((combinedScoresR[cell] != other.combinedScoresR[cell]) || (combinedScoresY[cell] != other.combinedScoresY[cell])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void clearBoard() {
+		if (position != null) {
+			position.clear();
+		}
+		else {
+			board.clear();
+		}
+	}
+
+	// Drop a piece on the board alone, returning the row or -1 if the column is full.
+	private int playBoard(int x, char player) {
+		return (position != null) ? position.play(x, player) : board.play(x, player);
+	}
+
+	// Add or remove one piece in every line through the place, then rescore every place in those lines.
+	private void update(int cell, char player, int change) {
+		boolean measure = EngineMetrics.on();
+		long start = measure ? System.nanoTime() : 0;
+		int[] lines = geometry.cellLines(cell);
+		int[] counts = (player == 'R') ? countsR : countsY;
+		int complete = 0;
+		for (int i = 0; i < lines.length; i++) {
+			int line = lines[i];
+			complete -= (counts[line] == connect) ? 1 : 0;
+			counts[line] += change;
+			complete += (counts[line] == connect) ? 1 : 0;
+			updateLineValues(line);
+		}
+		if (player == 'R') {
+			completeR += complete;
+		}
+		else {
+			completeY += complete;
+		}
+		long middle = measure ? System.nanoTime() : 0;
+		touchMark++;
+		for (int i = 0; i < lines.length; i++) {
+			int[] cells = geometry.lineCells(lines[i]);
+			for (int j = 0; j < cells.length; j++) {
+				if (touched[cells[j]] != touchMark) {
+					touched[cells[j]] = touchMark;
+					updateCell(cells[j]);
+				}
+			}
+		}
+		if (measure) {
+			EngineMetrics.INSTANCE.neuronPass(middle - start);
+			EngineMetrics.INSTANCE.combinedScorePass(System.nanoTime() - middle);
+		}
+	}
+
+	// If both players have pieces, the line is blocked and no longer part of the game, so it counts as zero pieces for both.
+	private void updateLineValues(int line) {
+		valuesR[line] = weights.power(lineCountR(line));
+		valuesY[line] = weights.power(lineCountY(line));
+	}
+
+	// Combine the vertical, horizontal and diagonal line values through a place, each multiplied by its weighting.
+	// Places that have already been played score zero.
+	private void updateCell(int cell) {
+		if (filled[cell]) {
+			combinedScoresR[cell] = 0;
+			combinedScoresY[cell] = 0;
+			return;
+		}
+		combinedScoresR[cell] = combine(cell, valuesR);
+		combinedScoresY[cell] = combine(cell, valuesY);
+	}
+
+	private double combine(int cell, double[] values) {
+		double columns = 0, rows = 0, diagonalsUp = 0, diagonalsDown = 0;
+		int[] lines = geometry.cellLines(cell);
+		for (int i = 0; i < lines.length; i++) {
+			int line = lines[i];
+			if (line < geometry.rowLines()) {
+				columns += values[line];
+			}
+			else if (line < geometry.upLines()) {
+				rows += values[line];
+			}
+			else if (line < geometry.downLines()) {
+				diagonalsUp += values[line];
+			}
+			else {
+				diagonalsDown += values[line];
+			}
+		}
+		return (columns * weights.vertical()) + (rows * weights.horizontal()) + (diagonalsUp * weights.diagonal()) + (diagonalsDown * weights.diagonal());
+	}
+}
@@ -0,0 +1,285 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 evolutionary optimisation
+//
+// Tunes all six weightings together with CMA-ES, the covariance matrix adaptation evolution strategy.
+// See https://en.wikipedia.org/wiki/CMA-ES and Hansen's tutorial https://arxiv.org/abs/1604.00772, which the update below follows.
+//
+// Each generation a population of weightings is drawn around the current mean. Each one plays the default weightings and the current mean,
+// with both colours and every opening, and the better half move the mean towards themselves. The spread and the shape of the next
+// population are learned from the steps that worked, so the search follows weightings that go well together instead of guessing each
+// one separately, and narrows down as it gets close.
+//
+// The weightings are searched as multiples of the defaults, so a step of 0.1 means the same for pieces (6.0) as for nextMove (0.5).
+// All the games of a generation are played at once on all the cores. The games have no random element and the population is drawn
+// from a seeded random stream, so a seed gives the same result whatever the number of threads.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+public class EvolutionOptimiser {
+	private static final int N = 6;								// Number of weightings.
+	private static final int OPENINGS = 14;						// Games against each opponent with each colour, as in SelfPlay.playMatch.
+	private static final int GAMES = 2 * 2 * OPENINGS;			// Games for each member of the population: two opponents, both colours.
+	private static final double[] DEFAULTS = {Weights.PIECESDEFAULT, Weights.HORIZONTALDEFAULT, Weights.VERTICALDEFAULT,
+		Weights.DIAGONALDEFAULT, Weights.OPPNTMOVEDEFAULT, Weights.NEXTMOVEDEFAULT};
+
+	private final ForkJoinPool pool;
+	private final ThreadLocal<SelfPlay> selfPlays;
+	private final int lambda = 12;								// Population size, a little above the usual 4 + 3 ln N to keep all the cores busy.
+	private final int mu = lambda / 2;							// Members used to move the mean.
+	private final double[] recombination = new double[mu];		// How much each of the best mu counts, best first.
+	private final double mueff;
+	private final double cc, cs, c1, cmu, damps, chiN;
+	private long gamesPlayed = 0;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public EvolutionOptimiser(int threads) {
+		this(threads, Solver.ENDGAME);
+	}
+
+	// The same, with the solver playing once endgame places or fewer are empty, 0 for never.
+	public EvolutionOptimiser(int threads, int endgame) {
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		selfPlays = ThreadLocal.withInitial(() -> new SelfPlay(endgame));
+		double sum = 0;
+		double squares = 0;
+		for (int i = 0; i < mu; i++) {
+			recombination[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+			sum += recombination[i];
+		}
+		for (int i = 0; i < mu; i++) {
+			recombination[i] /= sum;
+			squares += recombination[i] * recombination[i];
+		}
+		mueff = 1 / squares;
+		cc = (4 + mueff / N) / (N + 4 + 2 * mueff / N);
+		cs = (mueff + 2) / (N + mueff + 5);
+		c1 = 2 / (((N + 1.3) * (N + 1.3)) + mueff);
+		cmu = Math.min(1 - c1, 2 * (mueff - 2 + 1 / mueff) / (((N + 2) * (N + 2)) + mueff));
+		damps = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (N + 1)) - 1) + cs;
+		chiN = Math.sqrt(N) * (1 - 1.0 / (4 * N) + 1.0 / (21 * N * N));
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	public long gamesPlayed() {
+		return gamesPlayed;
+	}
+
+	// Run for a number of generations starting from the default weightings, printing each generation, and return the final mean.
+	public Weights optimise(int generations, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		double[] mean = new double[N];
+		Arrays.fill(mean, 1.0);
+		double sigma = 0.3;
+		double[][] covariance = identity();
+		double[] pc = new double[N];
+		double[] ps = new double[N];
+
+		for (int generation = 0; generation < generations; generation++) {
+			// Draw the population: mean + sigma * B * D * z, where B and D^2 are the eigenvectors and eigenvalues of the covariance.
+			double[][] basis = identity();
+			double[] scale = new double[N];
+			eigen(covariance, basis, scale);
+			for (int i = 0; i < N; i++) {
+				scale[i] = Math.sqrt(Math.max(scale[i], 1e-20));
+			}
+			double[][] steps = new double[lambda][N];
+			Weights[] population = new Weights[lambda];
+			for (int k = 0; k < lambda; k++) {
+				double[] z = new double[N];
+				for (int i = 0; i < N; i++) {
+					z[i] = gaussian(random) * scale[i];
+				}
+				double[] x = new double[N];
+				for (int i = 0; i < N; i++) {
+					for (int j = 0; j < N; j++) {
+						steps[k][i] += basis[i][j] * z[j];
+					}
+					x[i] = mean[i] + sigma * steps[k][i];
+				}
+				population[k] = weights(x);
+			}
+
+			// Play every member against the default weightings and the current mean, and sort them best first.
+			double[] fitness = play(population, weights(mean));
+			Integer[] order = new Integer[lambda];
+			for (int k = 0; k < lambda; k++) {
+				order[k] = k;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+
+			// Move the mean towards the best half.
+			double[] step = new double[N];
+			for (int i = 0; i < mu; i++) {
+				for (int j = 0; j < N; j++) {
+					step[j] += recombination[i] * steps[order[i]][j];
+				}
+			}
+			for (int j = 0; j < N; j++) {
+				mean[j] += sigma * step[j];
+			}
+
+			// Update the evolution paths. The step is turned back into unit spread by C^-1/2 = B D^-1 B' for the sigma path.
+			double[] whitened = new double[N];
+			for (int i = 0; i < N; i++) {
+				double along = 0;
+				for (int j = 0; j < N; j++) {
+					along += basis[j][i] * step[j];
+				}
+				along /= scale[i];
+				for (int j = 0; j < N; j++) {
+					whitened[j] += basis[j][i] * along;
+				}
+			}
+			double psLength = 0;
+			for (int j = 0; j < N; j++) {
+				ps[j] = (1 - cs) * ps[j] + Math.sqrt(cs * (2 - cs) * mueff) * whitened[j];
+				psLength += ps[j] * ps[j];
+			}
+			psLength = Math.sqrt(psLength);
+			boolean hsig = psLength / Math.sqrt(1 - Math.pow(1 - cs, 2 * (generation + 1))) / chiN < 1.4 + 2.0 / (N + 1);
+			for (int j = 0; j < N; j++) {
+				pc[j] = (1 - cc) * pc[j] + (hsig ? Math.sqrt(cc * (2 - cc) * mueff) * step[j] : 0);
+			}
+
+			// Learn the shape of the next population from the path and from the steps of the best half.
+			for (int i = 0; i < N; i++) {
+				for (int j = 0; j <= i; j++) {
+					double value = (1 - c1 - cmu) * covariance[i][j]
+						+ c1 * (pc[i] * pc[j] + (hsig ? 0 : cc * (2 - cc) * covariance[i][j]));
+					for (int k = 0; k < mu; k++) {
+						value += cmu * recombination[k] * steps[order[k]][i] * steps[order[k]][j];
+					}
+					covariance[i][j] = value;
+					covariance[j][i] = value;
+				}
+			}
+			sigma *= Math.exp((cs / damps) * (psLength / chiN - 1));
+
+			System.out.println("Generation " + generation + " games " + gamesPlayed + " best " + (float)fitness[order[0]] + " sigma " + (float)sigma
+				+ " best " + describe(population[order[0]]) + " mean " + describe(weights(mean)));
+		}
+		return weights(mean);
+	}
+
+	// Stop the threads once optimisation is finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// The share of points each member of the population scores against the default weightings and the mean, 1 for a win and 0.5 for a draw.
+	// Game g of a member is against the defaults for the first half and the mean for the second, with the member as red for odd g.
+	private double[] play(Weights[] population, Weights mean) {
+		char[] winners = new char[population.length * GAMES];
+		Parallel.forEach(pool, 0, winners.length, g -> {
+			Weights member = population[g / GAMES];
+			int game = g % GAMES;
+			Weights opponent = (game < GAMES / 2) ? Weights.DEFAULT : mean;
+			int z = (game / 2) % OPENINGS;
+			winners[g] = ((game % 2) == 1) ? selfPlays.get().playGame(member, opponent, z) : selfPlays.get().playGame(opponent, member, z);
+		});
+		gamesPlayed += winners.length;
+		double[] fitness = new double[population.length];
+		for (int g = 0; g < winners.length; g++) {
+			char member = ((g % GAMES) % 2 == 1) ? 'R' : 'Y';
+			if (winners[g] == member) {
+				fitness[g / GAMES] += 1;
+			}
+			else if (winners[g] == 'D') {
+				fitness[g / GAMES] += 0.5;
+			}
+		}
+		for (int k = 0; k < population.length; k++) {
+			fitness[k] /= GAMES;
+		}
+		return fitness;
+	}
+
+	// Turn multiples of the defaults into weightings. Pieces must stay above 1 so more pieces in a line always score more,
+	// and the others must not go negative.
+	private static Weights weights(double[] x) {
+		return new Weights(Math.max(DEFAULTS[0] * x[0], 1.01), Math.max(DEFAULTS[1] * x[1], 0.01), Math.max(DEFAULTS[2] * x[2], 0.01),
+			Math.max(DEFAULTS[3] * x[3], 0.01), Math.max(DEFAULTS[4] * x[4], 0.0), Math.max(DEFAULTS[5] * x[5], 0.0));
+	}
+
+	// Weightings to three decimal places, as toString only shows one.
+	private static String describe(Weights w) {
+		return String.format("%.3f,%.3f,%.3f,%.3f,%.3f,%.3f", w.pieces(), w.horizontal(), w.vertical(), w.diagonal(), w.oppntMove(), w.nextMove());
+	}
+
+	// A normally distributed random number, by the Box-Muller method.
+	private static double gaussian(SplittableRandom random) {
+		double u = 1.0 - random.nextDouble();
+		double v = random.nextDouble();
+		return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+	}
+
+	private static double[][] identity() {
+		double[][] matrix = new double[N][N];
+		for (int i = 0; i < N; i++) {
+			matrix[i][i] = 1;
+		}
+		return matrix;
+	}
+
+	// Eigenvalues and eigenvectors of a symmetric matrix by Jacobi rotations, which is simple and exact enough for 6 by 6.
+	// The eigenvectors are the columns of vectors, which must start as the identity.
+	private static void eigen(double[][] matrix, double[][] vectors, double[] values) {
+		double[][] a = new double[N][];
+		for (int i = 0; i < N; i++) {
+			a[i] = matrix[i].clone();
+		}
+		for (int sweep = 0; sweep < 50; sweep++) {
+			double off = 0;
+			for (int p = 0; p < N; p++) {
+				for (int q = p + 1; q < N; q++) {
+					off += a[p][q] * a[p][q];
+				}
+			}
+			if (off < 1e-30) {
+				break;
+			}
+			for (int p = 0; p < N; p++) {
+				for (int q = p + 1; q < N; q++) {
+					if (Math.abs(a[p][q]) < 1e-300) {
+						continue;
+					}
+					double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+					double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+					if (theta == 0) {
+						t = 1;
+					}
+					double c = 1 / Math.sqrt(t * t + 1);
+					double s = t * c;
+					for (int k = 0; k < N; k++) {
+						double akp = a[k][p];
+						double akq = a[k][q];
+						a[k][p] = c * akp - s * akq;
+						a[k][q] = s * akp + c * akq;
+					}
+					for (int k = 0; k < N; k++) {
+						double apk = a[p][k];
+						double aqk = a[q][k];
+						a[p][k] = c * apk - s * aqk;
+						a[q][k] = s * apk + c * aqk;
+					}
+					for (int k = 0; k < N; k++) {
+						double vkp = vectors[k][p];
+						double vkq = vectors[k][q];
+						vectors[k][p] = c * vkp - s * vkq;
+						vectors[k][q] = s * vkp + c * vkq;
+					}
+				}
+			}
+		}
+		for (int i = 0; i < N; i++) {
+			values[i] = a[i][i];
+		}
+	}
+}
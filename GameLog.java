@@ -0,0 +1,464 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 game log
+//
+// Keeps self play games in a compact binary file so they can be replayed or analysed later. Games are only ever added to the end.
+//
+// The file starts with an 8 byte header, MAGIC then VERSION, followed by records. Each record starts with its type and ends with a
+// 2 byte checksum, the low 16 bits of the CRC32C of the rest of the record:
+//     a weightings record, 'W', gives a set of weightings a number: the number, then the six weightings as doubles.
+//     A game record, 'G', has the number of moves, then the winner (0 red, 1 yellow, 2 draw) plus 4 if yellow played first,
+//     then the numbers of the red and yellow weightings, then the columns played packed 3 bits each, lowest bits first.
+// Weightings numbers are written 7 bits a byte, with the top bit set on every byte but the last. Numbers are given out by the writer,
+// and the weightings record always comes before the first game that uses it.
+// A typical game of 25 moves takes 17 bytes, so 300 million games take about 5 GB.
+//
+// Any number of threads can write to one writer at once. Records are built in a buffer and written to the file when it fills.
+// The reader goes through the file a buffer at a time, so files larger than memory can be read.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+public final class GameLog {
+	public static final int MAGIC = 0x4334474C;			// "C4GL"
+	public static final int VERSION = 1;
+	private static final int HEADER = 8;
+	private static final byte GAME = 'G';
+	private static final byte WEIGHTS = 'W';
+	private static final int CELLS = Position.WIDTH * Position.HEIGHT;
+	private static final int LONGEST = 64;				// No record is longer than this.
+	private static final int BUFFER = 1 << 20;
+
+	private GameLog() {
+	}
+
+	// Open a log to add games to, making it if it doesn't exist.
+	public static Writer append(Path file) throws IOException {
+		return new Writer(file, -1);
+	}
+
+	// Open a log to add games to after cutting it back to the length given, dropping anything written after that.
+	// This is how a run carried on from a checkpoint drops the games it will play again.
+	public static Writer append(Path file, long length) throws IOException {
+		return new Writer(file, length);
+	}
+
+	// Open a log to read from the start.
+	public static Reader read(Path file) throws IOException {
+		return new Reader(file);
+	}
+
+	// Adds games to the end of a log.
+	public static final class Writer implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER);
+		private final byte[] record = new byte[LONGEST];
+		private final CRC32C crc = new CRC32C();
+		private final Map<Weights, Integer> numbers = new HashMap<>();	// Numbers given to weightings already in the log.
+		private long games = 0;
+
+		private Writer(Path file, long length) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				if (length >= 0) {
+					if (channel.size() < length) {
+						throw new IOException("The game log has " + channel.size() + " bytes, fewer than the " + length + " expected");
+					}
+					channel.truncate(length);
+				}
+				if (channel.size() == 0) {
+					ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+					header.flip();
+					channel.write(header, 0);
+				}
+				else {
+					// Read the weightings already in the log so they keep their numbers, and find the end of the last whole record.
+					long end;
+					try (Reader reader = new Reader(channel)) {
+						while (reader.next() != null) {
+						}
+						numbers.putAll(reader.numbers());
+						end = reader.position();
+					}
+					channel.truncate(end);			// Drops a record cut short by a crash, if there is one.
+				}
+				channel.position(channel.size());
+			}
+			catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		// Add one game. The moves are the columns (0 to 6) in the order they were played, starting with the first player's.
+		// The winner is R, Y or D. Write errors are thrown as UncheckedIOException, so this can be called from a parallel loop.
+		public synchronized void write(Weights redWeights, Weights yellowWeights, char first, byte[] moves, int count, char winner) {
+			try {
+				int red = number(redWeights);
+				int yellow = number(yellowWeights);
+				int length = 0;
+				record[length++] = GAME;
+				record[length++] = (byte)count;
+				record[length++] = (byte)(((winner == 'R') ? 0 : (winner == 'Y') ? 1 : 2) | ((first == 'Y') ? 4 : 0));
+				length = putNumber(record, length, red);
+				length = putNumber(record, length, yellow);
+				int bytes = (count * 3 + 7) / 8;
+				for (int i = 0; i < bytes; i++) {
+					record[length + i] = 0;
+				}
+				for (int i = 0; i < count; i++) {
+					int bit = i * 3;
+					int packed = moves[i] << (bit % 8);
+					record[length + (bit / 8)] |= (byte)packed;
+					if ((bit % 8) > 5) {
+						record[length + (bit / 8) + 1] |= (byte)(packed >>> 8);
+					}
+				}
+				put(length + bytes);
+				games++;
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		// Games written by this writer.
+		public synchronized long games() {
+			return games;
+		}
+
+		// Bytes in the log, including any still in the buffer.
+		public synchronized long length() throws IOException {
+			return channel.position() + output.position();
+		}
+
+		// Write anything still in the buffer to the file.
+		public synchronized void flush() throws IOException {
+			output.flip();
+			while (output.hasRemaining()) {
+				channel.write(output);
+			}
+			output.clear();
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			try {
+				flush();
+			}
+			finally {
+				channel.close();
+			}
+		}
+
+		// The number for a set of weightings, writing a weightings record first if it is new to the log.
+		private int number(Weights weights) throws IOException {
+			Integer number = numbers.get(weights);
+			if (number != null) {
+				return number;
+			}
+			number = numbers.size();
+			numbers.put(weights, number);
+			int length = 0;
+			record[length++] = WEIGHTS;
+			length = putNumber(record, length, number);
+			ByteBuffer values = ByteBuffer.wrap(record, length, 48);
+			values.putDouble(weights.pieces()).putDouble(weights.horizontal()).putDouble(weights.vertical())
+				.putDouble(weights.diagonal()).putDouble(weights.oppntMove()).putDouble(weights.nextMove());
+			put(length + 48);
+			return number;
+		}
+
+		// Add the checksum to the record and copy it to the buffer, writing the buffer to the file first if it is full.
+		private void put(int length) throws IOException {
+			crc.reset();
+			crc.update(record, 0, length);
+			int check = (int)crc.getValue();
+			record[length++] = (byte)(check >>> 8);
+			record[length++] = (byte)check;
+			if (output.remaining() < length) {
+				flush();
+			}
+			output.put(record, 0, length);
+		}
+	}
+
+	// One game read from a log. The reader reuses the same object for every game.
+	public static final class Game {
+		private final byte[] moves = new byte[CELLS];
+		private int count;
+		private char first;
+		private char winner;
+		private int redNumber;
+		private int yellowNumber;
+		private Weights redWeights;
+		private Weights yellowWeights;
+
+		public int moveCount() {
+			return count;
+		}
+
+		// The column (0 to 6) of move i, starting from 0 for the first player's first piece.
+		public int move(int i) {
+			return moves[i];
+		}
+
+		public char first() {
+			return first;
+		}
+
+		public char winner() {
+			return winner;
+		}
+
+		public int redNumber() {
+			return redNumber;
+		}
+
+		public int yellowNumber() {
+			return yellowNumber;
+		}
+
+		public Weights redWeights() {
+			return redWeights;
+		}
+
+		public Weights yellowWeights() {
+			return yellowWeights;
+		}
+
+		// One line of text: who went first, the winner, the weightings numbers and the columns played, 1 to 7 as in the game.
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			text.append("first ").append(first).append(" winner ").append(winner).append(" red ").append(redNumber)
+				.append(" yellow ").append(yellowNumber).append(" moves ");
+			for (int i = 0; i < count; i++) {
+				text.append(moves[i] + 1);
+			}
+			return text.toString();
+		}
+	}
+
+	// Reads the games in a log in order, a buffer at a time.
+	public static final class Reader implements Closeable {
+		private final FileChannel channel;
+		private final boolean owned;						// Whether closing the reader closes the file.
+		private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER);
+		private final byte[] record = new byte[LONGEST];
+		private final CRC32C crc = new CRC32C();
+		private final List<Weights> weights = new ArrayList<>();
+		private final Game game = new Game();
+		private long position = HEADER;						// File position of the next record.
+		private long games = 0;
+
+		private Reader(Path file) throws IOException {
+			this(FileChannel.open(file, StandardOpenOption.READ), true);
+		}
+
+		private Reader(FileChannel channel) throws IOException {
+			this(channel, false);
+		}
+
+		private Reader(FileChannel channel, boolean owned) throws IOException {
+			this.channel = channel;
+			this.owned = owned;
+			channel.position(0);
+			input.flip();
+			if (!fill(HEADER) || (input.getInt() != MAGIC)) {
+				close();
+				throw new IOException("Not a game log");
+			}
+			int version = input.getInt();
+			if (version != VERSION) {
+				close();
+				throw new IOException("Game log version " + version + " can't be read, only version " + VERSION);
+			}
+		}
+
+		// The next game, or null at the end of the log. A record cut short at the end of the file, as left by a crash while writing,
+		// is treated as the end. A record with the wrong checksum, or of an unknown type, stops reading with an IOException.
+		public Game next() throws IOException {
+			for (;;) {
+				if (!fill(1)) {
+					return null;
+				}
+				byte type = input.get(input.position());
+				int length;
+				if (type == GAME) {
+					if (!fill(3)) {
+						return null;
+					}
+					int count = input.get(input.position() + 1);
+					if ((count < 0) || (count > CELLS)) {
+						throw damaged("a game of " + count + " moves");
+					}
+					int numbers = numberLength(3);
+					if (numbers < 0) {
+						return null;
+					}
+					length = 3 + numbers + (count * 3 + 7) / 8 + 2;
+				}
+				else if (type == WEIGHTS) {
+					int number = numberLength(1);
+					if (number < 0) {
+						return null;
+					}
+					length = 1 + number + 48 + 2;
+				}
+				else {
+					throw damaged("an unknown record type " + type);
+				}
+				if (!fill(length)) {
+					return null;
+				}
+				input.get(record, 0, length);
+				crc.reset();
+				crc.update(record, 0, length - 2);
+				int check = (int)crc.getValue() & 0xFFFF;
+				if (check != (((record[length - 2] & 0xFF) << 8) | (record[length - 1] & 0xFF))) {
+					throw damaged("a checksum that doesn't match");
+				}
+				position += length;
+				if (type == WEIGHTS) {
+					int[] at = {1};
+					int number = getNumber(record, at);
+					ByteBuffer values = ByteBuffer.wrap(record, at[0], 48);
+					Weights w = new Weights(values.getDouble(), values.getDouble(), values.getDouble(), values.getDouble(), values.getDouble(), values.getDouble());
+					if (number != weights.size()) {
+						throw damaged("weightings number " + number + " out of order");
+					}
+					weights.add(w);
+					continue;
+				}
+				return decode(length);
+			}
+		}
+
+		// Games read so far.
+		public long games() {
+			return games;
+		}
+
+		// Every set of weightings read so far, by number.
+		public List<Weights> weights() {
+			return weights;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (owned) {
+				channel.close();
+			}
+		}
+
+		long position() {
+			return position;
+		}
+
+		Map<Weights, Integer> numbers() {
+			Map<Weights, Integer> numbers = new HashMap<>();
+			for (int i = 0; i < weights.size(); i++) {
+				numbers.put(weights.get(i), i);
+			}
+			return numbers;
+		}
+
+		private Game decode(int length) throws IOException {
+			game.count = record[1];
+			game.winner = "RYD".charAt(Math.min(record[2] & 3, 2));
+			game.first = ((record[2] & 4) != 0) ? 'Y' : 'R';
+			int[] at = {3};
+			game.redNumber = getNumber(record, at);
+			game.yellowNumber = getNumber(record, at);
+			if ((game.redNumber >= weights.size()) || (game.yellowNumber >= weights.size())) {
+				throw damaged("a game using weightings that haven't been given");
+			}
+			game.redWeights = weights.get(game.redNumber);
+			game.yellowWeights = weights.get(game.yellowNumber);
+			for (int i = 0; i < game.count; i++) {
+				int bit = i * 3;
+				int packed = (record[at[0] + (bit / 8)] & 0xFF) >>> (bit % 8);
+				if ((bit % 8) > 5) {
+					packed |= (record[at[0] + (bit / 8) + 1] & 0xFF) << (8 - (bit % 8));
+				}
+				game.moves[i] = (byte)(packed & 7);
+			}
+			games++;
+			return game;
+		}
+
+		// The number of bytes in the weightings numbers starting at offset bytes into the next record, or -1 if the file ends first.
+		// A game has two numbers and a weightings record one.
+		private int numberLength(int offset) throws IOException {
+			int numbers = (input.get(input.position()) == GAME) ? 2 : 1;
+			int length = 0;
+			for (int n = 0; n < numbers; n++) {
+				for (;;) {
+					if (length >= 5 * numbers) {
+						throw damaged("a weightings number that is too long");
+					}
+					if (!fill(offset + length + 1)) {
+						return -1;
+					}
+					byte next = input.get(input.position() + offset + length);
+					length++;
+					if (next >= 0) {
+						break;
+					}
+				}
+			}
+			return length;
+		}
+
+		// Make sure at least count bytes are in the buffer, reading more of the file if needed. False if the file ends first.
+		private boolean fill(int count) throws IOException {
+			while (input.remaining() < count) {
+				input.compact();
+				int read = channel.read(input);
+				input.flip();
+				if (read < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private IOException damaged(String problem) {
+			return new IOException("Game log damaged at byte " + position + ": " + problem);
+		}
+	}
+
+	private static int putNumber(byte[] bytes, int at, int number) {
+		while ((number & ~0x7F) != 0) {
+			bytes[at++] = (byte)((number & 0x7F) | 0x80);
+			number >>>= 7;
+		}
+		bytes[at++] = (byte)number;
+		return at;
+	}
+
+	private static int getNumber(byte[] bytes, int[] at) {
+		int number = 0;
+		int shift = 0;
+		for (;;) {
+			byte next = bytes[at[0]++];
+			number |= (next & 0x7F) << shift;
+			if (next >= 0) {
+				return number;
+			}
+			shift += 7;
+		}
+	}
+}
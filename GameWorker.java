@@ -0,0 +1,140 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 self play worker
+//
+// Connects to a Coordinator over TCP and plays the self play games it sends, on all the cores of this machine or the number of threads
+// given, until the coordinator closes the connection. Each batch of games is played at once with Parallel.forEach, each thread on its
+// own SelfPlay, and the results are sent back in one write. The solver takes over the games at the number of empty places the
+// coordinator gives, so every worker plays them the same way. The protocol is described in Coordinator.
+//
+// A worker can be started before the coordinator, as connecting is tried again every second until the time given runs out.
+// Stopping a worker at any point is safe, as the coordinator gives the games it held to the other workers.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class GameWorker {
+	private final ForkJoinPool pool;
+	private volatile int endgame = Solver.ENDGAME;		// Set by the coordinator before the first game.
+	private final ThreadLocal<SelfPlay> selfPlays = ThreadLocal.withInitial(() -> new SelfPlay(endgame));
+	private long gamesPlayed = 0;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public GameWorker(int threads) {
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	public long gamesPlayed() {
+		return gamesPlayed;
+	}
+
+	// Play the games a coordinator sends until it closes the connection, trying to connect for up to the number of seconds given.
+	public void run(String host, int port, int waitSeconds) throws IOException {
+		try (Socket socket = connect(host, port, System.nanoTime() + waitSeconds * 1000000000L)) {
+			socket.setTcpNoDelay(true);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII), 65536);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII), 65536);
+			String greeting = reader.readLine();
+			if (!Coordinator.GREETING.equals(greeting)) {
+				throw new IOException("Not a coordinator: \"" + greeting + "\"");
+			}
+			writer.write(Coordinator.HELLO + " " + threads() + "\n");
+			writer.flush();
+			serve(reader, writer);
+		}
+	}
+
+	// Stop the threads once the coordinator has finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static Socket connect(String host, int port, long deadline) throws IOException {
+		for (;;) {
+			try {
+				return new Socket(host, port);
+			}
+			catch (ConnectException e) {
+				if (System.nanoTime() > deadline) {
+					throw e;
+				}
+				try {
+					Thread.sleep(1000);
+				}
+				catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while connecting");
+				}
+			}
+		}
+	}
+
+	private void serve(BufferedReader reader, Writer writer) throws IOException {
+		List<Weights> numbered = new ArrayList<>();
+		int size = 0;
+		long[] ids = new long[Coordinator.BATCH];
+		Weights[] reds = new Weights[Coordinator.BATCH];
+		Weights[] yellows = new Weights[Coordinator.BATCH];
+		int[] games = new int[Coordinator.BATCH];
+		char[] winners = new char[Coordinator.BATCH];
+		StringBuilder results = new StringBuilder(Coordinator.BATCH * 24);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] parts = line.split(" ");
+			try {
+				if (parts[0].equals("S") && (parts.length == 2) && (gamesPlayed == 0) && (size == 0)) {
+					endgame = Integer.parseInt(parts[1]);
+				}
+				else if (parts[0].equals("W") && (parts.length == 3) && (Integer.parseInt(parts[1]) == numbered.size())) {
+					numbered.add(Weights.parse(parts[2]));
+				}
+				else if (parts[0].equals("G") && (parts.length == 5)) {
+					if (size == ids.length) {
+						ids = Arrays.copyOf(ids, size * 2);
+						reds = Arrays.copyOf(reds, size * 2);
+						yellows = Arrays.copyOf(yellows, size * 2);
+						games = Arrays.copyOf(games, size * 2);
+						winners = Arrays.copyOf(winners, size * 2);
+					}
+					ids[size] = Long.parseLong(parts[1]);
+					reds[size] = numbered.get(Integer.parseInt(parts[2]));
+					yellows[size] = numbered.get(Integer.parseInt(parts[3]));
+					games[size] = Integer.parseInt(parts[4]);
+					size++;
+				}
+				else if (parts[0].equals("E") && (parts.length == 1)) {
+					Weights[] red = reds;
+					Weights[] yellow = yellows;
+					int[] game = games;
+					char[] winner = winners;
+					Parallel.forEach(pool, 0, size, g -> winner[g] = selfPlays.get().playGame(red[g], yellow[g], game[g]));
+					results.setLength(0);
+					for (int i = 0; i < size; i++) {
+						results.append("R ").append(ids[i]).append(' ').append(winners[i]).append('\n');
+					}
+					writer.append(results);
+					writer.flush();
+					gamesPlayed += size;
+					size = 0;
+				}
+				else {
+					throw new IOException("Unexpected line from the coordinator: \"" + line + "\"");
+				}
+			}
+			catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+				throw new IOException("Unexpected line from the coordinator: \"" + line + "\"");
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 board geometry
+//
+// The size of the board and the number of pieces in a line needed to win, chosen when the program runs, for variants such as 8x7, 9x7,
+// 10x8 or connect 5. Evaluator and Search work from these tables on any geometry. The standard game is 7x6 with lines of 4, where the
+// board is a Position in one 64 bit mask, which the book, the solver and the transposition table need. Other geometries use a Board.
+//
+// The line tables are generated when a geometry is made, in the same order as Position: columns first (x * (height - connect + 1) + y),
+// then rows, then diagonals up and diagonals down. For 7x6 with lines of 4 this gives exactly the 69 lines of Position.
+// Places are numbered x * height + y as in Position, and the board is kept as one bit per place in as many longs as it needs,
+// so each line is a mask in each long.
+//
+// A geometry never changes once it has been made, so one can be shared by any number of boards and threads.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+public final class Geometry {
+	public static final Geometry STANDARD = new Geometry(Position.WIDTH, Position.HEIGHT, 4);
+	public static final int MAX_SIZE = 16;			// Largest width or height. Moves are kept in a few bits in places.
+
+	private final int width;
+	private final int height;
+	private final int connect;
+	private final int words;						// Longs in each player's bitboard.
+	private final int rowLines;						// The first line of each direction.
+	private final int upLines;
+	private final int downLines;
+	private final int lineCount;
+	private final long[] lineMasks;					// Each line's mask in each long, line by line.
+	private final int[][] lineCells;				// The places in each line, and the lines through each place in line order.
+	private final int[][] cellLines;
+	private final int[] order;						// Columns from the middle outwards, the order moves are tried in.
+
+	public Geometry(int width, int height, int connect) {
+		if ((width < 1) || (height < 1) || (width > MAX_SIZE) || (height > MAX_SIZE)) {
+			throw new IllegalArgumentException("The board must be 1 to " + MAX_SIZE + " places each way, not " + width + "x" + height);
+		}
+		if ((connect < 2) || (connect > Math.max(width, height))) {
+			throw new IllegalArgumentException("Lines of " + connect + " don't fit on a " + width + "x" + height + " board");
+		}
+		this.width = width;
+		this.height = height;
+		this.connect = connect;
+		words = (width * height + 63) / 64;
+		int columns = Math.max(height - connect + 1, 0);
+		int across = Math.max(width - connect + 1, 0);
+		rowLines = width * columns;
+		upLines = rowLines + across * height;
+		downLines = upLines + across * columns;
+		lineCount = downLines + across * columns;
+
+		lineCells = new int[lineCount][];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < columns; y++) {
+				lineCells[x * columns + y] = lineCells(x, y, 0, 1);
+			}
+		}
+		for (int x = 0; x < across; x++) {
+			for (int y = 0; y < height; y++) {
+				lineCells[rowLines + x * height + y] = lineCells(x, y, 1, 0);
+			}
+			for (int y = 0; y < columns; y++) {
+				lineCells[upLines + x * columns + y] = lineCells(x, y, 1, 1);
+				lineCells[downLines + x * columns + y] = lineCells(x, y + connect - 1, 1, -1);
+			}
+		}
+		lineMasks = new long[lineCount * words];
+		for (int line = 0; line < lineCount; line++) {
+			for (int cell : lineCells[line]) {
+				lineMasks[line * words + (cell >>> 6)] |= 1L << cell;
+			}
+		}
+
+		int cells = width * height;
+		int[] counts = new int[cells];
+		for (int[] line : lineCells) {
+			for (int cell : line) {
+				counts[cell]++;
+			}
+		}
+		cellLines = new int[cells][];
+		for (int cell = 0; cell < cells; cell++) {
+			cellLines[cell] = new int[counts[cell]];
+			counts[cell] = 0;
+		}
+		for (int line = 0; line < lineCount; line++) {
+			for (int cell : lineCells[line]) {
+				cellLines[cell][counts[cell]++] = line;
+			}
+		}
+
+		// Middle first, then alternately left and right of it, left first, as in {3, 2, 4, 1, 5, 0, 6}.
+		order = new int[width];
+		int middle = width / 2;
+		order[0] = middle;
+		for (int i = 1, step = 1; i < width; step++) {
+			if (middle - step >= 0) {
+				order[i++] = middle - step;
+			}
+			if ((middle + step < width) && (i < width)) {
+				order[i++] = middle + step;
+			}
+		}
+	}
+
+	// Read a geometry written as width x height, with x and the line length added for other than 4, such as "9x7" or "9x7x5".
+	public static Geometry parse(String text) {
+		String[] parts = text.trim().toLowerCase().split("x");
+		if ((parts.length < 2) || (parts.length > 3)) {
+			throw new IllegalArgumentException("A geometry is written as width x height with an optional line length, such as 9x7 or 9x7x5, not \"" + text + "\"");
+		}
+		try {
+			int connect = (parts.length == 3) ? Integer.parseInt(parts[2]) : 4;
+			return new Geometry(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), connect);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("A geometry is written as width x height with an optional line length, such as 9x7 or 9x7x5, not \"" + text + "\"");
+		}
+	}
+
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	// Pieces in a line needed to win.
+	public int connect() {
+		return connect;
+	}
+
+	public int cells() {
+		return width * height;
+	}
+
+	public int words() {
+		return words;
+	}
+
+	public boolean isStandard() {
+		return (width == Position.WIDTH) && (height == Position.HEIGHT) && (connect == 4);
+	}
+
+	// The first line of each direction, and the number of lines.
+	public int columnLines() {
+		return 0;
+	}
+
+	public int rowLines() {
+		return rowLines;
+	}
+
+	public int upLines() {
+		return upLines;
+	}
+
+	public int downLines() {
+		return downLines;
+	}
+
+	public int lineCount() {
+		return lineCount;
+	}
+
+	// The places in a line and the lines through a place. The arrays are shared, so they must not be changed.
+	public int[] lineCells(int line) {
+		return lineCells[line];
+	}
+
+	public int[] cellLines(int cell) {
+		return cellLines[cell];
+	}
+
+	// A line's mask in one of the longs of a bitboard.
+	public long lineMask(int line, int word) {
+		return lineMasks[line * words + word];
+	}
+
+	// The column tried first, second and so on.
+	public int order(int i) {
+		return order[i];
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Geometry)) {
+			return false;
+		}
+		Geometry geometry = (Geometry)other;
+		return (width == geometry.width) && (height == geometry.height) && (connect == geometry.connect);
+	}
+
+	@Override
+	public int hashCode() {
+		return (width * 31 + height) * 31 + connect;
+	}
+
+	// The geometry in the format parse reads.
+	@Override
+	public String toString() {
+		return width + "x" + height + ((connect != 4) ? "x" + connect : "");
+	}
+
+	// The places in a line starting at x, y and stepping dx, dy.
+	private int[] lineCells(int x, int y, int dx, int dy) {
+		int[] cells = new int[connect];
+		for (int i = 0; i < connect; i++) {
+			cells[i] = (x + i * dx) * height + (y + i * dy);
+		}
+		return cells;
+	}
+}
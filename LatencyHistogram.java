@@ -0,0 +1,111 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 latency histogram
+//
+// Counts how long something took, in nanoseconds, so the percentiles can be reported without keeping every time.
+// Times below 128 are counted exactly. Above that each doubling of time is split into 64 equal buckets, so a percentile is never more
+// than about 1.6% out whatever the size of the time, in the same way as an HDR histogram with two significant figures.
+// Recording a time is a few shifts and an array increment, and never allocates.
+//
+// A histogram must only be recorded into by one thread at a time. Each thread keeps its own and they are added together at the end.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.Arrays;
+
+public class LatencyHistogram {
+	private static final int SUB_BITS = 6;								// 64 buckets for each doubling.
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int EXACT = 2 * SUB_COUNT;						// Times below this have a bucket each.
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long total = 0;
+	private long max = 0;
+
+	// Count one time. Negative times are counted as 0.
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts[bucket(value)]++;
+		count++;
+		total += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	// Add the counts from another histogram into this one.
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	public double mean() {
+		return (count > 0) ? (double)total / count : 0;
+	}
+
+	// The time that the percentage given of the times were at or below, as the top of the bucket it falls in.
+	public long percentile(double percent) {
+		if (count == 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long)Math.ceil(count * percent / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= wanted) {
+				return Math.min(highest(i), max);
+			}
+		}
+		return max;
+	}
+
+	// The percentiles usually reported, in microseconds.
+	public String summary() {
+		return "p50 " + micros(percentile(50)) + " p90 " + micros(percentile(90)) + " p99 " + micros(percentile(99))
+			+ " p99.9 " + micros(percentile(99.9)) + " max " + micros(max) + " us, mean " + micros((long)mean()) + " us";
+	}
+
+	private static String micros(long nanos) {
+		return Float.toString((float)(nanos / 1000.0));
+	}
+
+	// The bucket for a time. Above EXACT the top SUB_BITS+1 bits of the time pick the bucket within its doubling.
+	private static int bucket(long value) {
+		if (value < EXACT) {
+			return (int)value;
+		}
+		int power = 63 - Long.numberOfLeadingZeros(value);
+		int shift = power - SUB_BITS;
+		return (shift * SUB_COUNT) + (int)(value >>> shift);
+	}
+
+	// The highest time that goes in a bucket.
+	private static long highest(int bucket) {
+		if (bucket < EXACT) {
+			return bucket;
+		}
+		int shift = (bucket / SUB_COUNT) - 1;
+		long sub = (bucket % SUB_COUNT) + SUB_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
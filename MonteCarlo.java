@@ -0,0 +1,299 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 Monte Carlo tree search
+//
+// Another way to choose a move instead of the neural network's one move look ahead or the alpha-beta Search. Many games are played
+// out from the position, and a tree of the positions seen is grown towards the moves that win most often (UCT,
+// https://en.wikipedia.org/wiki/Monte_Carlo_tree_search). The move played most often from the root is chosen.
+//
+// Each playout goes down the tree choosing the child with the best win rate plus a bonus for children tried less often, adds the
+// children of the node it reaches, and then plays the game out to the end. A winning move is always taken and a single threat always
+// blocked; otherwise each move of the playout is the neural network's choice (Evaluator.selectMove) GUIDED times in a hundred and a
+// random column the rest of the time, so the playouts are like real games but still vary.
+//
+// All the threads share one tree (tree parallelism). When a thread passes through a node it counts the visit straight away, before
+// the result is known, as if the playout were lost (virtual loss). Other threads then see that node as less promising for the moment
+// and spread out over the tree instead of all following the same path. The result is added when the playout ends.
+//
+// The tree is kept in int arrays made once, rather than as objects, so the garbage collector has nothing to do during a search.
+// A node's children are a block of WIDTH nodes, one per column, taken from the arrays when the node is first expanded. The counts
+// are updated with atomic adds and a block is claimed with a compare-and-set, so no locks are needed. If the arrays fill up, leaves
+// stop being expanded and are played out from instead.
+//
+// A search stops after the number of playouts or the time given, whichever comes first.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MonteCarlo {
+	public static final int GUIDED = 50;						// Playout moves in a hundred chosen by the neural network.
+	private static final double EXPLORATION = 1.0;				// Weight of the bonus for children tried less often.
+	private static final int UNEXPANDED = 0;					// Child block of a node with no children yet. The root is never a child.
+	private static final int EXPANDING = -1;					// Another thread is adding the children.
+	private static final int NO_ROOM = -2;						// The arrays are full, so the node stays a leaf.
+	private static final int CELLS = Position.WIDTH * Position.HEIGHT;
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};	// Middle columns first.
+
+	private final Weights weights;
+	private final ForkJoinPool pool;
+	private final int capacity;
+	private final AtomicIntegerArray visits;					// Playouts through each node, including ones still running.
+	private final AtomicIntegerArray rewards;					// Half points won by the player who moved into the node: 2 a win, 1 a draw.
+	private final AtomicIntegerArray children;					// First node of the child block, or one of the values above.
+	private final AtomicInteger used = new AtomicInteger();
+	private final AtomicLong playouts = new AtomicLong();
+	private final ThreadLocal<Worker> workers;
+
+	private final Position root = new Position();
+	private char rootPlayer;
+	private volatile long limit;								// Playouts to stop at.
+	private volatile long deadline;								// System.nanoTime to stop at.
+	private long nanos = 0;
+
+	// A search with the weightings for the playouts, on the number of threads given (0 for one per core), with room for the number of nodes given.
+	public MonteCarlo(Weights weights, int threads, int nodes) {
+		this.weights = weights;
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		capacity = Math.max(nodes, 1 + Position.WIDTH);
+		visits = new AtomicIntegerArray(capacity);
+		rewards = new AtomicIntegerArray(capacity);
+		children = new AtomicIntegerArray(capacity);
+		workers = ThreadLocal.withInitial(Worker::new);
+	}
+
+	// The move (0 to 6) for the player after the number of playouts or milliseconds given, whichever comes first.
+	// A limit of 0 or less is no limit, but one of the two must be given. -1 is returned if the game is already over.
+	public int bestMove(Position position, char player, long maxPlayouts, long millis) {
+		if ((maxPlayouts <= 0) && (millis <= 0)) {
+			throw new IllegalArgumentException("A number of playouts or a time must be given");
+		}
+		if (position.gameEnded() != ' ') {
+			return -1;
+		}
+		long start = System.nanoTime();
+		root.set(position);
+		rootPlayer = player;
+		visits.set(0, 0);
+		rewards.set(0, 0);
+		children.set(0, UNEXPANDED);
+		used.set(1);
+		playouts.set(0);
+		limit = (maxPlayouts > 0) ? maxPlayouts : Long.MAX_VALUE;
+		deadline = (millis > 0) ? start + millis * 1000000L : Long.MAX_VALUE;
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int t = 0; t < pool.getParallelism(); t++) {
+			tasks.add(() -> {
+				workers.get().run();
+				return null;
+			});
+		}
+		pool.invokeAll(tasks);
+		nanos = System.nanoTime() - start;
+
+		// The most visited move. A move that wins at once has every playout through it won, so it is always the most visited.
+		int best = -1;
+		int block = children.get(0);
+		if (block > 0) {
+			int most = -1;
+			for (int x = 0; x < Position.WIDTH; x++) {
+				if (!position.isFull(x) && (visits.get(block + x) > most)) {
+					most = visits.get(block + x);
+					best = x;
+				}
+			}
+		}
+		if (best < 0) {
+			for (int i = 0; (i < Position.WIDTH) && (best < 0); i++) {
+				best = position.isFull(ORDER[i]) ? -1 : ORDER[i];
+			}
+		}
+		return best;
+	}
+
+	// Playouts and time taken by the last search.
+	public long playouts() {
+		return playouts.get();
+	}
+
+	public long nanos() {
+		return nanos;
+	}
+
+	public long playoutsPerSecond() {
+		return (nanos > 0) ? (long)(playouts.get() * 1e9 / nanos) : 0;
+	}
+
+	// Nodes used by the last search.
+	public int nodes() {
+		return Math.min(used.get(), capacity);
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	// The share of the playouts won through a move of the last search, counting draws as half. Only meaningful once the search is over.
+	public double winRate(int x) {
+		int block = children.get(0);
+		if ((block <= 0) || (visits.get(block + x) == 0)) {
+			return 0;
+		}
+		return rewards.get(block + x) / (2.0 * visits.get(block + x));
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// The arrays one thread uses for its playouts, made once so a playout doesn't allocate.
+	private final class Worker {
+		private final Evaluator evaluator = new Evaluator(weights);
+		private final int[] path = new int[CELLS + 1];
+		private final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId() * 0x9E3779B97F4A7C15L);
+
+		void run() {
+			while ((playouts.get() < limit) && (System.nanoTime() < deadline)) {
+				playout();
+				playouts.incrementAndGet();
+			}
+		}
+
+		// Go down the tree from the root, counting a visit to each node straight away, expand the leaf reached, play the game out
+		// and add the result to every node on the way.
+		private void playout() {
+			evaluator.load(root, weights);
+			Position board = evaluator.position();
+			char player = rootPlayer;
+			int node = 0;
+			int depth = 0;
+			path[depth++] = 0;
+			visits.incrementAndGet(0);
+			char winner = ' ';
+			for (;;) {
+				int block = children.get(node);
+				if (block == UNEXPANDED) {
+					if ((node == 0) || (visits.get(node) > 1)) {
+						block = expand(node);
+					}
+				}
+				if (block <= 0) {
+					break;
+				}
+				int x = select(node, block, board);
+				boolean wins = board.isWinningMove(x, player);
+				evaluator.play(x, player);
+				node = block + x;
+				path[depth++] = node;
+				visits.incrementAndGet(node);
+				player = (player == 'R') ? 'Y' : 'R';
+				if (wins) {
+					winner = (player == 'R') ? 'Y' : 'R';
+					break;
+				}
+				if (board.moveCount() == CELLS) {
+					winner = 'D';
+					break;
+				}
+			}
+			if (winner == ' ') {
+				winner = rollout(player);
+			}
+
+			// The node at each depth was moved into by the player who didn't move next from it.
+			char mover = (player == 'R') ? 'Y' : 'R';
+			for (int i = depth - 1; i >= 0; i--) {
+				int reward = (winner == 'D') ? 1 : (winner == mover) ? 2 : 0;
+				if (reward != 0) {
+					rewards.addAndGet(path[i], reward);
+				}
+				mover = (mover == 'R') ? 'Y' : 'R';
+			}
+		}
+
+		// Claim a block of children for the node, or leave it as a leaf if another thread is doing it or there is no room.
+		private int expand(int node) {
+			if (!children.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+				return children.get(node);
+			}
+			int block = used.getAndAdd(Position.WIDTH);
+			if (block + Position.WIDTH > capacity) {
+				children.set(node, NO_ROOM);
+				return NO_ROOM;
+			}
+			for (int x = 0; x < Position.WIDTH; x++) {
+				visits.set(block + x, 0);
+				rewards.set(block + x, 0);
+				children.set(block + x, UNEXPANDED);
+			}
+			children.set(node, block);
+			return block;
+		}
+
+		// The child with the best win rate plus the exploration bonus. Untried children come first, middle columns first.
+		private int select(int node, int block, Position board) {
+			double logVisits = Math.log(Math.max(visits.get(node), 1));
+			int best = -1;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < Position.WIDTH; i++) {
+				int x = ORDER[i];
+				if (board.isFull(x)) {
+					continue;
+				}
+				int n = visits.get(block + x);
+				if (n == 0) {
+					return x;
+				}
+				double value = rewards.get(block + x) / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+				if (value > bestValue) {
+					bestValue = value;
+					best = x;
+				}
+			}
+			return best;
+		}
+
+		// Play the game out from the evaluator's board and return the winner, or D for a draw.
+		private char rollout(char player) {
+			Position board = evaluator.position();
+			for (;;) {
+				char opponent = (player == 'R') ? 'Y' : 'R';
+				int move;
+				int forced = -1;
+				for (int x = 0; x < Position.WIDTH; x++) {
+					if (!board.isFull(x)) {
+						if (board.isWinningMove(x, player)) {
+							return player;
+						}
+						if (board.isWinningMove(x, opponent)) {
+							forced = x;
+						}
+					}
+				}
+				if (forced >= 0) {
+					move = forced;
+				}
+				else if (random.nextInt(100) < GUIDED) {
+					move = evaluator.selectMove(player);
+				}
+				else {
+					do {
+						move = random.nextInt(Position.WIDTH);
+					} while (board.isFull(move));
+				}
+				evaluator.play(move, player);
+				if (board.moveCount() == CELLS) {
+					return 'D';
+				}
+				player = opponent;
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 move server
+//
+// Keeps the engine running so that other software can ask for moves without starting a new Java program for every move.
+// Each request is one line holding a board string: 6 rows of 7 columns starting from the bottom, with R, Y or a space for each place.
+// Each answer is one line holding the chosen column (1 to 7) followed by the score for each of the 7 columns, separated by spaces.
+// A board that can't be used is answered with a line starting ERROR.
+//
+// Requests can be sent one at a time or many at once. Answers are always in the same order as the requests, and are only flushed
+// when no more requests are waiting, so a batch of requests is answered with one write.
+//
+// The server either reads standard input and writes standard output, or listens on a local TCP port with one virtual thread per connection
+// (a normal thread before Java 21).
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MoveServer {
+	private final Weights weights;		// The weightings used for every move.
+
+	public MoveServer(Weights weights) {
+		this.weights = weights;
+	}
+
+	// Answer requests from standard input on standard output until the input is closed.
+	public void serveConsole() throws IOException {
+		serve(System.in, System.out);
+	}
+
+	// Listen for connections on a local port. Each connection is served on its own virtual thread, so any number can be open at once.
+	public void listen(int port) throws IOException {
+		ExecutorService connections = connectionThreads();
+		try (ServerSocket server = new ServerSocket(port, 256, InetAddress.getLoopbackAddress())) {
+			System.out.println("Move server listening on " + server.getLocalSocketAddress());
+			for (;;) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				connections.submit(() -> {
+					try (socket) {
+						serve(socket.getInputStream(), socket.getOutputStream());
+					}
+					catch (IOException e) {
+						// The client has gone away, which just ends its connection.
+					}
+				});
+			}
+		}
+		finally {
+			connections.shutdown();
+		}
+	}
+
+	// Virtual threads need Java 21, so they are looked up when the server starts. On older versions of Java a normal thread
+	// is started for each connection instead.
+	private static ExecutorService connectionThreads() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	// Answer each line of input with a line of output until the input ends.
+	public void serve(InputStream in, OutputStream out) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), 65536);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 65536);
+		StringBuilder answer = new StringBuilder(160);
+		String request;
+		while ((request = reader.readLine()) != null) {
+			answer.setLength(0);
+			Engine.answer(request, weights, answer);
+			answer.append('\n');
+			writer.append(answer);
+			// Only flush when there are no more requests waiting, so that a batch is answered in one write.
+			if (!reader.ready()) {
+				writer.flush();
+			}
+		}
+		writer.flush();
+	}
+}
@@ -0,0 +1,348 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 network training
+//
+// Trains a NeuralNetwork from the games in a game log, which can be played first with random openings so that the positions vary.
+// Every position in every game becomes a training example: the pieces of the player to move and of the opponent, and the result the
+// player to move went on to get. Each position is also added mirrored, as the game is the same played the other way round.
+//
+// The network is trained by mini-batch gradient descent with the Adam method (https://arxiv.org/abs/1412.6980) to make the output
+// close to the result. Each batch is split into chunks of 32 positions which are worked out at once on all the cores, each chunk
+// adding its gradients into its own array. The arrays are then added up in chunk order, so training gives the same network
+// whatever the number of threads. One game in twenty is kept out of training, with every one of its positions and their mirrored
+// copies, to check that the network does as well on games it hasn't seen. Positions from the same game are alike, so holding back
+// single positions would leave their neighbours and mirrors in training and make the held back error look better than it is.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+public class NetworkTrainer {
+	private static final int CHUNK = 32;				// Positions in each chunk of a batch.
+	private static final double BETA1 = 0.9;			// Adam settings, as recommended in the paper.
+	private static final double BETA2 = 0.999;
+	private static final double EPSILON = 1e-8;
+
+	private final ForkJoinPool pool;
+	private final int endgame;							// Empty places at or below which the solver plays the generated games.
+	private long[] own = new long[1 << 16];				// The training positions: the pieces of the player to move,
+	private long[] opponent = new long[1 << 16];		// the opponent's pieces,
+	private float[] result = new float[1 << 16];		// and the result for the player to move.
+	private int positions = 0;
+	private int[] gameStarts = new int[1 << 12];		// The first position of each game, whose positions are all together.
+	private int games = 0;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public NetworkTrainer(int threads) {
+		this(threads, Solver.ENDGAME);
+	}
+
+	// The same, with the solver playing the generated games once endgame places or fewer are empty, 0 for never.
+	public NetworkTrainer(int threads, int endgame) {
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		this.endgame = endgame;
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	public int positions() {
+		return positions;
+	}
+
+	// Play games between the weightings given with the first plies moves at random, on all the cores, and add them to a log.
+	// Each game has its own random stream from the seed, so the same games are played whatever the number of threads.
+	public void generate(GameLog.Writer log, Weights weights, int games, int plies, long seed) {
+		ThreadLocal<SelfPlay> selfPlays = ThreadLocal.withInitial(() -> {
+			SelfPlay selfPlay = new SelfPlay(endgame);
+			selfPlay.recordGames(log);
+			return selfPlay;
+		});
+		Parallel.forEach(pool, 0, games, g ->
+			selfPlays.get().playRandomOpening(weights, weights, (g % 2 == 0) ? 'R' : 'Y', plies, new SplittableRandom(seed + g)));
+	}
+
+	// Replay every game in a log and add its positions. The number of games is returned.
+	public long load(Path logFile) throws IOException {
+		try (GameLog.Reader reader = GameLog.read(logFile)) {
+			GameLog.Game game;
+			while ((game = reader.next()) != null) {
+				if (games == gameStarts.length) {
+					gameStarts = Arrays.copyOf(gameStarts, games * 2);
+				}
+				gameStarts[games++] = positions;
+				long red = 0;
+				long yellow = 0;
+				char player = game.first();
+				for (int i = 0; i < game.moveCount(); i++) {
+					float score = (game.winner() == 'D') ? 0 : (game.winner() == player) ? 1 : -1;
+					long mover = (player == 'R') ? red : yellow;
+					long other = (player == 'R') ? yellow : red;
+					add(mover, other, score);
+					add(Position.mirror(mover), Position.mirror(other), score);
+					long bit = Position.bit(game.move(i), Long.bitCount((red | yellow) & Position.columnMask(game.move(i))));
+					if (player == 'R') {
+						red |= bit;
+					}
+					else {
+						yellow |= bit;
+					}
+					player = (player == 'R') ? 'Y' : 'R';
+				}
+			}
+			return reader.games();
+		}
+	}
+
+	// Train for a number of passes through the positions, with the batch size and learning rate given, printing the error after each pass.
+	public void train(NeuralNetwork network, int epochs, int batch, double rate, long seed) {
+		// Pick the games to hold back, then put the positions of the others first in the order and the held back ones last.
+		int[] gameOrder = new int[games];
+		for (int g = 0; g < games; g++) {
+			gameOrder[g] = g;
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		shuffle(gameOrder, games, random);
+		boolean[] heldGames = new boolean[games];
+		for (int g = games - games / 20; g < games; g++) {
+			heldGames[gameOrder[g]] = true;
+		}
+		int held = 0;
+		for (int g = 0; g < games; g++) {
+			if (heldGames[g]) {
+				held += gameEnd(g) - gameStarts[g];
+			}
+		}
+		int training = positions - held;
+		int[] order = new int[positions];
+		int trained = 0;
+		int kept = training;
+		for (int g = 0; g < games; g++) {
+			for (int p = gameStarts[g]; p < gameEnd(g); p++) {
+				order[heldGames[g] ? kept++ : trained++] = p;
+			}
+		}
+
+		int size = network.size();
+		int chunks = (batch + CHUNK - 1) / CHUNK;
+		float[][] gradients = new float[chunks][size];
+		double[] losses = new double[chunks];
+		float[] total = new float[size];
+		float[] mean = new float[size];					// Adam's running averages of the gradient and of its square.
+		float[] square = new float[size];
+		ThreadLocal<Work> works = ThreadLocal.withInitial(() -> new Work(network));
+		long step = 0;
+
+		System.out.println(training + " training positions, " + held + " held back from " + (games / 20) + " games, " + size + " weights, on " + threads() + " threads");
+		System.out.println("Before training, held back error " + (float)error(network, order, training, positions, works));
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			long start = System.nanoTime();
+			shuffle(order, training, random);
+			double trainingLoss = 0;
+			for (int first = 0; first < training; first += batch) {
+				int last = Math.min(training, first + batch);
+				int from = first;
+				int used = (last - first + CHUNK - 1) / CHUNK;
+				Parallel.forEach(pool, 0, used, c -> {
+					Arrays.fill(gradients[c], 0);
+					losses[c] = works.get().gradient(order, from + c * CHUNK, Math.min(last, from + (c + 1) * CHUNK), gradients[c]);
+				});
+				Arrays.fill(total, 0);
+				for (int c = 0; c < used; c++) {
+					trainingLoss += losses[c];
+					float[] gradient = gradients[c];
+					for (int i = 0; i < size; i++) {
+						total[i] += gradient[i];
+					}
+				}
+				step++;
+				adam(network, total, 1.0f / (last - first), mean, square, rate, step);
+			}
+			System.out.println("Epoch " + (epoch + 1) + " training error " + (float)(trainingLoss / training) + " held back error "
+				+ (float)error(network, order, training, positions, works) + " in " + (float)((System.nanoTime() - start) / 1e9) + " seconds");
+		}
+	}
+
+	// Stop the threads once training is finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Play the network against a set of weightings with both colours, opening in each column with each player going first, and return
+	// the network's wins, losses and draws. The solver plays both sides at the end of the game, as in SelfPlay.
+	public static int[] match(NeuralNetwork network, Weights weights) {
+		return match(network, weights, Solver.ENDGAME);
+	}
+
+	// The same, with the solver playing once endgame places or fewer are empty, 0 for never.
+	public static int[] match(NeuralNetwork network, Weights weights, int endgame) {
+		int[] results = new int[3];
+		Evaluator evaluator = new Evaluator(weights);
+		Solver solver = new Solver();
+		for (int game = 0; game < 28; game++) {
+			char networkPlays = (game < 14) ? 'R' : 'Y';
+			char player = (game % 2 == 1) ? 'Y' : 'R';
+			evaluator.reset(weights);
+			Position position = evaluator.position();
+			evaluator.play((game / 2) % 7, player);
+			player = (player == 'R') ? 'Y' : 'R';
+			while (position.gameEnded() == ' ') {
+				int move;
+				if ((Position.WIDTH * Position.HEIGHT) - position.moveCount() <= endgame) {
+					move = solver.bestMove(position, player);
+				}
+				else if (player == networkPlays) {
+					move = network.selectMove(position, player);
+				}
+				else {
+					move = evaluator.selectMove(player);
+				}
+				evaluator.play(move, player);
+				player = (player == 'R') ? 'Y' : 'R';
+			}
+			char winner = position.gameEnded();
+			results[(winner == networkPlays) ? 0 : (winner == 'D') ? 2 : 1]++;
+		}
+		return results;
+	}
+
+	// The position after the last one of a game.
+	private int gameEnd(int game) {
+		return (game + 1 < games) ? gameStarts[game + 1] : positions;
+	}
+
+	private void add(long mover, long other, float score) {
+		if (positions == own.length) {
+			own = Arrays.copyOf(own, positions * 2);
+			opponent = Arrays.copyOf(opponent, positions * 2);
+			result = Arrays.copyOf(result, positions * 2);
+		}
+		own[positions] = mover;
+		opponent[positions] = other;
+		result[positions] = score;
+		positions++;
+	}
+
+	// The mean squared error over the positions from 'from' up to 'to' in the order, worked out in chunks on all the cores.
+	private double error(NeuralNetwork network, int[] order, int from, int to, ThreadLocal<Work> works) {
+		int chunks = (to - from + CHUNK - 1) / CHUNK;
+		double[] errors = new double[chunks];
+		Parallel.forEach(pool, 0, chunks, c -> errors[c] = works.get().error(order, from + c * CHUNK, Math.min(to, from + (c + 1) * CHUNK)));
+		double sum = 0;
+		for (double e : errors) {
+			sum += e;
+		}
+		return (to > from) ? sum / (to - from) : 0;
+	}
+
+	// One Adam step over every weight, with the gradient total scaled to the batch mean.
+	private static void adam(NeuralNetwork network, float[] total, float scale, float[] mean, float[] square, double rate, long step) {
+		double rate1 = rate * Math.sqrt(1 - Math.pow(BETA2, step)) / (1 - Math.pow(BETA1, step));
+		int at = 0;
+		for (float[] weights : new float[][] {network.weights1, network.bias1, network.weights2, network.bias2, network.weights3, network.bias3}) {
+			for (int i = 0; i < weights.length; i++, at++) {
+				float g = total[at] * scale;
+				mean[at] = (float)(BETA1 * mean[at] + (1 - BETA1) * g);
+				square[at] = (float)(BETA2 * square[at] + (1 - BETA2) * g * g);
+				weights[i] -= (float)(rate1 * mean[at] / (Math.sqrt(square[at]) + EPSILON));
+			}
+		}
+	}
+
+	private static void shuffle(int[] order, int count, SplittableRandom random) {
+		for (int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+	}
+
+	// The arrays one thread uses for back propagation, with its own copy of the network for the layer outputs.
+	private final class Work {
+		private final NeuralNetwork network;
+		private final float[] delta1;
+		private final float[] delta2;
+		private final int bias1;				// Where each layer's weights start in a gradient array, in the same order as NeuralNetwork.save.
+		private final int weights2;
+		private final int bias2;
+		private final int weights3;
+		private final int bias3;
+
+		Work(NeuralNetwork shared) {
+			network = shared.copy();
+			delta1 = new float[network.hidden1];
+			delta2 = new float[network.hidden2];
+			bias1 = network.weights1.length;
+			weights2 = bias1 + network.bias1.length;
+			bias2 = weights2 + network.weights2.length;
+			weights3 = bias2 + network.bias2.length;
+			bias3 = weights3 + network.weights3.length;
+		}
+
+		// Add the gradient of half the squared error for each position into the gradient array, and return the total squared error.
+		double gradient(int[] order, int from, int to, float[] gradient) {
+			int hidden1 = network.hidden1;
+			int hidden2 = network.hidden2;
+			float[] layer1 = network.layer1();
+			float[] layer2 = network.layer2();
+			double loss = 0;
+			for (int k = from; k < to; k++) {
+				int p = order[k];
+				float output = (float)Math.tanh(network.output(own[p], opponent[p]));
+				float difference = output - result[p];
+				loss += difference * difference;
+				float delta = difference * (1 - output * output);
+				gradient[bias3] += delta;
+				for (int j = 0; j < hidden2; j++) {
+					gradient[weights3 + j] += delta * layer2[j];
+					delta2[j] = (layer2[j] > 0) ? delta * network.weights3[j] : 0;
+					gradient[bias2 + j] += delta2[j];
+				}
+				for (int i = 0; i < hidden1; i++) {
+					float a = layer1[i];
+					float sum = 0;
+					if (a > 0) {
+						int row = i * hidden2;
+						for (int j = 0; j < hidden2; j++) {
+							gradient[weights2 + row + j] += a * delta2[j];
+							sum += network.weights2[row + j] * delta2[j];
+						}
+					}
+					delta1[i] = sum;
+					gradient[bias1 + i] += sum;
+				}
+				addPlaces(own[p], 0, gradient);
+				addPlaces(opponent[p], NeuralNetwork.CELLS, gradient);
+			}
+			return loss;
+		}
+
+		// The total squared error for the positions.
+		double error(int[] order, int from, int to) {
+			double sum = 0;
+			for (int k = from; k < to; k++) {
+				int p = order[k];
+				float difference = network.value(own[p], opponent[p]) - result[p];
+				sum += difference * difference;
+			}
+			return sum;
+		}
+
+		private void addPlaces(long pieces, int first, float[] gradient) {
+			int hidden1 = network.hidden1;
+			while (pieces != 0) {
+				int bit = Long.numberOfTrailingZeros(pieces);
+				pieces &= pieces - 1;
+				int row = (first + NeuralNetwork.input(bit)) * hidden1;
+				for (int i = 0; i < hidden1; i++) {
+					gradient[row + i] += delta1[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 trained neural network
+//
+// A small multilayer network that scores a position, as an alternative to the fixed formulas of Evaluator. It is trained from self
+// play games by NetworkTrainer rather than tuned by hand.
+//
+// There are 84 inputs: for each of the 42 places, one that is 1 if the player to move has a piece there and one that is 1 if the
+// opponent does. Two hidden layers of rectified linear units follow, then one output through tanh, which is the expected result of
+// the game for the player to move: 1 for a win, -1 for a loss and 0 for a draw.
+// Only the inputs for places that have been played are 1, so the first layer adds up the weights of those places and skips the rest.
+//
+// To choose a move it takes a win if there is one, blocks the opponent's win if it must, and otherwise plays the move that leaves the
+// opponent with the lowest score. Scoring a move works on arrays made when the network is, so choosing a move doesn't allocate.
+// A network must only be used by one thread at a time. copy() gives another that shares the same weights.
+//
+// The weights are saved as floats after a 24 byte header: MAGIC, VERSION, the three layer sizes and a spare int.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+public class NeuralNetwork {
+	public static final String FILE = "Connect4.net";
+	public static final int MAGIC = 0x43344E4E;			// "C4NN"
+	public static final int VERSION = 1;
+	public static final int CELLS = Position.WIDTH * Position.HEIGHT;
+	public static final int INPUTS = 2 * CELLS;
+	private static final int HEADER = 24;
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};	// Middle columns first when scores are equal.
+
+	final int hidden1;
+	final int hidden2;
+	final float[] weights1;						// INPUTS by hidden1, input by input, so a played place is one run of hidden1 weights.
+	final float[] bias1;
+	final float[] weights2;						// hidden1 by hidden2, first layer unit by unit.
+	final float[] bias2;
+	final float[] weights3;						// hidden2 weights into the output.
+	final float[] bias3;
+
+	private final float[] layer1;				// Outputs of each layer for the position being scored.
+	private final float[] layer2;
+
+	// A network with every weight 0. Training starts from random().
+	public NeuralNetwork(int hidden1, int hidden2) {
+		this(hidden1, hidden2, new float[INPUTS * hidden1], new float[hidden1], new float[hidden1 * hidden2], new float[hidden2], new float[hidden2], new float[1]);
+	}
+
+	private NeuralNetwork(int hidden1, int hidden2, float[] weights1, float[] bias1, float[] weights2, float[] bias2, float[] weights3, float[] bias3) {
+		this.hidden1 = hidden1;
+		this.hidden2 = hidden2;
+		this.weights1 = weights1;
+		this.bias1 = bias1;
+		this.weights2 = weights2;
+		this.bias2 = bias2;
+		this.weights3 = weights3;
+		this.bias3 = bias3;
+		layer1 = new float[hidden1];
+		layer2 = new float[hidden2];
+	}
+
+	// A network with small random weights, scaled for rectified units (He initialisation).
+	public static NeuralNetwork random(int hidden1, int hidden2, long seed) {
+		NeuralNetwork network = new NeuralNetwork(hidden1, hidden2);
+		SplittableRandom random = new SplittableRandom(seed);
+		fill(network.weights1, random, Math.sqrt(2.0 / CELLS));		// About half the places are played, so about CELLS inputs are 1.
+		fill(network.weights2, random, Math.sqrt(2.0 / hidden1));
+		fill(network.weights3, random, Math.sqrt(1.0 / hidden2));
+		return network;
+	}
+
+	// Another network for a different thread, sharing these weights.
+	public NeuralNetwork copy() {
+		return new NeuralNetwork(hidden1, hidden2, weights1, bias1, weights2, bias2, weights3, bias3);
+	}
+
+	// Total number of weights and biases.
+	public int size() {
+		return weights1.length + bias1.length + weights2.length + bias2.length + weights3.length + bias3.length;
+	}
+
+	// The expected result, -1 to 1, for the player whose pieces are own, with the opponent's pieces given.
+	public float value(long own, long opponent) {
+		return (float)Math.tanh(output(own, opponent));
+	}
+
+	// The output before tanh, leaving the layer outputs in layer1 and layer2 for training.
+	float output(long own, long opponent) {
+		System.arraycopy(bias1, 0, layer1, 0, hidden1);
+		addPlaces(own, 0);
+		addPlaces(opponent, CELLS);
+		for (int i = 0; i < hidden1; i++) {
+			layer1[i] = Math.max(layer1[i], 0);
+		}
+		System.arraycopy(bias2, 0, layer2, 0, hidden2);
+		for (int i = 0; i < hidden1; i++) {
+			float a = layer1[i];
+			if (a != 0) {
+				int row = i * hidden2;
+				for (int j = 0; j < hidden2; j++) {
+					layer2[j] += a * weights2[row + j];
+				}
+			}
+		}
+		float sum = bias3[0];
+		for (int j = 0; j < hidden2; j++) {
+			layer2[j] = Math.max(layer2[j], 0);
+			sum += layer2[j] * weights3[j];
+		}
+		return sum;
+	}
+
+	float[] layer1() {
+		return layer1;
+	}
+
+	float[] layer2() {
+		return layer2;
+	}
+
+	// Add the first layer weights of every place that is set, going through the set bits only.
+	private void addPlaces(long pieces, int first) {
+		while (pieces != 0) {
+			int bit = Long.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+			int row = (first + input(bit)) * hidden1;
+			for (int i = 0; i < hidden1; i++) {
+				layer1[i] += weights1[row + i];
+			}
+		}
+	}
+
+	// The input number (0 to 41) for a bit of the bitboard, skipping the spare bit at the top of each column.
+	static int input(int bit) {
+		return (bit / Position.H1) * Position.HEIGHT + (bit % Position.H1);
+	}
+
+	// The move (0 to 6) for the player. The position isn't changed. -1 is returned if the board is full.
+	public int selectMove(Position position, char player) {
+		char opponent = (player == 'R') ? 'Y' : 'R';
+		long own = (player == 'R') ? position.red() : position.yellow();
+		long other = (player == 'R') ? position.yellow() : position.red();
+		int block = -1;
+		for (int x = 0; x < Position.WIDTH; x++) {
+			if (!position.isFull(x)) {
+				if (position.isWinningMove(x, player)) {
+					return x;
+				}
+				if (position.isWinningMove(x, opponent)) {
+					block = x;
+				}
+			}
+		}
+		if (block >= 0) {
+			return block;
+		}
+		int best = -1;
+		float bestScore = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < Position.WIDTH; i++) {
+			int x = ORDER[i];
+			if (!position.isFull(x)) {
+				float score = -value(other, own | Position.bit(x, position.nextRow(x)));
+				if (score > bestScore) {
+					bestScore = score;
+					best = x;
+				}
+			}
+		}
+		return best;
+	}
+
+	// Write the network to a file, replacing it by renaming a finished copy so a reader never sees half a file.
+	public void save(Path file) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(HEADER + 4 * size());
+		bytes.putInt(MAGIC).putInt(VERSION).putInt(INPUTS).putInt(hidden1).putInt(hidden2).putInt(0);
+		FloatBuffer floats = bytes.asFloatBuffer();
+		floats.put(weights1).put(bias1).put(weights2).put(bias2).put(weights3).put(bias3);
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporary, bytes.array());
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Read a network written by save.
+	public static NeuralNetwork load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if ((bytes.remaining() < HEADER) || (bytes.getInt() != MAGIC)) {
+				throw new IOException("Not a network file");
+			}
+			int version = bytes.getInt();
+			if (version != VERSION) {
+				throw new IOException("Network file version " + version + " can't be read, only version " + VERSION);
+			}
+			int inputs = bytes.getInt();
+			int hidden1 = bytes.getInt();
+			int hidden2 = bytes.getInt();
+			bytes.getInt();
+			if ((inputs != INPUTS) || (hidden1 < 1) || (hidden2 < 1) || (hidden1 > 4096) || (hidden2 > 4096)) {
+				throw new IOException("Network file has the wrong layer sizes");
+			}
+			NeuralNetwork network = new NeuralNetwork(hidden1, hidden2);
+			if (bytes.remaining() != 4L * network.size()) {
+				throw new IOException("Network file is the wrong length");
+			}
+			FloatBuffer floats = bytes.asFloatBuffer();
+			floats.get(network.weights1).get(network.bias1).get(network.weights2).get(network.bias2).get(network.weights3).get(network.bias3);
+			return network;
+		}
+	}
+
+	// Read a network for the game, or return null with a message if the file is missing or can't be used.
+	public static NeuralNetwork open(Path file) {
+		try {
+			return load(file);
+		}
+		catch (NoSuchFileException e) {
+			System.err.println("No network " + file + ", the game will use the standard evaluation");
+		}
+		catch (IOException e) {
+			System.err.println("Network " + file + " not used: " + e.getMessage());
+		}
+		return null;
+	}
+
+	private static void fill(float[] weights, SplittableRandom random, double scale) {
+		for (int i = 0; i < weights.length; i++) {
+			double u = 1.0 - random.nextDouble();
+			double v = random.nextDouble();
+			weights[i] = (float)(Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v) * scale);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 opening book
+//
+// Every game starts from the same few positions, so the moves for the first few plies are worked out once, by searching each position,
+// and saved in a book file. The game then looks them up instead of working them out again.
+//
+// A position and its reflection left to right have the same best move reflected, so only one of each pair is saved: the one with the
+// smaller key. Each position is saved with the player to move, as red and yellow can both start.
+//
+// The file is a header followed by the positions sorted by key, 12 bytes each, so it can be memory-mapped and searched by halving:
+//     header   int magic "C4BK", int version, int plies, int depth, long weightings fingerprint, int positions, int spare
+//     entry    long key << 3 | best move, float score
+// The key is Position.key, with bit 49 set when red is to move. The fingerprint spots a book made with other weightings,
+// which is then not used.
+//
+// A new book is written to a .tmp file and then moved over the old one in one step, so the game never maps a half written book.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+public class OpeningBook {
+	public static final String FILE = "Connect4.book";		// Default book file, in the current directory.
+	private static final int MAGIC = 0x4334424B;			// "C4BK"
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;					// Bytes before the first entry.
+	private static final int ENTRY = 12;					// Bytes in each entry.
+	private static final long RED_TO_MOVE = 1L << 49;		// Added to the position key, which only uses 49 bits.
+
+	private final MappedByteBuffer entries;
+	private final int plies;
+	private final int depth;
+	private final int size;
+
+	private OpeningBook(MappedByteBuffer entries, int plies, int depth, int size) {
+		this.entries = entries;
+		this.plies = plies;
+		this.depth = depth;
+		this.size = size;
+	}
+
+	// Memory-map a book file for use with the weightings given. If the file is missing, damaged or was made with other weightings
+	// the reason is printed and null is returned, and the moves are then worked out as usual.
+	public static OpeningBook open(Path file, Weights weights) {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if ((buffer.capacity() < HEADER) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+				System.err.println("Opening book " + file + " is not a book file, so it is not used");
+				return null;
+			}
+			int size = buffer.getInt(24);
+			if (buffer.capacity() != HEADER + ((long)size * ENTRY)) {
+				System.err.println("Opening book " + file + " is the wrong length, so it is not used");
+				return null;
+			}
+			if (buffer.getLong(16) != weights.fingerprint()) {
+				System.err.println("Opening book " + file + " was made with different weightings, so it is not used");
+				return null;
+			}
+			return new OpeningBook(buffer, buffer.getInt(8), buffer.getInt(12), size);
+		}
+		catch (IOException e) {
+			System.err.println("Opening book " + file + " can't be read: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// The book move (0 to 6) for the player in the position, or -1 if the position isn't in the book.
+	public int move(Position position, char player) {
+		if (position.moveCount() >= plies) {
+			return -1;
+		}
+		long key = bookKey(position, player);
+		long wanted = Position.canonicalKey(key);
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long entry = entries.getLong(HEADER + (middle * ENTRY));
+			long found = entry >>> 3;
+			if (found < wanted) {
+				low = middle + 1;
+			}
+			else if (found > wanted) {
+				high = middle - 1;
+			}
+			else {
+				int move = (int)(entry & 7);
+				return (wanted == key) ? move : Position.mirrorMove(move);
+			}
+		}
+		return -1;
+	}
+
+	// Positions with fewer pieces than this are in the book.
+	public int plies() {
+		return plies;
+	}
+
+	// The search depth used to make the book.
+	public int depth() {
+		return depth;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Make a book of every position with fewer than plies pieces, searched depth moves ahead, on the number of threads given
+	// (0 for one per core). Positions that are already won are left out. The file is replaced in one step once the book is written.
+	public static void generate(Path file, Weights weights, int plies, int depth, int threads) throws IOException {
+		// Find every position, keeping only the smaller of each position and its reflection.
+		List<Position> positions = new ArrayList<>();
+		List<Character> players = new ArrayList<>();
+		Set<Long> seen = new HashSet<>();
+		enumerate(new Position(), 'R', plies, seen, positions, players);
+		enumerate(new Position(), 'Y', plies, seen, positions, players);
+		System.out.println(positions.size() + " positions with fewer than " + plies + " pieces");
+
+		// Search them all, sharing one transposition table.
+		long[] keys = new long[positions.size()];
+		float[] scores = new float[positions.size()];
+		TranspositionTable table = new TranspositionTable(256);
+		ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(weights, table));
+		ForkJoinPool pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		try {
+			Parallel.forEach(pool, 0, positions.size(), i -> {
+				Search search = searches.get();
+				char player = players.get(i);
+				int move = search.bestMove(positions.get(i), player, depth);
+				keys[i] = (bookKey(positions.get(i), player) << 3) | move;
+				scores[i] = (float)search.score();
+			});
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		// Sort by key, keeping each score with its key, and write the book next to the file before moving it into place.
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(plies).putInt(depth).putLong(weights.fingerprint()).putInt(keys.length).putInt(0);
+			for (int i = 0; i < order.length; i++) {
+				if (buffer.remaining() < ENTRY) {
+					write(channel, buffer);
+				}
+				buffer.putLong(keys[order[i]]).putFloat(scores[order[i]]);
+			}
+			write(channel, buffer);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		System.out.println(table.statistics());
+	}
+
+	// Add the position and every position after it with fewer than plies pieces. Only positions whose key, or their reflection's key,
+	// hasn't been seen are added, so positions reached by different orders of moves are only searched once.
+	private static void enumerate(Position position, char player, int plies, Set<Long> seen, List<Position> positions, List<Character> players) {
+		if ((position.moveCount() >= plies) || (position.gameEnded() != ' ')) {
+			return;
+		}
+		long key = bookKey(position, player);
+		long canonical = Position.canonicalKey(key);
+		if (!seen.add(canonical)) {
+			return;
+		}
+		positions.add((canonical == key) ? new Position(position) : position.mirror());
+		players.add(player);
+		char opponent = (player == 'R') ? 'Y' : 'R';
+		for (int x = 0; x < Position.WIDTH; x++) {
+			if (position.play(x, player) >= 0) {
+				enumerate(position, opponent, plies, seen, positions, players);
+				position.undo(x);
+			}
+		}
+	}
+
+	private static long bookKey(Position position, char player) {
+		return (player == 'R') ? (position.key() | RED_TO_MOVE) : position.key();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,207 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 parallel optimisation
+//
+// The same optimisation as Connect4.optimiseWeightings, spread over all the cores.
+// Each trial set of weightings plays 14 games against the default weightings, and if it wins by a margin it plays 14 games against the
+// current weightings, which it replaces if it wins by a margin again.
+//
+// The first match doesn't depend on the current weightings, so every game of every trial in a block is played at once.
+// The second matches are played for all the trials that passed, against the current weightings at the time. They are then
+// checked in trial order, and when one is adopted the matches for the trials after it are played again against the new weightings.
+// Each trial draws its weightings from its own split random stream, and the games themselves have no random element,
+// so a seed gives the same decisions in the same order whatever the number of threads.
+//
+// The games can be played by workers on other machines through a Coordinator instead of on this machine's threads, with the same results.
+// If a checkpoint file is given, a Checkpoint is saved after every block, and resume carries a stopped run on from the last one.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+
+public class Optimiser {
+	public static final int GAMES = 14;				// Games in each match, the same as optimiseWeightings.
+	private static final int BLOCK = 1024;			// Trials handled together, which limits the memory used for game results.
+
+	private final ForkJoinPool pool;
+	private final int endgame;					// Empty places at or below which the solver plays, kept in the checkpoint.
+	private GameLog.Writer log = null;
+	private String logName = null;				// The game log's file name, kept in the checkpoint.
+	private Path checkpoint = null;
+	private Coordinator coordinator = null;		// Plays the games on workers, if given.
+	private final ThreadLocal<SelfPlay> selfPlays;		// Each thread plays its games on its own boards.
+	private long gamesPlayed = 0;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public Optimiser(int threads) {
+		this(threads, Solver.ENDGAME);
+	}
+
+	// The same, with the solver playing once endgame places or fewer are empty, 0 for never.
+	public Optimiser(int threads, int endgame) {
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		this.endgame = endgame;
+		selfPlays = ThreadLocal.withInitial(() -> {
+			SelfPlay selfPlay = new SelfPlay(endgame);
+			selfPlay.recordGames(log);
+			return selfPlay;
+		});
+	}
+
+	public int endgame() {
+		return endgame;
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	// Add every game to a game log. This must be set before optimisation starts.
+	public void recordGames(GameLog.Writer log) {
+		this.log = log;
+	}
+
+	// Save a checkpoint to a file after every block, naming the game log being written, if any, so a resumed run adds to it.
+	public void checkpointTo(Path file, String logFile) {
+		checkpoint = file;
+		logName = logFile;
+	}
+
+	// Play every game on the workers connected to a coordinator instead of on this machine. Games played there aren't added to the game log.
+	// The coordinator must give its workers the same endgame as this optimiser.
+	public void distributeTo(Coordinator coordinator) {
+		if (coordinator.endgame() != endgame) {
+			throw new IllegalArgumentException("The coordinator's workers use the solver from " + coordinator.endgame() + " empty places, not " + endgame);
+		}
+		this.coordinator = coordinator;
+	}
+
+	// Number of games played so far, including any played again after a trial was adopted.
+	public long gamesPlayed() {
+		return gamesPlayed;
+	}
+
+	// Run the optimisation for a number of trials and return the weightings it ends with. Adopted weightings are printed as they are found.
+	public Weights optimise(int trials, long seed) {
+		return optimise(trials, seed, 0, Weights.DEFAULT, new ArrayList<>());
+	}
+
+	// Carry on a run from a checkpoint it saved. The adoptions before the checkpoint are printed again first.
+	public Weights resume(Checkpoint saved) {
+		List<String> adopted = new ArrayList<>();
+		for (String line : saved.adopted()) {
+			adopted.add(line);
+			System.out.println(line);
+		}
+		return optimise(saved.trials(), saved.seed(), saved.next(), saved.weights(), adopted);
+	}
+
+	// Stop the threads once optimisation is finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private Weights optimise(int trials, long seed, int done, Weights current, List<String> adopted) {
+		// Each trial splits one stream from the seed, so the streams of the trials already done are split off again and thrown away.
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < done; i++) {
+			random.split();
+		}
+
+		for (int start = done; start < trials; start += BLOCK) {
+			Weights[] newWeights = new Weights[Math.min(BLOCK, trials - start)];
+			for (int i = 0; i < newWeights.length; i++) {
+				newWeights[i] = trialWeights(random.split());
+			}
+
+			// Red plays the default weightings, Yellow plays the new ones.
+			char[] first = playGames(newWeights.length * GAMES, g -> Weights.DEFAULT, g -> newWeights[g / GAMES]);
+			gamesPlayed += first.length;
+
+			// Only bother if there is a noticeable difference.
+			List<Integer> passed = new ArrayList<>();
+			for (int i = 0; i < newWeights.length; i++) {
+				SelfPlay.Result result = tally(first, i);
+				if (result.yellowWins > (result.redWins + 2)) {
+					passed.add(i);
+				}
+			}
+
+			// Red plays current weightings, yellow plays the new ones.
+			int next = 0;
+			while (next < passed.size()) {
+				Weights against = current;
+				int from = next;
+				char[] second = playGames((passed.size() - from) * GAMES, g -> against, g -> newWeights[passed.get(from + g / GAMES)]);
+				gamesPlayed += second.length;
+				next = passed.size();
+				for (int i = 0; i < passed.size() - from; i++) {
+					SelfPlay.Result result = tally(second, i);
+					if (result.yellowWins > (result.redWins + 2)) {
+						// Later trials were played against the old weightings, so they are played again against the new ones.
+						current = newWeights[passed.get(from + i)];
+						String line = (start + passed.get(from + i)) + " R " + result.redWins + " Y " + result.yellowWins + " " + current;
+						adopted.add(line);
+						System.out.println(line);
+						next = from + i + 1;
+						break;
+					}
+				}
+			}
+			if (checkpoint != null) {
+				saveCheckpoint(new Checkpoint('P', trials, start + newWeights.length, seed, start + newWeights.length, endgame, current, logName, adopted.toArray(new String[0])));
+			}
+		}
+		return current;
+	}
+
+	// Play a number of games, game g being number g % GAMES of a match between the red and yellow weightings for g, and return the winners.
+	private char[] playGames(int count, IntFunction<Weights> red, IntFunction<Weights> yellow) {
+		if (coordinator != null) {
+			return coordinator.play(count, red, yellow, g -> g % GAMES);
+		}
+		char[] winners = new char[count];
+		Parallel.forEach(pool, 0, count, g -> winners[g] = selfPlays.get().playGame(red.apply(g), yellow.apply(g), g % GAMES));
+		return winners;
+	}
+
+	// The games are written to the log before the checkpoint, so the log holds every game the checkpoint counts, and the checkpoint keeps
+	// the log's length then. A checkpoint that can't be saved is reported and the run goes on, as it can still finish.
+	private void saveCheckpoint(Checkpoint saved) {
+		try {
+			if (log != null) {
+				log.flush();
+				saved = saved.withLogLength(log.length());
+			}
+			saved.save(checkpoint);
+		}
+		catch (IOException e) {
+			System.err.println("Unable to save the checkpoint: " + e.getMessage());
+		}
+	}
+
+	// Trial weightings, drawn the same way as optimiseWeightings.
+	private static Weights trialWeights(SplittableRandom random) {
+		double horizontal = random.nextDouble() * 1.5 + 0.51;	// 0.5 to 2.0
+		double vertical = random.nextDouble() * 1.5 + 0.51;		// 0.5 to 2.0
+		return new Weights(Weights.PIECESDEFAULT, horizontal, vertical, Weights.DIAGONALDEFAULT, Weights.OPPNTMOVEDEFAULT, Weights.NEXTMOVEDEFAULT);
+	}
+
+	// Count the results of one match from an array holding the winners of several matches.
+	private static SelfPlay.Result tally(char[] winners, int match) {
+		int Ywin = 0;
+		int Rwin = 0;
+		int Draw = 0;
+		for (int z = match * GAMES; z < (match + 1) * GAMES; z++) {
+			if (winners[z] == 'Y') { Ywin++; }
+			if (winners[z] == 'R') { Rwin++; }
+			if (winners[z] == 'D') { Draw++; }
+		}
+		return new SelfPlay.Result(Rwin, Ywin, Draw);
+	}
+}
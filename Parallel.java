@@ -0,0 +1,47 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 parallel loops
+//
+// Runs the body of a loop for every index in a range on a fork-join pool. The range is split in half until single indexes are left,
+// so idle threads can steal the other halves and all the cores stay busy even when some games take longer than others.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+public final class Parallel {
+	private Parallel() {
+	}
+
+	// Run body for every index from 'from' up to but not including 'to', and wait for them all to finish.
+	public static void forEach(ForkJoinPool pool, int from, int to, IntConsumer body) {
+		if (from < to) {
+			pool.invoke(new Range(from, to, body));
+		}
+	}
+
+	private static final class Range extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final IntConsumer body;
+
+		Range(int from, int to, IntConsumer body) {
+			this.from = from;
+			this.to = to;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				body.accept(from);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Range(from, middle, body), new Range(middle, to, body));
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 pondering
+//
+// The computer's player for the console game when it searches several moves ahead, which thinks about its reply during the human's turn
+// instead of sitting idle. When the human is to move, the reply to each move they could make, at most one per column, is worked out on
+// background threads. When the human moves, the reply for that move is used at once if it is finished, or waited for if it is still
+// being worked out, and the others are given up. A deep search can take seconds, so the computer then usually answers straight away.
+//
+// Pondering is limited to the CPU time given for each of the human's turns, added up over all its threads from each thread's own
+// CPU clock, so a human who takes a long time doesn't keep every core busy. Once the time is used, the replies still being worked out
+// are given up. A reply that wasn't finished is worked out as normal when the human moves, and every search shares one transposition
+// table, so it still finds most of the positions the pondering searched.
+//
+// A reply is the opening book move if there is one, otherwise the search's move, whether it is pondered or worked out after the move.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Ponderer {
+	private static final ThreadMXBean CLOCKS = ManagementFactory.getThreadMXBean();
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};		// Middle columns first, as they are the most likely moves.
+
+	private final OpeningBook book;				// Can be null if there is no book.
+	private final int depth;
+	private final ThreadLocal<Search> searches;
+	private final ExecutorService pool;			// Null if there is no pondering.
+	private final int threads;
+	private final long budget;					// CPU nanoseconds for each of the human's turns.
+	private final AtomicLong spent = new AtomicLong();
+	private final Reply[] replies = new Reply[Position.WIDTH];
+	private long pondered = 0;					// Replies that were ready, or being worked out, when the human moved.
+	private long missed = 0;					// Replies worked out after the human moved.
+	private long totalSpent = 0;
+	private boolean lastPondered = false;
+
+	// Search depth moves ahead, sharing the table, with the solver used once endgame places or fewer are empty, and ponder on the number
+	// of threads given with the CPU time given for each of the human's turns. No threads means no pondering.
+	public Ponderer(Weights weights, TranspositionTable table, OpeningBook book, int depth, int endgame, int threads, long budgetMillis) {
+		this.book = book;
+		this.depth = depth;
+		searches = ThreadLocal.withInitial(() -> new Search(weights, table, endgame));
+		this.threads = Math.max(threads, 0);
+		budget = budgetMillis * 1000000L;
+		pool = (this.threads > 0) ? Executors.newFixedThreadPool(this.threads, runnable -> {
+			Thread thread = new Thread(runnable, "Connect4 ponder");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}) : null;
+	}
+
+	public int threads() {
+		return threads;
+	}
+
+	// The computer's move for the player, worked out on the calling thread.
+	public int think(Position position, char player) {
+		int move = (book != null) ? book.move(position, player) : -1;
+		return (move >= 0) ? move : searches.get().bestMove(position, player, depth);
+	}
+
+	// Start working out the reply to each move the human could make from the position. Anything still being worked out is given up first.
+	// Moves that end the game need no reply.
+	public void start(Position position, char human) {
+		stop();
+		if (pool == null) {
+			return;
+		}
+		spent.set(0);
+		char computer = (human == 'R') ? 'Y' : 'R';
+		for (int x : ORDER) {
+			if (position.isFull(x) || position.isWinningMove(x, human) || (position.moveCount() + 1 == Position.WIDTH * Position.HEIGHT)) {
+				continue;
+			}
+			Reply reply = new Reply(position, x, human, computer);
+			replies[x] = reply;
+			reply.future = pool.submit(reply);
+		}
+	}
+
+	// The reply for the player to the position the human's move has made. The pondered one is used if it is finished, or waited for if
+	// it is still being worked out; otherwise the reply is worked out now. Every other reply is given up.
+	public int reply(Position position, char player) {
+		Reply wanted = null;
+		for (Reply reply : replies) {
+			if ((reply != null) && (reply.player == player) && (reply.position.key() == position.key())) {
+				wanted = reply;
+				wanted.wanted = true;		// The time limit no longer applies to it.
+			}
+		}
+		stop();
+		int move = -1;
+		if (wanted != null) {
+			try {
+				move = wanted.future.get();
+			}
+			catch (CancellationException | ExecutionException e) {
+				move = -1;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		totalSpent += spent.get();
+		lastPondered = (move >= 0);
+		if (lastPondered) {
+			pondered++;
+			return move;
+		}
+		missed++;
+		return think(position, player);
+	}
+
+	// Whether the last reply was worked out during the human's turn.
+	public boolean lastPondered() {
+		return lastPondered;
+	}
+
+	public long pondered() {
+		return pondered;
+	}
+
+	public long missed() {
+		return missed;
+	}
+
+	// CPU time used pondering so far, up to the last reply.
+	public double ponderSeconds() {
+		return totalSpent / 1e9;
+	}
+
+	// Give up every reply being worked out, apart from one the human's move wants.
+	public void stop() {
+		for (int x = 0; x < replies.length; x++) {
+			if ((replies[x] != null) && !replies[x].wanted) {
+				replies[x].cancelled = true;
+				replies[x].future.cancel(false);
+			}
+			replies[x] = null;
+		}
+	}
+
+	public void shutdown() {
+		stop();
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	private static long cpuTime() {
+		return CLOCKS.isCurrentThreadCpuTimeSupported() ? CLOCKS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	// Working out the reply to one move the human could make.
+	private final class Reply implements Callable<Integer> {
+		private final Position position = new Position();
+		private final char player;
+		private volatile boolean cancelled = false;
+		private volatile boolean wanted = false;
+		private Future<Integer> future;
+		private long clock;
+
+		Reply(Position before, int x, char human, char player) {
+			position.set(before);
+			position.play(x, human);
+			this.player = player;
+		}
+
+		@Override
+		public Integer call() {
+			if (cancelled) {
+				return -1;
+			}
+			Search search = searches.get();
+			clock = cpuTime();
+			search.stopWhen(this::giveUp);
+			try {
+				return think(position, player);
+			}
+			finally {
+				search.stopWhen(null);
+				charge();
+			}
+		}
+
+		// Asked by the search every few thousand positions.
+		private boolean giveUp() {
+			charge();
+			return cancelled || (!wanted && (spent.get() > budget));
+		}
+
+		// Add the CPU time used since last time to the turn's total.
+		private void charge() {
+			long now = cpuTime();
+			spent.addAndGet(now - clock);
+			clock = now;
+		}
+	}
+}
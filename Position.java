@@ -0,0 +1,388 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 bitboard position
+//
+// The board is held as two 64 bit masks, one for red pieces and one for yellow pieces, instead of a 7x6 array of characters.
+// Columns are laid out one after another with 7 bits each: 6 bits for the playable rows plus an empty sentinel bit on top.
+// The sentinel bit stops lines wrapping from the top of one column into the bottom of the next, so a line of 4 can be found
+// by shifting the mask and ANDing it with itself. See https://en.wikipedia.org/wiki/Bitboard
+//
+//     bit number for each place       x=0 x=1 x=2 x=3 x=4 x=5 x=6
+//     sentinel                          6  13  20  27  34  41  48
+//     y=5                               5  12  19  26  33  40  47
+//     y=4                               4  11  18  25  32  39  46
+//     ...
+//     y=0                               0   7  14  21  28  35  42
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+public class Position {
+	public static final int WIDTH = 7;									// Number of columns.
+	public static final int HEIGHT = 6;									// Number of rows.
+	public static final int H1 = HEIGHT + 1;							// Bits used by each column, including the sentinel.
+
+	public static final long BOTTOM = bottomMask();					// The bottom place of every column.
+	public static final long BOARD = BOTTOM * ((1L << HEIGHT) - 1);	// Every playable place, excluding the sentinels.
+	private static final long KEY_BITS = (1L << (WIDTH * H1)) - 1;		// The bits key can use, including the sentinels.
+
+	// The 69 possible winning lines of 4 as masks, in the same order as the neuron arrays in Connect4.
+	// Columns first (x*3+y), then rows (x*6+y), then diagonals up (x*3+y) and diagonals down (x*3+y-3).
+	public static final int COLUMN_LINES = 0;							// 21 vertical lines
+	public static final int ROW_LINES = 21;								// 24 horizontal lines
+	public static final int UP_LINES = 45;								// 12 diagonal up/right lines
+	public static final int DOWN_LINES = 57;							// 12 diagonal down/right lines
+	public static final int LINE_COUNT = 69;
+	private static final long[] LINES = lineMasks();
+
+	// Places are also numbered x*HEIGHT+y to match [x][y] arrays. For each line the 4 places in it are listed,
+	// and for each place the lines passing through it are listed in line order. Up to 13 lines pass through one place.
+	private static final int[][] LINE_CELLS = lineCells();
+	private static final int[][] CELL_LINES = cellLines();
+
+	private long red;			// Places holding a red piece.
+	private long yellow;		// Places holding a yellow piece.
+
+	// A new position is an empty board.
+	public Position() {
+	}
+
+	// Copy constructor so a search or another game can work on its own board.
+	public Position(Position other) {
+		red = other.red;
+		yellow = other.yellow;
+	}
+
+	// Convert the board string used on the command line into a position.
+	// The string holds 6 rows of 7 columns starting from the bottom, with R for red, Y for yellow and a space for an empty place.
+	// A short string is treated as having empty places at the end. Any other character, a floating piece, or one player having more
+	// than one piece more than the other is refused with IllegalArgumentException.
+	public static Position fromBoardString(String board) {
+		if (board.length() > WIDTH * HEIGHT) {
+			throw new IllegalArgumentException("Board string is longer than " + (WIDTH * HEIGHT) + " characters");
+		}
+		Position position = new Position();
+		for (int i = 0; i < board.length(); i++) {
+			char piece = board.charAt(i);
+			if ((piece == 'R') || (piece == 'Y')) {
+				int x = i % WIDTH;
+				int y = i / WIDTH;
+				// Pieces can't float, so each piece must land on the next free place in its column.
+				if (position.nextRow(x) != y) {
+					throw new IllegalArgumentException("Piece at column " + (x + 1) + " row " + (y + 1) + " has nothing below it");
+				}
+				position.play(x, piece);
+			}
+			else if (piece != ' ') {
+				throw new IllegalArgumentException("Place " + (i + 1) + " is '" + piece + "', not R, Y or a space");
+			}
+		}
+		int difference = Long.bitCount(position.red) - Long.bitCount(position.yellow);
+		if (Math.abs(difference) > 1) {
+			throw new IllegalArgumentException("Red has " + Long.bitCount(position.red) + " pieces and yellow " + Long.bitCount(position.yellow)
+				+ ", but they take turns");
+		}
+		return position;
+	}
+
+	// Convert the position back to a board string in the same format as fromBoardString.
+	public String toBoardString() {
+		StringBuilder board = new StringBuilder(WIDTH * HEIGHT);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				board.append(cell(x, y));
+			}
+		}
+		return board.toString();
+	}
+
+	// Make this position the same as another one.
+	public void set(Position other) {
+		red = other.red;
+		yellow = other.yellow;
+	}
+
+	// The player to move. This is the one with fewer pieces, and yellow when they have the same number as the computer always plays yellow.
+	public char toMove() {
+		return (Long.bitCount(yellow) > Long.bitCount(red)) ? 'R' : 'Y';
+	}
+
+	// Clear all places ready for a new game.
+	public void clear() {
+		red = 0;
+		yellow = 0;
+	}
+
+	// The piece at a place: R for red, Y for yellow or a space if it is empty.
+	public char cell(int x, int y) {
+		long bit = bit(x, y);
+		if ((red & bit) != 0) {
+			return 'R';
+		}
+		if ((yellow & bit) != 0) {
+			return 'Y';
+		}
+		return ' ';
+	}
+
+	// A column is full when its top row is occupied.
+	public boolean isFull(int x) {
+		return ((red | yellow) & bit(x, HEIGHT - 1)) != 0;
+	}
+
+	// The next free row in a column, which is just the number of pieces already in it. Returns HEIGHT for a full column.
+	public int nextRow(int x) {
+		return Long.bitCount((red | yellow) & columnMask(x));
+	}
+
+	// Check whether dropping a piece for the player into a column would give 4 in a line. The column must not be full.
+	public boolean isWinningMove(int x, char player) {
+		long pieces = (player == 'R') ? red : yellow;
+		return isWin(pieces | bit(x, nextRow(x)));
+	}
+
+	// Drop a piece for the player into a column. The row it lands in is returned, or -1 if the column is full.
+	public int play(int x, char player) {
+		if (isFull(x)) {
+			return -1;
+		}
+		int y = nextRow(x);
+		if (player == 'R') {
+			red |= bit(x, y);
+		}
+		else {
+			yellow |= bit(x, y);
+		}
+		return y;
+	}
+
+	// Take the top piece back out of a column, so a search can undo a move. The row it was taken from is returned, or -1 if the column is empty.
+	public int undo(int x) {
+		int y = nextRow(x) - 1;
+		if (y < 0) {
+			return -1;
+		}
+		red &= ~bit(x, y);
+		yellow &= ~bit(x, y);
+		return y;
+	}
+
+	// Number of pieces on the board.
+	public int moveCount() {
+		return Long.bitCount(red | yellow);
+	}
+
+	// A number that is different for every position. Adding the bottom row to the mask of all pieces sets the bit above the top piece
+	// of each column and clears the bits below it, so each column holds its height. Adding the red pieces then marks which pieces are red.
+	// The result fits in 49 bits and is never 0.
+	public long key() {
+		return red + (red | yellow) + BOTTOM;
+	}
+
+	// The same position reflected left to right. The value of a position and its reflection are the same, with the moves reflected.
+	public Position mirror() {
+		Position mirrored = new Position();
+		mirrored.red = mirror(red);
+		mirrored.yellow = mirror(yellow);
+		return mirrored;
+	}
+
+	// Reflect a mask left to right by swapping the columns, each pair the same distance from the middle with one shift each way.
+	// Bits above the board are dropped. As nothing carries from one column to the next in key, this also turns the key of a position
+	// into the key of its reflection.
+	public static long mirror(long bits) {
+		long column = (1L << H1) - 1;
+		long mirrored = ((WIDTH % 2) == 1) ? (bits & (column << ((WIDTH / 2) * H1))) : 0;
+		for (int x = 0; x < WIDTH / 2; x++) {
+			int shift = (WIDTH - 1 - 2 * x) * H1;
+			long left = column << (x * H1);
+			mirrored |= ((bits & left) << shift) | ((bits >>> shift) & left);
+		}
+		return mirrored;
+	}
+
+	// A position and its reflection have the same value with the moves reflected, so anything stored for positions is stored once
+	// for both, under the smaller of the two keys (the canonical key). A lookup whose key isn't the canonical one reflects the move
+	// it finds with mirrorMove. Bits above the board, such as a player to move flag added to the key, are kept as they are.
+	public static long mirrorKey(long key) {
+		return mirror(key) | (key & ~KEY_BITS);
+	}
+
+	public static long canonicalKey(long key) {
+		return Math.min(key, mirrorKey(key));
+	}
+
+	// The same move in the reflected position. -1 for no move stays -1.
+	public static int mirrorMove(int x) {
+		return (x < 0) ? x : WIDTH - 1 - x;
+	}
+
+	// Masks of each player's pieces and of all pieces.
+	public long red() {
+		return red;
+	}
+
+	public long yellow() {
+		return yellow;
+	}
+
+	public long mask() {
+		return red | yellow;
+	}
+
+	// Number of pieces the player has in one of the 69 lines of 4.
+	public int lineCount(int line, char player) {
+		return Long.bitCount(LINES[line] & (player == 'R' ? red : yellow));
+	}
+
+	// Check for a winner. R is returned for red or Y for yellow, D if the board is full and it was a draw, otherwise a space.
+	public char gameEnded() {
+		if (isWin(red)) {
+			return 'R';
+		}
+		if (isWin(yellow)) {
+			return 'Y';
+		}
+		if ((red | yellow) == BOARD) {
+			return 'D';
+		}
+		return ' ';
+	}
+
+	// Check a player's pieces for 4 in a line. Shifting by 1 moves one place up a column, by H1 one place along a row,
+	// and by H1+1 or H1-1 along the diagonals. The first AND finds pairs, the second finds pairs of pairs.
+	public static boolean isWin(long pieces) {
+		long m = pieces & (pieces >>> 1);				// vertical
+		if ((m & (m >>> 2)) != 0) {
+			return true;
+		}
+		m = pieces & (pieces >>> H1);					// horizontal
+		if ((m & (m >>> (2 * H1))) != 0) {
+			return true;
+		}
+		m = pieces & (pieces >>> (H1 + 1));				// diagonal up/right
+		if ((m & (m >>> (2 * (H1 + 1)))) != 0) {
+			return true;
+		}
+		m = pieces & (pieces >>> (H1 - 1));				// diagonal down/right
+		if ((m & (m >>> (2 * (H1 - 1)))) != 0) {
+			return true;
+		}
+		return false;
+	}
+
+	// The mask of a single place.
+	public static long bit(int x, int y) {
+		return 1L << (x * H1 + y);
+	}
+
+	// The mask of the playable places in a column.
+	public static long columnMask(int x) {
+		return ((1L << HEIGHT) - 1) << (x * H1);
+	}
+
+	// The mask for one of the 69 lines of 4.
+	public static long line(int line) {
+		return LINES[line];
+	}
+
+	// The places in a line and the lines through a place. The arrays are shared, so they must not be changed.
+	public static int[] lineCells(int line) {
+		return LINE_CELLS[line];
+	}
+
+	public static int[] cellLines(int cell) {
+		return CELL_LINES[cell];
+	}
+
+	// Masks for the lines of 4 using the same indexes as the winningColumns, winningRows, winningDiagonalsUp and winningDiagonalsDown arrays.
+	public static long columnLine(int x, int y) {
+		return LINES[COLUMN_LINES + x * 3 + y];
+	}
+
+	public static long rowLine(int x, int y) {
+		return LINES[ROW_LINES + x * 6 + y];
+	}
+
+	public static long diagonalUpLine(int x, int y) {
+		return LINES[UP_LINES + x * 3 + y];
+	}
+
+	public static long diagonalDownLine(int x, int y) {	// y is 0 to 2 for lines starting at rows 3 to 5, as in winningDiagonalsDown.
+		return LINES[DOWN_LINES + x * 3 + y];
+	}
+
+	private static long bottomMask() {
+		long mask = 0;
+		for (int x = 0; x < WIDTH; x++) {
+			mask |= 1L << (x * H1);
+		}
+		return mask;
+	}
+
+	// Build the line masks. Each line is a starting place and a step of dx, dy repeated 3 times.
+	private static long[] lineMasks() {
+		long[] lines = new long[LINE_COUNT];
+		for (int x = 0; x < 7; x++) {
+			for (int y = 0; y < 3; y++) {
+				lines[COLUMN_LINES + x * 3 + y] = lineMask(x, y, 0, 1);
+			}
+		}
+		for (int x = 0; x < 4; x++) {
+			for (int y = 0; y < 6; y++) {
+				lines[ROW_LINES + x * 6 + y] = lineMask(x, y, 1, 0);
+			}
+		}
+		for (int x = 0; x < 4; x++) {
+			for (int y = 0; y < 3; y++) {
+				lines[UP_LINES + x * 3 + y] = lineMask(x, y, 1, 1);
+			}
+		}
+		for (int x = 0; x < 4; x++) {
+			for (int y = 3; y < 6; y++) {
+				lines[DOWN_LINES + x * 3 + y - 3] = lineMask(x, y, 1, -1);
+			}
+		}
+		return lines;
+	}
+
+	private static int[][] lineCells() {
+		int[][] cells = new int[LINE_COUNT][4];
+		for (int line = 0; line < LINE_COUNT; line++) {
+			int i = 0;
+			for (int cell = 0; cell < WIDTH * HEIGHT; cell++) {
+				if ((LINES[line] & bit(cell / HEIGHT, cell % HEIGHT)) != 0) {
+					cells[line][i++] = cell;
+				}
+			}
+		}
+		return cells;
+	}
+
+	private static int[][] cellLines() {
+		int[][] lines = new int[WIDTH * HEIGHT][];
+		for (int cell = 0; cell < WIDTH * HEIGHT; cell++) {
+			long bit = bit(cell / HEIGHT, cell % HEIGHT);
+			int count = 0;
+			for (int line = 0; line < LINE_COUNT; line++) {
+				if ((LINES[line] & bit) != 0) {
+					count++;
+				}
+			}
+			lines[cell] = new int[count];
+			count = 0;
+			for (int line = 0; line < LINE_COUNT; line++) {
+				if ((LINES[line] & bit) != 0) {
+					lines[cell][count++] = line;
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static long lineMask(int x, int y, int dx, int dy) {
+		long mask = 0;
+		for (int i = 0; i < 4; i++) {
+			mask |= bit(x + i * dx, y + i * dy);
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,293 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 search
+//
+// Looks several moves ahead instead of the single move selectMove looks at. This is a negamax search with alpha-beta pruning:
+// each side picks the move that is worst for the other, and moves that can't change the result are not looked at.
+// When the search stops looking further ahead the position is scored by the neural network, as the player's combined scores less the opponent's.
+//
+// The middle columns are tried first as they are most often best, which lets alpha-beta cut off more of the tree.
+// A move that wins at once is always taken, and if the opponent could win next move that column must be blocked, so the other
+// columns aren't searched. Winning sooner scores higher than winning later, and losing later scores higher than losing sooner.
+//
+// The search plays and takes back moves on its own evaluator, so the neurons are updated incrementally. A Search must only be used
+// by one thread at a time. It searches any Geometry the evaluator plays, trying the columns in the geometry's order, from the middle out.
+//
+// Once few enough places are left empty the exact solver is used instead, so forced wins and losses are found to the end of the game.
+// The number of empty places is Solver.ENDGAME unless another is given. The solver and the transposition table key on the 64 bit
+// Position, so they are only used on the standard board.
+//
+// With a transposition table, positions already searched deeply enough are not searched again, and the best move found for a position
+// before is tried first. The search then goes one move deeper at a time up to the depth asked for, so each pass fills the table
+// with good moves to try first in the next pass. Any number of searches on different threads can share one table.
+//
+// A search can be given up part way, such as when the computer was thinking about a move the human didn't make. It is asked every
+// STOP_CHECK positions whether to stop, and a search that stops returns -1 and stores nothing more in the table.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.function.BooleanSupplier;
+
+public class Search {
+	public static final double WIN = 1e9;							// Score for a win, less the number of pieces on the board when it is won.
+	private static final int STOP_CHECK = 4096;						// Positions between asking whether to stop, a power of 2.
+
+	private final Evaluator evaluator;
+	private final Geometry geometry;
+	private final int cells;
+	private final TranspositionTable table;							// Can be null to search without a table.
+	private final TranspositionTable.Entry entry = new TranspositionTable.Entry();
+	private final Solver solver = new Solver();
+	private final int endgame;		// Empty places at or below which the solver is used, 0 to never use it.
+	private long nodes = 0;			// Positions looked at by the last search.
+	private long nanos = 0;			// Time taken by the last search.
+	private double score = 0;		// Score of the last search for the player who was to move.
+	private BooleanSupplier stop = null;	// Asked whether to give up the search, if set.
+	private boolean stopped = false;		// The search is being given up.
+
+	public Search(Weights weights) {
+		this(weights, null);
+	}
+
+	// The table must only be shared by searches using the same weightings.
+	public Search(Weights weights, TranspositionTable table) {
+		this(weights, table, Solver.ENDGAME);
+	}
+
+	// The same, with the solver used once endgame places or fewer are empty. Searches sharing a table must use the same number.
+	public Search(Weights weights, TranspositionTable table, int endgame) {
+		this(new Evaluator(weights), table, endgame);
+	}
+
+	// A search of any geometry, with the solver on the standard board as above.
+	public Search(Geometry geometry, Weights weights) {
+		this(new Evaluator(geometry, weights), null, geometry.isStandard() ? Solver.ENDGAME : 0);
+	}
+
+	// The search plays on the evaluator given, which must hold a Position to use a table or the solver.
+	Search(Evaluator evaluator, TranspositionTable table, int endgame) {
+		if ((evaluator.position() == null) && ((table != null) || (endgame > 0))) {
+			throw new IllegalArgumentException("The table and the solver only work on the standard board");
+		}
+		this.evaluator = evaluator;
+		geometry = evaluator.geometry();
+		cells = geometry.cells();
+		this.table = table;
+		this.endgame = endgame;
+	}
+
+	public int endgame() {
+		return endgame;
+	}
+
+	// The best column (0 to 6) for the player, looking depth moves ahead. The position isn't changed.
+	// -1 is returned if the board is full or the search was stopped.
+	public int bestMove(Position position, char player, int depth) {
+		long start = System.nanoTime();
+		evaluator.load(position, evaluator.weights());
+		return search(player, depth, start);
+	}
+
+	// The best column for the player on the board of another evaluator of the same geometry, which isn't changed.
+	public int bestMove(Evaluator position, char player, int depth) {
+		long start = System.nanoTime();
+		evaluator.load(position);
+		return search(player, depth, start);
+	}
+
+	private int search(char player, int depth, long start) {
+		nodes = 0;
+		stopped = false;
+		int move = -1;
+		if (cells - evaluator.moveCount() <= endgame) {
+			Position position = evaluator.position();
+			move = solver.bestMove(position, player);
+			nodes = solver.nodes();
+			score = solvedScore(solver.score(), position.moveCount());
+		}
+		else if (table == null) {
+			move = searchRoot(player, Math.max(depth, 1), -1);
+		}
+		else {
+			for (int pass = 1; pass <= Math.max(depth, 1); pass++) {
+				move = searchRoot(player, pass, move);
+				if (stopped || (Math.abs(score) >= WIN - cells)) {
+					break;				// A forced win or loss has been found, so searching deeper won't change it.
+				}
+			}
+		}
+		nanos = System.nanoTime() - start;
+		return stopped ? -1 : move;
+	}
+
+	// Give up searching when stop returns true, or never if it is null. It is called on the thread doing the search.
+	// The exact solver used near the end of the game is quick enough that it isn't stopped.
+	public void stopWhen(BooleanSupplier stop) {
+		this.stop = stop;
+	}
+
+	public void setWeights(Weights weights) {
+		evaluator.setWeights(weights);
+	}
+
+	public long nodes() {
+		return nodes;
+	}
+
+	public long nanos() {
+		return nanos;
+	}
+
+	public double score() {
+		return score;
+	}
+
+	public long nodesPerSecond() {
+		return (nanos > 0) ? (long)(nodes * 1e9 / nanos) : 0;
+	}
+
+	// The top of the search is the same as the rest, except that it keeps the move as well as the score.
+	// The best move from the previous pass, if there was one, is tried first.
+	private int searchRoot(char player, int depth, int previous) {
+		char opponent = (player == 'R') ? 'Y' : 'R';
+		int ply = evaluator.moveCount();
+		nodes++;
+		for (int i = 0; i < geometry.width(); i++) {
+			int x = geometry.order(i);
+			if (!evaluator.isFull(x) && evaluator.isWinningMove(x, player)) {
+				score = WIN - ply - 1;
+				return x;
+			}
+		}
+		int forced = forcedMove(opponent);
+		double alpha = -Double.MAX_VALUE;
+		int move = -1;
+		for (int i = -1; i < geometry.width(); i++) {
+			int x = (i < 0) ? previous : geometry.order(i);
+			if ((x < 0) || ((i >= 0) && (x == previous)) || evaluator.isFull(x) || ((forced >= 0) && (x != forced))) {
+				continue;
+			}
+			evaluator.play(x, player);
+			double value = -negamax(opponent, depth - 1, -Double.MAX_VALUE, -alpha);
+			evaluator.undo(x);
+			if ((move < 0) || (value > alpha)) {
+				alpha = value;
+				move = x;
+			}
+		}
+		score = alpha;
+		return move;
+	}
+
+	// Score the position for the player to move, looking depth moves ahead. Scores of alpha or below only show that the position
+	// is no better than alpha, and scores of beta or above that it is at least beta, as the exact score wouldn't change the move chosen.
+	private double negamax(char player, int depth, double alpha, double beta) {
+		nodes++;
+		if (((nodes & (STOP_CHECK - 1)) == 0) && (stop != null) && stop.getAsBoolean()) {
+			stopped = true;
+		}
+		if (stopped) {
+			return 0;
+		}
+		int ply = evaluator.moveCount();
+		if (ply == cells) {
+			return 0;				// A draw.
+		}
+		for (int x = 0; x < geometry.width(); x++) {
+			if (!evaluator.isFull(x) && evaluator.isWinningMove(x, player)) {
+				return WIN - ply - 1;
+			}
+		}
+		char opponent = (player == 'R') ? 'Y' : 'R';
+		int forced = forcedMove(opponent);
+		if (forced == -2) {
+			return -(WIN - ply - 2);	// The opponent has two winning moves and only one can be blocked.
+		}
+		if (depth <= 0) {
+			return evaluator.balance(player);
+		}
+
+		// Use what is known about the position from an earlier search. A score from a deep enough search can end this one,
+		// and the best move found before is tried first whatever the depth.
+		long key = 0;
+		int tableMove = -1;
+		double startAlpha = alpha;
+		if (table != null) {
+			key = TranspositionTable.key(evaluator.position(), player);
+			if (table.probe(key, entry)) {
+				tableMove = entry.move;
+				if (entry.depth >= depth) {
+					if (entry.bound == TranspositionTable.EXACT) {
+						return entry.score;
+					}
+					if (entry.bound == TranspositionTable.LOWER) {
+						alpha = Math.max(alpha, entry.score);
+					}
+					else {
+						beta = Math.min(beta, entry.score);
+					}
+					if (alpha >= beta) {
+						return entry.score;
+					}
+				}
+			}
+		}
+
+		double best = -Double.MAX_VALUE;
+		int bestMove = -1;
+		for (int i = -1; i < geometry.width(); i++) {
+			int x = (i < 0) ? tableMove : geometry.order(i);
+			if ((x < 0) || ((i >= 0) && (x == tableMove)) || evaluator.isFull(x) || ((forced >= 0) && (x != forced))) {
+				continue;
+			}
+			evaluator.play(x, player);
+			double value = -negamax(opponent, depth - 1, -beta, -alpha);
+			evaluator.undo(x);
+			if (value > best) {
+				best = value;
+				bestMove = x;
+				if (value > alpha) {
+					alpha = value;
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+		if (stopped) {
+			return 0;				// The scores below this position are unfinished, so they aren't kept.
+		}
+		if (table != null) {
+			int bound = (best <= startAlpha) ? TranspositionTable.UPPER : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			table.store(key, best, bound, depth, bestMove);
+		}
+		return best;
+	}
+
+	// Convert a solver score into the same units as the search: WIN less the number of pieces on the board before the winning one.
+	// The player to move plays the pieces numbered count, count + 2 and so on, and the opponent plays the others.
+	private static double solvedScore(int solved, int count) {
+		if (solved == 0) {
+			return 0;
+		}
+		int before = Position.WIDTH * Position.HEIGHT + 1 - (2 * Math.abs(solved));
+		if (((before - count) & 1) != ((solved > 0) ? 0 : 1)) {
+			before--;
+		}
+		return (solved > 0) ? (WIN - before - 1) : -(WIN - before - 1);
+	}
+
+	// The column that must be blocked because the opponent would win there next move, -1 if there isn't one,
+	// or -2 if there is more than one.
+	private int forcedMove(char opponent) {
+		int forced = -1;
+		for (int x = 0; x < geometry.width(); x++) {
+			if (!evaluator.isFull(x) && evaluator.isWinningMove(x, opponent)) {
+				if (forced >= 0) {
+					return -2;
+				}
+				forced = x;
+			}
+		}
+		return forced;
+	}
+}
@@ -0,0 +1,147 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 self play
+//
+// Plays the computer against itself with two sets of weightings, as used by optimisation.
+// Each player has its own evaluator that follows the board, so its neurons are updated incrementally rather than recalculated every move.
+// Once few enough places are left empty the exact solver picks the moves for both players, so a game isn't decided by a mistake
+// neither set of weightings should be blamed for.
+// A SelfPlay object must only be used by one thread at a time, but any number of them can play at once.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.SplittableRandom;
+
+public class SelfPlay {
+	private final Evaluator red = new Evaluator(Weights.DEFAULT);		// Red's neurons.
+	private final Evaluator yellow = new Evaluator(Weights.DEFAULT);	// Yellow's neurons.
+	private final Solver solver = new Solver();							// Plays both sides at the end of the game.
+	private final int endgame;											// Empty places at or below which the solver plays, 0 to never use it.
+	private LatencyHistogram moveTimes = null;							// Time taken by each move, if it is being measured.
+	private GameLog.Writer log = null;									// Where finished games are kept, if anywhere.
+	private final byte[] moves = new byte[Position.WIDTH * Position.HEIGHT];	// The columns played in the current game, for the log.
+
+	public SelfPlay() {
+		this(Solver.ENDGAME);
+	}
+
+	public SelfPlay(int endgame) {
+		this.endgame = endgame;
+	}
+
+	// The result of a match of several games.
+	public static final class Result {
+		public final int redWins;
+		public final int yellowWins;
+		public final int draws;
+
+		public Result(int redWins, int yellowWins, int draws) {
+			this.redWins = redWins;
+			this.yellowWins = yellowWins;
+			this.draws = draws;
+		}
+	}
+
+	// Measure the time taken by each move from now on, including updating both players' neurons, or stop measuring if null.
+	public void recordMoveTimes(LatencyHistogram moveTimes) {
+		this.moveTimes = moveTimes;
+	}
+
+	// Add every game played from now on to a game log, or stop if null. The log can be shared with other SelfPlay objects.
+	public void recordGames(GameLog.Writer log) {
+		this.log = log;
+	}
+
+	// The solver used at the end of games, for its node and time counts.
+	public Solver solver() {
+		return solver;
+	}
+
+	// Play a match with players alternately playing first, opening in each column in turn.
+	// Not many games are needed as the games are likely to be similar.
+	public Result playMatch(Weights redWeights, Weights yellowWeights, int games) {
+		int Ywin = 0;
+		int Rwin = 0;
+		int Draw = 0;
+		for (int z = 0; z < games; z++) {
+			char winner = playGame(redWeights, yellowWeights, z);
+			if (winner == 'Y') { Ywin++; }
+			if (winner == 'R') { Rwin++; }
+			if (winner == 'D') { Draw++; }
+		}
+		return new Result(Rwin, Ywin, Draw);
+	}
+
+	// Play game number z of a match. The first piece goes in column z%7, and is yellow for odd games and red for even games.
+	public char playGame(Weights redWeights, Weights yellowWeights, int z) {
+		return playGame(redWeights, yellowWeights, z%7, (z%2 == 1) ? 'Y' : 'R');
+	}
+
+	// Play one game. The first player's piece is put in the opening column, then the players take turns until there is a winner or a draw.
+	// R is returned for red, Y for yellow or D for a draw.
+	public char playGame(Weights redWeights, Weights yellowWeights, int opening, char first) {
+		red.reset(redWeights);
+		yellow.reset(yellowWeights);
+		red.play(opening, first);
+		yellow.play(opening, first);
+		moves[0] = (byte)opening;
+		return playOn(redWeights, yellowWeights, first, 1, (first == 'R') ? 'Y' : 'R');
+	}
+
+	// Play one game where the first plies moves are in random columns, so that many different positions are reached.
+	// This is used to make training games for NeuralNetwork, as the games from the same opening are always the same otherwise.
+	public char playRandomOpening(Weights redWeights, Weights yellowWeights, char first, int plies, SplittableRandom random) {
+		red.reset(redWeights);
+		yellow.reset(yellowWeights);
+		char player = first;
+		for (int count = 0; count < plies; count++) {
+			int move;
+			do {
+				move = random.nextInt(Position.WIDTH);
+			} while (red.position().isFull(move));
+			red.play(move, player);
+			yellow.play(move, player);
+			moves[count] = (byte)move;
+			char winner = red.position().gameEnded();
+			if (winner != ' ') {
+				return finished(redWeights, yellowWeights, first, count + 1, winner);
+			}
+			player = (player == 'R') ? 'Y' : 'R';
+		}
+		return playOn(redWeights, yellowWeights, first, plies, player);
+	}
+
+	// The players take turns from the current position until there is a winner or a draw.
+	private char playOn(Weights redWeights, Weights yellowWeights, char first, int count, char player) {
+		for (;;) {
+			long start = (moveTimes != null) ? System.nanoTime() : 0;
+			int move;
+			if ((Position.WIDTH * Position.HEIGHT) - red.position().moveCount() <= endgame) {
+				move = solver.bestMove(red.position(), player);
+			}
+			else {
+				move = (player == 'R') ? red.selectMove(player) : yellow.selectMove(player);
+			}
+			red.play(move, player);
+			yellow.play(move, player);
+			moves[count++] = (byte)move;
+			if (moveTimes != null) {
+				moveTimes.record(System.nanoTime() - start);
+			}
+			char winner = red.position().gameEnded();
+			if (winner != ' ') {
+				return finished(redWeights, yellowWeights, first, count, winner);
+			}
+			player = (player == 'R') ? 'Y' : 'R';
+		}
+	}
+
+	private char finished(Weights redWeights, Weights yellowWeights, char first, int count, char winner) {
+		if (EngineMetrics.on()) {
+			EngineMetrics.INSTANCE.gameFinished();
+		}
+		if (log != null) {
+			log.write(redWeights, yellowWeights, first, moves, count, winner);
+		}
+		return winner;
+	}
+}
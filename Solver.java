@@ -0,0 +1,247 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 endgame solver
+//
+// Near the end of a game there are few enough moves left to look at every one, so the result can be proved instead of estimated
+// by the neural network. The solver works out whether the player to move wins, loses or draws with best play, and picks the move
+// that wins soonest, or if it can't win, loses as late as possible.
+//
+// Scores are in the same units as https://connect4.gamesolver.org: a win scores the number of the winner's own pieces still left to play
+// after the winning one, plus one, so a sooner win scores more. A loss is the same negated, and a draw is 0.
+//
+// It works directly on the bitboards rather than the neurons, so each position costs a few shifts:
+//     moves that let the opponent win straight away are never tried, and if the opponent has two winning places the game is lost,
+//     moves are tried in order of how many winning places they make, with the middle columns first when that is equal,
+//     the search only asks whether the score is above one value at a time, halving the range of possible scores each time,
+//     and a small table remembers the best known upper bound for positions already seen, one entry for a position and its reflection.
+//
+// A Solver holds its own table and must only be used by one thread at a time.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.Arrays;
+
+public class Solver {
+	public static final int ENDGAME = 16;							// Default number of empty places at or below which the solver takes over.
+	private static final int CELLS = Position.WIDTH * Position.HEIGHT;
+	private static final int MIN_SCORE = -CELLS / 2 + 3;			// The lowest score possible, a loss on the opponent's fourth piece.
+	private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};		// Middle columns first.
+	private static final int TABLE = 1048573;						// Table entries, a prime so that keys spread evenly.
+
+	private final long[] keys = new long[TABLE];					// Position key for each entry, 0 if it is empty.
+	private final byte[] bounds = new byte[TABLE];					// Upper bound on the score, less MIN_SCORE and plus 1.
+	private final long[][] moves = new long[CELLS + 1][Position.WIDTH];		// Moves to try at each ply, kept so no arrays are made during a search.
+	private final int[][] moveScores = new int[CELLS + 1][Position.WIDTH];
+	private long nodes = 0;
+	private long nanos = 0;
+	private int lastScore = 0;
+	private long totalNodes = 0;
+	private long totalNanos = 0;
+	private long solves = 0;
+
+	// The exact score for the player to move. The game must not have ended already.
+	public int solve(Position position, char player) {
+		long start = System.nanoTime();
+		nodes = 0;
+		long current = (player == 'R') ? position.red() : position.yellow();
+		int score = solve(current, position.mask(), position.moveCount());
+		count(start);
+		return score;
+	}
+
+	// The move (0 to 6) that wins soonest, or if there is no win draws, or if the game is lost loses as late as possible.
+	// The score of the move is left in score(). -1 is returned if the board is full.
+	public int bestMove(Position position, char player) {
+		long start = System.nanoTime();
+		nodes = 0;
+		long current = (player == 'R') ? position.red() : position.yellow();
+		long mask = position.mask();
+		int count = position.moveCount();
+		int best = -1;
+		int bestScore = Integer.MIN_VALUE;
+		for (int i = 0; i < Position.WIDTH; i++) {
+			int x = ORDER[i];
+			long move = (mask + Position.BOTTOM) & Position.columnMask(x);
+			if (move == 0) {
+				continue;
+			}
+			int score;
+			if ((winningPlaces(current, mask) & move) != 0) {
+				score = (CELLS + 1 - count) / 2;
+			}
+			else {
+				score = -solve(current ^ mask, mask | move, count + 1);
+			}
+			if (score > bestScore) {
+				bestScore = score;
+				best = x;
+			}
+		}
+		lastScore = bestScore;
+		count(start);
+		return best;
+	}
+
+	// Score of the last bestMove.
+	public int score() {
+		return lastScore;
+	}
+
+	// Positions looked at, and time taken, by the last solve or bestMove.
+	public long nodes() {
+		return nodes;
+	}
+
+	public long nanos() {
+		return nanos;
+	}
+
+	// Totals over every solve and bestMove since the solver was made.
+	public long totalNodes() {
+		return totalNodes;
+	}
+
+	public long totalNanos() {
+		return totalNanos;
+	}
+
+	public long solves() {
+		return solves;
+	}
+
+	private void count(long start) {
+		nanos = System.nanoTime() - start;
+		totalNodes += nodes;
+		totalNanos += nanos;
+		solves++;
+	}
+
+	// Empty the table. Entries stay correct for any later position, so this is only needed to free the space for other use.
+	public void clear() {
+		Arrays.fill(keys, 0);
+	}
+
+	// Narrow the range of possible scores by asking whether the score is above the middle of the range, until only one is left.
+	private int solve(long current, long mask, int count) {
+		if ((winningPlaces(current, mask) & possible(mask)) != 0) {
+			return (CELLS + 1 - count) / 2;
+		}
+		int min = -(CELLS - count) / 2;
+		int max = (CELLS + 1 - count) / 2;
+		while (min < max) {
+			int middle = min + (max - min) / 2;
+			if ((middle <= 0) && ((min / 2) < middle)) {
+				middle = min / 2;
+			}
+			else if ((middle >= 0) && ((max / 2) > middle)) {
+				middle = max / 2;
+			}
+			int result = negamax(current, mask, count, middle, middle + 1);
+			if (result <= middle) {
+				max = result;
+			}
+			else {
+				min = result;
+			}
+		}
+		return min;
+	}
+
+	// Score the position for the player to move, who can't win with their next piece. Scores at or below alpha only show the score is no
+	// more than alpha, and scores at or above beta only show it is at least beta.
+	private int negamax(long current, long mask, int count, int alpha, int beta) {
+		nodes++;
+		long next = nonLosingMoves(current, mask);
+		if (next == 0) {
+			return -(CELLS - count) / 2;			// Every move lets the opponent win.
+		}
+		if (count >= CELLS - 2) {
+			return 0;								// Neither player can win with the last two pieces.
+		}
+		int min = -(CELLS - 2 - count) / 2;			// The opponent can't win with their next piece.
+		if (alpha < min) {
+			alpha = min;
+			if (alpha >= beta) {
+				return alpha;
+			}
+		}
+		int max = (CELLS - 1 - count) / 2;			// The player can't win with their next piece.
+		long key = Position.canonicalKey(current + mask + Position.BOTTOM);	// A position and its reflection have the same score.
+		int slot = (int)(key % TABLE);
+		if (keys[slot] == key) {
+			max = bounds[slot] + MIN_SCORE - 1;
+		}
+		if (beta > max) {
+			beta = max;
+			if (alpha >= beta) {
+				return beta;
+			}
+		}
+
+		// Order the moves by the number of winning places each one makes, keeping the middle columns first when that is the same.
+		long[] tries = moves[count];
+		int[] scores = moveScores[count];
+		int size = 0;
+		for (int i = 0; i < Position.WIDTH; i++) {
+			long move = next & Position.columnMask(ORDER[i]);
+			if (move != 0) {
+				int score = Long.bitCount(winningPlaces(current | move, mask));
+				int j = size++;
+				while ((j > 0) && (scores[j - 1] < score)) {
+					tries[j] = tries[j - 1];
+					scores[j] = scores[j - 1];
+					j--;
+				}
+				tries[j] = move;
+				scores[j] = score;
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			int score = -negamax(current ^ mask, mask | tries[i], count + 1, -beta, -alpha);
+			if (score >= beta) {
+				return score;
+			}
+			if (score > alpha) {
+				alpha = score;
+			}
+		}
+		keys[slot] = key;
+		bounds[slot] = (byte)(alpha - MIN_SCORE + 1);
+		return alpha;
+	}
+
+	// The next free place in every column.
+	private static long possible(long mask) {
+		return (mask + Position.BOTTOM) & Position.BOARD;
+	}
+
+	// Moves that don't let the opponent win next move. If the opponent has a winning place that can be played now it must be blocked,
+	// and if there are two the game is lost. A place directly below an opponent's winning place is never played.
+	private static long nonLosingMoves(long current, long mask) {
+		long possible = possible(mask);
+		long opponentWins = winningPlaces(current ^ mask, mask);
+		long forced = possible & opponentWins;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) {
+				return 0;
+			}
+			possible = forced;
+		}
+		return possible & ~(opponentWins >>> 1);
+	}
+
+	// Empty places that would give the player 4 in a line, whether or not they can be played yet.
+	// The same shifts as Position.isWin, looking for three pieces in a line with a gap at either end or in the middle.
+	private static long winningPlaces(long pieces, long mask) {
+		long places = (pieces << 1) & (pieces << 2) & (pieces << 3);		// vertical
+		for (int shift = Position.H1 - 1; shift <= Position.H1 + 1; shift++) {	// diagonal down, horizontal, diagonal up
+			long pair = (pieces << shift) & (pieces << (2 * shift));
+			places |= pair & (pieces << (3 * shift));
+			places |= pair & (pieces >>> shift);
+			pair = (pieces >>> shift) & (pieces >>> (2 * shift));
+			places |= pair & (pieces << shift);
+			places |= pair & (pieces >>> (3 * shift));
+		}
+		return places & (Position.BOARD ^ mask);
+	}
+}
@@ -0,0 +1,85 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 throughput measurement
+//
+// Plays a number of games between two sets of weightings on a number of threads, with nothing printed while they play, and reports
+// games per second, moves per second, the spread of times taken by a move and the results. This is the standard figure for how much
+// work the engine can do.
+//
+// Some games are played first and not counted, so the Java compiler has finished optimising the code before timing starts.
+// Each thread records move times into its own histogram, so timing doesn't slow the threads down by sharing anything.
+// The games are numbered as in a match, opening in each column in turn with red and yellow starting alternately.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+public class Throughput {
+	private final ForkJoinPool pool;
+	private final List<LatencyHistogram> histograms = new CopyOnWriteArrayList<>();		// One for each thread that has played.
+	private final ThreadLocal<SelfPlay> selfPlays;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public Throughput(int threads) {
+		this(threads, Solver.ENDGAME);
+	}
+
+	// The same, with the solver playing once endgame places or fewer are empty, 0 for never.
+	public Throughput(int threads, int endgame) {
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		selfPlays = ThreadLocal.withInitial(() -> {
+			SelfPlay selfPlay = new SelfPlay(endgame);
+			LatencyHistogram histogram = new LatencyHistogram();
+			histograms.add(histogram);
+			selfPlay.recordMoveTimes(histogram);
+			return selfPlay;
+		});
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	// Play the warm up games, then the timed games, and print the report.
+	public void run(Weights redWeights, Weights yellowWeights, int warmupGames, int games) {
+		System.out.println("Red    " + redWeights);
+		System.out.println("Yellow " + yellowWeights);
+		System.out.println("Warming up with " + warmupGames + " games on " + threads() + " threads");
+		play(redWeights, yellowWeights, new char[warmupGames]);
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+
+		char[] winners = new char[games];
+		long start = System.nanoTime();
+		play(redWeights, yellowWeights, winners);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		LatencyHistogram moves = new LatencyHistogram();
+		for (LatencyHistogram histogram : histograms) {
+			moves.add(histogram);
+		}
+		int Ywin = 0;
+		int Rwin = 0;
+		int Draw = 0;
+		for (int z = 0; z < games; z++) {
+			if (winners[z] == 'Y') { Ywin++; }
+			if (winners[z] == 'R') { Rwin++; }
+			if (winners[z] == 'D') { Draw++; }
+		}
+		System.out.println(games + " games, " + moves.count() + " moves in " + (float)seconds + " seconds on " + threads() + " threads");
+		System.out.println((long)(games / seconds) + " games per second, " + (long)(moves.count() / seconds) + " moves per second");
+		System.out.println("Move time " + moves.summary());
+		System.out.println("R-wins " + Rwin + " Y-wins " + Ywin + " Draws " + Draw);
+	}
+
+	// Stop the threads once finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private void play(Weights redWeights, Weights yellowWeights, char[] winners) {
+		Parallel.forEach(pool, 0, winners.length, z -> winners[z] = selfPlays.get().playGame(redWeights, yellowWeights, z));
+	}
+}
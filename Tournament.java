@@ -0,0 +1,225 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 tournament
+//
+// Plays every set of weightings in a list against every other, and rates them all on the Elo scale with a 95% confidence interval.
+// This judges a set of weightings against many others at once, rather than by one short match against the defaults.
+//
+// Each pair plays 28 games: each takes red for 14, and those are the 14 games of SelfPlay.playMatch, opening in each column with each
+// player going first. The games have no random element, so playing them again would give the same results.
+// The tournament is played in rounds where everyone plays once, as in a chess all-play-all, so after every round each entrant has
+// played the same number of games. All the games of a round are played at once on all the cores.
+// The standings are printed every so often while it runs, and are worth reading at any point.
+//
+// The ratings are the Bradley-Terry maximum likelihood fit found by Hunter's MM method, with a draw counting as half a win.
+// Each pair that has played also counts one extra drawn game, so an entrant that won or lost every game still has a rating.
+// The ratings average 0. The confidence interval of each comes from the curvature of the fit at its rating, holding the others still.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class Tournament {
+	public static final int GAMES = 2 * Optimiser.GAMES;			// Games for each pair, half with each colour.
+	private static final double ELO = 400 / Math.log(10);			// Elo points for a factor of e in the odds of winning.
+
+	private final ForkJoinPool pool;
+	private final ThreadLocal<SelfPlay> selfPlays;
+	private final List<String> names = new ArrayList<>();
+	private final List<Weights> entrants = new ArrayList<>();
+	private double[][] points;				// Points scored by each entrant against each other, 1 for a win and 0.5 for a draw.
+	private int[][] played;					// Games played by each pair.
+	private long gamesPlayed = 0;
+
+	// Use the number of threads given, or one per core if it is 0 or less.
+	public Tournament(int threads) {
+		this(threads, Solver.ENDGAME);
+	}
+
+	// The same, with the solver playing once endgame places or fewer are empty, 0 for never.
+	public Tournament(int threads, int endgame) {
+		pool = new ForkJoinPool((threads > 0) ? threads : Runtime.getRuntime().availableProcessors());
+		selfPlays = ThreadLocal.withInitial(() -> new SelfPlay(endgame));
+	}
+
+	public int threads() {
+		return pool.getParallelism();
+	}
+
+	public int entrants() {
+		return entrants.size();
+	}
+
+	public void add(String name, Weights weights) {
+		names.add(name);
+		entrants.add(weights);
+	}
+
+	// Add every set of weightings in a file, one on each line in any form Weights.parse reads. A name can go before a colon, otherwise
+	// the entrant is named by its line number. Blank lines and lines starting with # are skipped.
+	public void load(Path file) throws IOException {
+		int line = 0;
+		for (String text : Files.readAllLines(file)) {
+			line++;
+			text = text.trim();
+			if (text.isEmpty() || text.startsWith("#")) {
+				continue;
+			}
+			int colon = text.indexOf(':');
+			String name = (colon >= 0) ? text.substring(0, colon).trim() : "line" + line;
+			try {
+				add(name, Weights.parse(text.substring(colon + 1)));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException("Line " + line + " of " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	// Play the whole tournament, printing the standings at least every reportSeconds and once more at the end.
+	public void run(int reportSeconds) {
+		int n = entrants.size();
+		points = new double[n][n];
+		played = new int[n][n];
+		int size = n + (n % 2);				// With an odd number one entrant sits out each round.
+		int rounds = size - 1;
+		System.out.println(n + " entrants, " + rounds + " rounds, " + (GAMES * (long)n * (n - 1) / 2) + " games on " + threads() + " threads");
+		long start = System.nanoTime();
+		long lastReport = start;
+
+		for (int round = 0; round < rounds; round++) {
+			// Circle method: entrant 0 stays still and the others move round one place each round.
+			int[] order = new int[size];
+			for (int i = 1; i < size; i++) {
+				order[i] = ((i - 1 + round) % (size - 1)) + 1;
+			}
+			List<int[]> pairs = new ArrayList<>();
+			for (int k = 0; k < size / 2; k++) {
+				int a = order[k];
+				int b = order[size - 1 - k];
+				if ((a < n) && (b < n)) {
+					pairs.add(new int[] {a, b});
+				}
+			}
+
+			// Game g of a pair has the first entrant as red for the first half, then the second entrant as red.
+			char[] winners = new char[pairs.size() * GAMES];
+			Parallel.forEach(pool, 0, winners.length, g -> {
+				int[] pair = pairs.get(g / GAMES);
+				int game = g % GAMES;
+				boolean firstIsRed = game < Optimiser.GAMES;
+				Weights red = entrants.get(firstIsRed ? pair[0] : pair[1]);
+				Weights yellow = entrants.get(firstIsRed ? pair[1] : pair[0]);
+				winners[g] = selfPlays.get().playGame(red, yellow, game % Optimiser.GAMES);
+			});
+			for (int g = 0; g < winners.length; g++) {
+				int[] pair = pairs.get(g / GAMES);
+				boolean firstIsRed = (g % GAMES) < Optimiser.GAMES;
+				int red = firstIsRed ? pair[0] : pair[1];
+				int yellow = firstIsRed ? pair[1] : pair[0];
+				if (winners[g] == 'R') { points[red][yellow] += 1; }
+				if (winners[g] == 'Y') { points[yellow][red] += 1; }
+				if (winners[g] == 'D') { points[red][yellow] += 0.5; points[yellow][red] += 0.5; }
+				played[red][yellow]++;
+				played[yellow][red]++;
+			}
+			gamesPlayed += winners.length;
+
+			long now = System.nanoTime();
+			if ((round == rounds - 1) || ((now - lastReport) >= reportSeconds * 1_000_000_000L)) {
+				lastReport = now;
+				System.out.println();
+				System.out.println("Round " + (round + 1) + " of " + rounds + ", " + gamesPlayed + " games in " + (float)((now - start) / 1e9) + " seconds");
+				printStandings();
+			}
+		}
+	}
+
+	// Stop the threads once the tournament is finished.
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	// Print every entrant, best first, with its rating, the 95% confidence interval, and its points from the games played so far.
+	public void printStandings() {
+		int n = entrants.size();
+		double[] ratings = new double[n];
+		double[] errors = new double[n];
+		rate(ratings, errors);
+		Integer[] ranking = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			ranking[i] = i;
+		}
+		Arrays.sort(ranking, (a, b) -> Double.compare(ratings[b], ratings[a]));
+		System.out.println("Rank Name             Elo     +/-   Points    Games  Weightings");
+		for (int r = 0; r < n; r++) {
+			int i = ranking[r];
+			double total = 0;
+			int games = 0;
+			for (int j = 0; j < n; j++) {
+				total += points[i][j];
+				games += played[i][j];
+			}
+			System.out.println(String.format("%4d %-14s %6.0f %6.0f %8.1f %8d  %s", r + 1, names.get(i), ratings[i], 1.96 * errors[i], total, games, entrants.get(i)));
+		}
+	}
+
+	// Fit the ratings and the standard error of each, in Elo points. The odds of i beating j are gamma[i] / gamma[j], and each step sets
+	// gamma[i] to the points i scored over the sum of games[i][j] / (gamma[i] + gamma[j]), which never lowers the likelihood.
+	private void rate(double[] ratings, double[] errors) {
+		int n = entrants.size();
+		double[][] score = new double[n][n];
+		double[][] games = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (played[i][j] > 0) {
+					score[i][j] = points[i][j] + 0.5;
+					games[i][j] = played[i][j] + 1;
+				}
+			}
+		}
+		double[] gamma = new double[n];
+		Arrays.fill(gamma, 1.0);
+		for (int iteration = 0; iteration < 10000; iteration++) {
+			double change = 0;
+			double logSum = 0;
+			for (int i = 0; i < n; i++) {
+				double won = 0;
+				double sum = 0;
+				for (int j = 0; j < n; j++) {
+					if (games[i][j] > 0) {
+						won += score[i][j];
+						sum += games[i][j] / (gamma[i] + gamma[j]);
+					}
+				}
+				double next = (sum > 0) ? won / sum : 1.0;
+				change = Math.max(change, Math.abs(Math.log(next / gamma[i])));
+				gamma[i] = next;
+				logSum += Math.log(next);
+			}
+			double scale = Math.exp(logSum / n);
+			for (int i = 0; i < n; i++) {
+				gamma[i] /= scale;
+			}
+			if (change < 1e-9) {
+				break;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			double information = 0;
+			for (int j = 0; j < n; j++) {
+				if (games[i][j] > 0) {
+					double p = gamma[i] / (gamma[i] + gamma[j]);
+					information += games[i][j] * p * (1 - p);
+				}
+			}
+			ratings[i] = ELO * Math.log(gamma[i]);
+			errors[i] = (information > 0) ? ELO / Math.sqrt(information) : Double.POSITIVE_INFINITY;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 transposition table
+//
+// Remembers the results of searching positions, so that a position reached again by a different order of moves, or in a later
+// search, doesn't have to be searched again. Each entry holds the score, whether the score is exact or only a bound, the depth
+// searched and the best move. The key is Position.key with the player to move added.
+//
+// A position and its reflection left to right share one entry, kept under the smaller of their keys (Position.canonicalKey), so
+// the table holds twice as many positions and a search finds the reflection of any position it has already searched. The best move
+// is saved for the canonical position and reflected back when the position looked up was the other one. The neural network scores
+// the two the same apart from the order the lines are added in, which can change the last bit.
+//
+// The table has a fixed size and is split into buckets of two entries. The first entry keeps the deepest search, as that saved the
+// most work, and the second is always replaced, so recent positions are kept as well.
+//
+// Many threads can read and write the table at once without locks. Each entry is three longs: the score, the other details, and the key
+// XORed with both. A reader checks that the key it works out from the three matches the position, so an entry that was half written
+// by another thread, or belongs to another position, is treated as missing.
+//
+// The scores depend on the weightings, so a table must only be used with one set of weightings, or cleared when they change.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TranspositionTable {
+	public static final int EXACT = 0;				// The score is exact.
+	public static final int LOWER = 1;				// The search was cut off, so the score is at least this.
+	public static final int UPPER = 2;				// No move reached alpha, so the score is at most this.
+
+	private static final int LONGS = 3;				// Longs in each entry: check, score and details.
+	private static final long USED = 1L << 13;		// Set in the details of every entry that has been written.
+	private static final long RED_TO_MOVE = 1L << 63;	// Added to the position key, which only uses 49 bits.
+
+	private final AtomicLongArray entries;
+	private final int bucketMask;
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder collisions = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+
+	// The details of one entry, filled in by probe. Each thread should use its own.
+	public static final class Entry {
+		public double score;
+		public int bound;
+		public int depth;
+		public int move;			// Best column, or -1 if there wasn't one.
+	}
+
+	// A table using about the number of megabytes given, rounded down to a power of two number of buckets.
+	public TranspositionTable(int megabytes) {
+		long buckets = Long.highestOneBit(Math.max(1L, (megabytes * 1024L * 1024L) / (2 * LONGS * 8)));
+		buckets = Math.min(buckets, 1L << 28);
+		entries = new AtomicLongArray((int)(buckets * 2 * LONGS));
+		bucketMask = (int)buckets - 1;
+	}
+
+	// The key for a position with the player given to move.
+	public static long key(Position position, char player) {
+		return (player == 'R') ? (position.key() | RED_TO_MOVE) : position.key();
+	}
+
+	// Look for a position. If it is found the entry is filled in and true is returned.
+	public boolean probe(long key, Entry entry) {
+		probes.increment();
+		long mirrored = Position.mirrorKey(key);
+		boolean reflect = mirrored < key;
+		if (reflect) {
+			key = mirrored;
+		}
+		int first = bucket(key);
+		boolean occupied = false;
+		for (int slot = first; slot < first + 2 * LONGS; slot += LONGS) {
+			long details = entries.getOpaque(slot + 2);
+			if (details == 0) {
+				continue;
+			}
+			long score = entries.getOpaque(slot + 1);
+			long check = entries.getOpaque(slot);
+			if ((check ^ score ^ details) == key) {
+				hits.increment();
+				entry.score = Double.longBitsToDouble(score);
+				entry.bound = (int)(details >>> 3) & 3;
+				entry.depth = (int)(details >>> 5) & 0xFF;
+				entry.move = (int)(details & 7) - 1;
+				if (reflect) {
+					entry.move = Position.mirrorMove(entry.move);
+				}
+				return true;
+			}
+			occupied = true;
+		}
+		if (occupied) {
+			collisions.increment();
+		}
+		return false;
+	}
+
+	// Save the result of a search. The first entry in the bucket is replaced if it holds the same position or one searched
+	// no deeper, otherwise the second entry is replaced.
+	public void store(long key, double score, int bound, int depth, int move) {
+		stores.increment();
+		long mirrored = Position.mirrorKey(key);
+		if (mirrored < key) {
+			key = mirrored;
+			move = Position.mirrorMove(move);
+		}
+		int slot = bucket(key);
+		long oldDetails = entries.getOpaque(slot + 2);
+		if (oldDetails != 0) {
+			long oldKey = entries.getOpaque(slot) ^ entries.getOpaque(slot + 1) ^ oldDetails;
+			int oldDepth = (int)(oldDetails >>> 5) & 0xFF;
+			if ((oldKey != key) && (oldDepth > depth)) {
+				slot += LONGS;
+			}
+		}
+		long scoreBits = Double.doubleToRawLongBits(score);
+		long details = USED | ((long)Math.min(Math.max(depth, 0), 0xFF) << 5) | ((long)bound << 3) | (move + 1);
+		entries.setOpaque(slot + 2, details);
+		entries.setOpaque(slot + 1, scoreBits);
+		entries.setOpaque(slot, key ^ scoreBits ^ details);
+	}
+
+	// Empty the table, for example when the weightings change. This must not be called while a search is using it.
+	public void clear() {
+		for (int i = 0; i < entries.length(); i++) {
+			entries.setOpaque(i, 0);
+		}
+		probes.reset();
+		hits.reset();
+		collisions.reset();
+		stores.reset();
+	}
+
+	public long probes() {
+		return probes.sum();
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	// Probes that missed while another position was using the bucket.
+	public long collisions() {
+		return collisions.sum();
+	}
+
+	public long stores() {
+		return stores.sum();
+	}
+
+	public double hitRate() {
+		long probed = probes.sum();
+		return (probed > 0) ? (double)hits.sum() / probed : 0;
+	}
+
+	public double collisionRate() {
+		long probed = probes.sum();
+		return (probed > 0) ? (double)collisions.sum() / probed : 0;
+	}
+
+	public int size() {
+		return entries.length() / LONGS;
+	}
+
+	// The fraction of entries in use. This looks at every entry, so it is meant for reports rather than during a search.
+	public double fill() {
+		long used = 0;
+		for (int i = 2; i < entries.length(); i += LONGS) {
+			if (entries.getOpaque(i) != 0) {
+				used++;
+			}
+		}
+		return (double)used / size();
+	}
+
+	// A one line summary of the statistics.
+	public String statistics() {
+		return "Table " + size() + " entries, " + probes() + " probes, hit rate " + (float)hitRate() + ", collision rate " + (float)collisionRate()
+			+ ", " + stores() + " stores, fill " + (float)fill();
+	}
+
+	// Spread the key over the buckets. The multiplier mixes all the bits of the key into the top bits, which are used to pick the bucket.
+	private int bucket(long key) {
+		int bucket = (int)((key * 0x9E3779B97F4A7C15L) >>> 36) & bucketMask;
+		return bucket * 2 * LONGS;
+	}
+}
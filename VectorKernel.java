@@ -0,0 +1,128 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 vector kernel
+//
+// The BatchEvaluator steps written with the Java Vector API, so each instruction works on as many positions as fit in a vector,
+// 8 with AVX-512, 4 with AVX2, or more with wide SVE. Each lane does exactly what the scalar kernel does for its position: the same additions and
+// multiplications in the same order, with the choices made by blending lanes instead of branching.
+//
+// The Vector API is still an incubator module, so this class is only loaded when Java is run with --add-modules jdk.incubator.vector.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernel implements BatchEvaluator.Kernel {
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Long> LONGS = VectorSpecies.of(long.class, DOUBLES.vectorShape());	// The same number of lanes.
+	private static final int CELLS = Position.WIDTH * Position.HEIGHT;
+
+	@Override
+	public int width() {
+		return DOUBLES.length();
+	}
+
+	@Override
+	public void evaluate(BatchEvaluator batch, int lanes) {
+		for (int i = 0; i < lanes; i += DOUBLES.length()) {
+			LongVector red = LongVector.fromArray(LONGS, batch.red, i);
+			LongVector yellow = LongVector.fromArray(LONGS, batch.yellow, i);
+			lineValues(batch, i, red, yellow);
+			combinedScores(batch, i, red.or(yellow));
+			selectMoves(batch, i, red.or(yellow));
+		}
+		batch.checkMoves(lanes);
+	}
+
+	// Line neurons. A line's count is its four place bits added together, and the power is picked by blending rather than by an index.
+	private static void lineValues(BatchEvaluator batch, int i, LongVector red, LongVector yellow) {
+		double[] powers = batch.powers;
+		for (int line = 0; line < Position.LINE_COUNT; line++) {
+			int[] cells = Position.lineCells(line);
+			LongVector countR = LongVector.zero(LONGS);
+			LongVector countY = LongVector.zero(LONGS);
+			for (int cell : cells) {
+				int shift = (cell / Position.HEIGHT) * Position.H1 + (cell % Position.HEIGHT);
+				countR = countR.add(red.lanewise(VectorOperators.LSHR, shift).and(1));
+				countY = countY.add(yellow.lanewise(VectorOperators.LSHR, shift).and(1));
+			}
+			LongVector openR = countR.blend(0, countY.compare(VectorOperators.NE, 0));
+			LongVector openY = countY.blend(0, countR.compare(VectorOperators.NE, 0));
+			DoubleVector valueR = DoubleVector.broadcast(DOUBLES, powers[0]);
+			DoubleVector valueY = DoubleVector.broadcast(DOUBLES, powers[0]);
+			for (int count = 1; count < powers.length; count++) {
+				valueR = valueR.blend(powers[count], openR.eq(count).cast(DOUBLES));
+				valueY = valueY.blend(powers[count], openY.eq(count).cast(DOUBLES));
+			}
+			valueR.intoArray(batch.valuesR, line * batch.capacity + i);
+			valueY.intoArray(batch.valuesY, line * batch.capacity + i);
+		}
+	}
+
+	// Combined score neurons, adding each direction's line values in the same order as the scalar kernel.
+	private static void combinedScores(BatchEvaluator batch, int i, LongVector mask) {
+		for (int cell = 0; cell < CELLS; cell++) {
+			long bit = Position.bit(cell / Position.HEIGHT, cell % Position.HEIGHT);
+			VectorMask<Double> played = mask.and(bit).compare(VectorOperators.NE, 0).cast(DOUBLES);
+			int[][] lines = BatchEvaluator.CELL_LINES[cell];
+			combine(batch, lines, batch.valuesR, i).blend(0.0, played).intoArray(batch.combinedScoresR, cell * batch.capacity + i);
+			combine(batch, lines, batch.valuesY, i).blend(0.0, played).intoArray(batch.combinedScoresY, cell * batch.capacity + i);
+		}
+	}
+
+	private static DoubleVector combine(BatchEvaluator batch, int[][] lines, double[] values, int i) {
+		DoubleVector columns = sum(batch, lines[0], values, i);
+		DoubleVector rows = sum(batch, lines[1], values, i);
+		DoubleVector diagonalsUp = sum(batch, lines[2], values, i);
+		DoubleVector diagonalsDown = sum(batch, lines[3], values, i);
+		return columns.mul(batch.vertical).add(rows.mul(batch.horizontal)).add(diagonalsUp.mul(batch.diagonal)).add(diagonalsDown.mul(batch.diagonal));
+	}
+
+	private static DoubleVector sum(BatchEvaluator batch, int[] lines, double[] values, int i) {
+		DoubleVector total = DoubleVector.zero(DOUBLES);
+		for (int line : lines) {
+			total = total.add(DoubleVector.fromArray(DOUBLES, values, line * batch.capacity + i));
+		}
+		return total;
+	}
+
+	// Column scores and the move. Each lane has its own next free row, so the score is worked out for every row of the column
+	// and the lane keeps the one for its row.
+	private static void selectMoves(BatchEvaluator batch, int i, LongVector mask) {
+		int capacity = batch.capacity;
+		VectorMask<Double> yellowToMove = LongVector.fromArray(LONGS, batch.yellowToMove, i).eq(1).cast(DOUBLES);
+		DoubleVector highest = DoubleVector.broadcast(DOUBLES, -1.0);
+		DoubleVector move = DoubleVector.broadcast(DOUBLES, 3.0);
+		for (int x = 0; x < Position.WIDTH; x++) {
+			LongVector height = LongVector.zero(LONGS);
+			for (int y = 0; y < Position.HEIGHT; y++) {
+				height = height.add(mask.lanewise(VectorOperators.LSHR, x * Position.H1 + y).and(1));
+			}
+			DoubleVector possible = DoubleVector.zero(DOUBLES);
+			for (int y = 0; y < Position.HEIGHT; y++) {
+				int cell = (x * Position.HEIGHT + y) * capacity + i;
+				DoubleVector scoreR = DoubleVector.fromArray(DOUBLES, batch.combinedScoresR, cell);
+				DoubleVector scoreY = DoubleVector.fromArray(DOUBLES, batch.combinedScoresY, cell);
+				DoubleVector own = scoreR.blend(scoreY, yellowToMove);
+				DoubleVector other = scoreY.blend(scoreR, yellowToMove);
+				DoubleVector score = own.add(other.mul(batch.oppntMove));
+				if (y < Position.HEIGHT - 1) {
+					DoubleVector aboveR = DoubleVector.fromArray(DOUBLES, batch.combinedScoresR, cell + capacity);
+					DoubleVector aboveY = DoubleVector.fromArray(DOUBLES, batch.combinedScoresY, cell + capacity);
+					score = score.sub(aboveY.blend(aboveR, yellowToMove).mul(batch.nextMove));
+				}
+				possible = possible.blend(score, height.eq(y).cast(DOUBLES));
+			}
+			VectorMask<Double> better = possible.compare(VectorOperators.GT, highest).and(height.lt(Position.HEIGHT).cast(DOUBLES));
+			highest = highest.blend(possible, better);
+			move = move.blend((double)x, better);
+			possible.intoArray(batch.possibles, x * capacity + i);
+		}
+		for (int lane = 0; lane < DOUBLES.length(); lane++) {
+			batch.moves[i + lane] = (int)move.lane(lane);
+		}
+	}
+}
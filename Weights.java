@@ -0,0 +1,173 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 neural network weightings
+//
+// One set of the six weightings used by the neural network. A set never changes once it has been made, so the same set can be used by
+// any number of games or threads at once. Optimisation makes a new set for each trial instead of changing the weightings in place.
+//
+// The weightings an optimisation finishes with are saved in FILE, Connect4.weights, as the six numbers separated by commas in full
+// precision. The game and the move server load them from there when they start, so tuned weightings are used without recompiling.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class Weights {
+	public static final String FILE = "Connect4.weights";
+
+	// The default values below have been selected after optimisation.
+	public static final double 	PIECESDEFAULT = 6.0; 					// (x from documentation) Now not optimised
+	public static final double	HORIZONTALDEFAULT = 1.0;				// (h from documentation)
+	public static final double	VERTICALDEFAULT = 1.0;					// (v documentation)
+	public static final double	DIAGONALDEFAULT = 1.0;					// (d from documentation)
+	public static final double	OPPNTMOVEDEFAULT = 0.5; 				// (o from documentation)
+	public static final double	NEXTMOVEDEFAULT = 0.5;					// (n from documentation)
+
+	private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");	// A number in the text read by parse.
+
+	public static final Weights DEFAULT = new Weights(PIECESDEFAULT, HORIZONTALDEFAULT, VERTICALDEFAULT, DIAGONALDEFAULT, OPPNTMOVEDEFAULT, NEXTMOVEDEFAULT);
+
+	private final double pieces;			// Number which is raised to the count of pieces 1, 2 or 3, so for 4.0 this would give 64 for 3 pieces.
+	private final double horizontal;		// Horizontal scores are multiplied by this weighting.
+	private final double vertical;			// Weighting for verticals.
+	private final double diagonal;			// Weighting for diagonals.
+	private final double oppntMove;			// Weighting for the opponent's score in the same place, as it is a good idea to block the opponent.
+	private final double nextMove;			// Weighting to multiply the score for the following move, before it is subtracted from the score for this move.
+	private final double[] powers;			// pieces^0 up to a line as long as the largest geometry allows, which replaces Math.pow.
+
+	public Weights(double pieces, double horizontal, double vertical, double diagonal, double oppntMove, double nextMove) {
+		this.pieces = pieces;
+		this.horizontal = horizontal;
+		this.vertical = vertical;
+		this.diagonal = diagonal;
+		this.oppntMove = oppntMove;
+		this.nextMove = nextMove;
+		powers = new double[Geometry.MAX_SIZE + 1];
+		for (int count = 0; count < powers.length; count++) {
+			powers[count] = Math.pow(pieces, (double)count);
+		}
+	}
+
+	// Read a set of weightings from text holding the six numbers in order, either separated by commas as in "6,1,1,1,0.5,0.5"
+	// or in the format printed by toString and optimisation.
+	public static Weights parse(String text) {
+		double[] values = new double[6];
+		int count = 0;
+		Matcher number = NUMBER.matcher(text);
+		while (number.find()) {
+			if (count == values.length) {
+				throw new IllegalArgumentException("More than six weightings in \"" + text + "\"");
+			}
+			values[count++] = Double.parseDouble(number.group());
+		}
+		if (count < values.length) {
+			throw new IllegalArgumentException("Fewer than six weightings in \"" + text + "\"");
+		}
+		return new Weights(values[0], values[1], values[2], values[3], values[4], values[5]);
+	}
+
+	// Read weightings written by save.
+	public static Weights load(Path file) throws IOException {
+		try {
+			return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	// The weightings in a file, or the defaults if there is no file. Any other problem is reported and the defaults used.
+	public static Weights open(Path file) {
+		try {
+			return load(file);
+		}
+		catch (NoSuchFileException e) {
+			// No weightings have been saved, so the defaults are used.
+		}
+		catch (IOException e) {
+			System.err.println("Weightings " + file + " not used: " + e.getMessage());
+		}
+		return DEFAULT;
+	}
+
+	// Write the weightings to a file, replacing it in one step so a program reading it never sees half a file.
+	public void save(Path file) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporary, (toNumbers() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// The six weightings separated by commas in full precision, which parse reads back exactly.
+	public String toNumbers() {
+		return pieces + "," + horizontal + "," + vertical + "," + diagonal + "," + oppntMove + "," + nextMove;
+	}
+
+	public double pieces() {
+		return pieces;
+	}
+
+	public double horizontal() {
+		return horizontal;
+	}
+
+	public double vertical() {
+		return vertical;
+	}
+
+	public double diagonal() {
+		return diagonal;
+	}
+
+	public double oppntMove() {
+		return oppntMove;
+	}
+
+	public double nextMove() {
+		return nextMove;
+	}
+
+	// The pieces weighting raised to the count of pieces in a line, 0 to 4 on the standard board.
+	public double power(int count) {
+		return powers[count];
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Weights)) {
+			return false;
+		}
+		Weights weights = (Weights)other;
+		return (Double.compare(pieces, weights.pieces) == 0) && (Double.compare(horizontal, weights.horizontal) == 0)
+			&& (Double.compare(vertical, weights.vertical) == 0) && (Double.compare(diagonal, weights.diagonal) == 0)
+			&& (Double.compare(oppntMove, weights.oppntMove) == 0) && (Double.compare(nextMove, weights.nextMove) == 0);
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = fingerprint();
+		return (int)(bits ^ (bits >>> 32));
+	}
+
+	// A 64 bit number made from all the weightings, saved in files that depend on them so a file made with other weightings can be spotted.
+	public long fingerprint() {
+		long bits = Double.doubleToLongBits(pieces);
+		bits = bits * 31 + Double.doubleToLongBits(horizontal);
+		bits = bits * 31 + Double.doubleToLongBits(vertical);
+		bits = bits * 31 + Double.doubleToLongBits(diagonal);
+		bits = bits * 31 + Double.doubleToLongBits(oppntMove);
+		bits = bits * 31 + Double.doubleToLongBits(nextMove);
+		return bits;
+	}
+
+	// The weightings to one decimal place, in the format printed by optimisation.
+	@Override
+	public String toString() {
+		return "Pieces " + (float)((int)(pieces*10)/10.0) + " Horizontal " + (float)((int)(horizontal*10)/10.0) + " Vertical " + (float)((int)(vertical*10)/10.0) + " Diagonal " + (float)((int)(diagonal*10)/10.0) + " OppntMove " + (float)((int)(oppntMove*10)/10.0) + " NextMove " + (float)((int)(nextMove*10)/10.0);
+	}
+}
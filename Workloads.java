@@ -0,0 +1,235 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 benchmark workloads
+//
+// The engine's hot paths, each run over the same fixed set of positions so results can be compared between versions.
+// The positions are taken from self play games with a fixed seed, one every few moves, so they cover the opening, middle and end of the game.
+//
+// The benchmarks module uses JMH, which can't use classes outside a package, and these classes have no package. So each workload
+// is handed out as an IntSupplier: the benchmark looks the workload up by name once, then calls it directly.
+// Each call works through the whole set of positions and returns a total, so the work can't be optimised away.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+public final class Workloads {
+	public static final int POSITIONS = 1024;			// Positions in the set.
+	private static final long SEED = 20240314;
+
+	private Workloads() {
+	}
+
+	// The fixed set of positions, with the player to move in each.
+	public static final class Corpus {
+		public final Position[] positions = new Position[POSITIONS];
+		public final char[] players = new char[POSITIONS];
+		public final Evaluator[] evaluators = new Evaluator[POSITIONS];		// Each position already loaded with the default weightings.
+	}
+
+	// Play games where each move is the computer's choice, or now and then a random move so the games differ,
+	// and keep every third position until there are enough.
+	public static Corpus corpus() {
+		Corpus corpus = new Corpus();
+		Random random = new Random(SEED);
+		Evaluator game = new Evaluator(Weights.DEFAULT);
+		int kept = 0;
+		while (kept < POSITIONS) {
+			game.clear();
+			char player = random.nextBoolean() ? 'R' : 'Y';
+			while ((game.position().gameEnded() == ' ') && (kept < POSITIONS)) {
+				int move = (random.nextInt(4) == 0) ? random.nextInt(Position.WIDTH) : game.selectMove(player);
+				if (game.position().isFull(move)) {
+					continue;
+				}
+				game.play(move, player);
+				player = (player == 'R') ? 'Y' : 'R';
+				if ((game.position().gameEnded() == ' ') && (random.nextInt(3) == 0)) {
+					corpus.positions[kept] = new Position(game.position());
+					corpus.players[kept] = player;
+					corpus.evaluators[kept] = new Evaluator(Weights.DEFAULT);
+					corpus.evaluators[kept].load(game.position(), Weights.DEFAULT);
+					kept++;
+				}
+			}
+		}
+		return corpus;
+	}
+
+	// Workloads on a board of any geometry, such as "10x8" or "9x7x5", for GeometryBenchmark to show how the speed scales with the area.
+	// geometrySelectMove chooses a move in each of GEOMETRY_POSITIONS positions. geometrySearch searches GEOMETRY_SEARCHES of them
+	// GEOMETRY_DEPTH moves ahead. The positions come from games played as for corpus().
+	public static final int GEOMETRY_POSITIONS = 256;
+	public static final int GEOMETRY_SEARCHES = 16;
+	public static final int GEOMETRY_DEPTH = 5;
+
+	public static IntSupplier geometryWorkload(String name, String geometryText) {
+		Geometry geometry = Geometry.parse(geometryText);
+		Random random = new Random(SEED);
+		Evaluator game = new Evaluator(geometry, Weights.DEFAULT);
+		Evaluator[] evaluators = new Evaluator[GEOMETRY_POSITIONS];
+		char[] players = new char[GEOMETRY_POSITIONS];
+		int kept = 0;
+		while (kept < GEOMETRY_POSITIONS) {
+			game.clear();
+			char player = random.nextBoolean() ? 'R' : 'Y';
+			while ((game.gameEnded() == ' ') && (kept < GEOMETRY_POSITIONS)) {
+				int move = (random.nextInt(4) == 0) ? random.nextInt(geometry.width()) : game.selectMove(player);
+				if (game.play(move, player) < 0) {
+					continue;
+				}
+				player = (player == 'R') ? 'Y' : 'R';
+				if ((game.gameEnded() == ' ') && (random.nextInt(3) == 0)) {
+					evaluators[kept] = new Evaluator(geometry, Weights.DEFAULT);
+					evaluators[kept].load(game);
+					players[kept] = player;
+					kept++;
+				}
+			}
+		}
+		switch (name) {
+			case "geometrySelectMove":
+				return () -> {
+					int total = 0;
+					for (int i = 0; i < GEOMETRY_POSITIONS; i++) {
+						total += evaluators[i].selectMove(players[i]);
+					}
+					return total;
+				};
+			case "geometrySearch":
+				Search search = new Search(new Evaluator(geometry, Weights.DEFAULT), null, 0);		// No solver, so 7x6 searches as the others do.
+				return () -> {
+					int total = 0;
+					for (int i = 0; i < GEOMETRY_SEARCHES; i++) {
+						int p = i * (GEOMETRY_POSITIONS / GEOMETRY_SEARCHES);
+						total += search.bestMove(evaluators[p], players[p], GEOMETRY_DEPTH);
+					}
+					return total;
+				};
+			default:
+				throw new IllegalArgumentException("No geometry workload called " + name);
+		}
+	}
+
+	// The names of all the workloads, for the benchmark to look up.
+	public static List<String> names() {
+		List<String> names = new ArrayList<>();
+		names.add("gameEnded");
+		names.add("doWinningColumns");
+		names.add("doWinningRows");
+		names.add("doWinningDiagonalsUp");
+		names.add("doWinningDiagonalsDown");
+		names.add("doCombinedScores");
+		names.add("selectMove");
+		names.add("calculateMove");
+		names.add("loadAndSelectMove");
+		names.add("batchSelectMoveScalar");
+		names.add("batchSelectMoveVector");
+		names.add("selfPlayGame");
+		return names;
+	}
+
+	// The workload with the name given. Each call of the self play game workload plays one game, the others go through every position.
+	public static IntSupplier workload(String name) {
+		Corpus corpus = corpus();
+		Position[] positions = corpus.positions;
+		char[] players = corpus.players;
+		Evaluator[] evaluators = corpus.evaluators;
+		switch (name) {
+			case "gameEnded":
+				return () -> {
+					int total = 0;
+					for (int i = 0; i < POSITIONS; i++) {
+						total += positions[i].gameEnded();
+					}
+					return total;
+				};
+			case "doWinningColumns":
+				return () -> {
+					for (int i = 0; i < POSITIONS; i++) {
+						evaluators[i].doWinningColumns();
+					}
+					return evaluators[POSITIONS - 1].lineCountR(Position.COLUMN_LINES);
+				};
+			case "doWinningRows":
+				return () -> {
+					for (int i = 0; i < POSITIONS; i++) {
+						evaluators[i].doWinningRows();
+					}
+					return evaluators[POSITIONS - 1].lineCountR(Position.ROW_LINES);
+				};
+			case "doWinningDiagonalsUp":
+				return () -> {
+					for (int i = 0; i < POSITIONS; i++) {
+						evaluators[i].doWinningDiagonalsUp();
+					}
+					return evaluators[POSITIONS - 1].lineCountR(Position.UP_LINES);
+				};
+			case "doWinningDiagonalsDown":
+				return () -> {
+					for (int i = 0; i < POSITIONS; i++) {
+						evaluators[i].doWinningDiagonalsDown();
+					}
+					return evaluators[POSITIONS - 1].lineCountR(Position.DOWN_LINES);
+				};
+			case "doCombinedScores":
+				return () -> {
+					for (int i = 0; i < POSITIONS; i++) {
+						evaluators[i].doCombinedScores();
+					}
+					return (int)evaluators[POSITIONS - 1].combinedScoreR(3, 0);
+				};
+			case "selectMove":
+				return () -> {
+					int total = 0;
+					for (int i = 0; i < POSITIONS; i++) {
+						total += evaluators[i].selectMove(players[i]);
+					}
+					return total;
+				};
+			case "calculateMove":
+				// The move is taken back again so every call starts from the same positions.
+				return () -> {
+					int total = 0;
+					for (int i = 0; i < POSITIONS; i++) {
+						int move = evaluators[i].calculateMove(players[i]);
+						evaluators[i].undo(move);
+						total += move;
+					}
+					return total;
+				};
+			case "loadAndSelectMove":
+				// Every neuron worked out from the board, one position at a time, as Engine.answer does.
+				Evaluator single = new Evaluator(Weights.DEFAULT);
+				return () -> {
+					int total = 0;
+					for (int i = 0; i < POSITIONS; i++) {
+						single.load(positions[i], Weights.DEFAULT);
+						total += single.selectMove(players[i]);
+					}
+					return total;
+				};
+			case "batchSelectMoveScalar":
+			case "batchSelectMoveVector":
+				// The same work as loadAndSelectMove, all in one batch. The vector kernel is only used if Java has the Vector API module.
+				BatchEvaluator batch = new BatchEvaluator(Weights.DEFAULT, POSITIONS, name.equals("batchSelectMoveVector"));
+				int[] moves = new int[POSITIONS];
+				return () -> {
+					batch.selectMoves(positions, players, POSITIONS, moves);
+					int total = 0;
+					for (int i = 0; i < POSITIONS; i++) {
+						total += moves[i];
+					}
+					return total;
+				};
+			case "selfPlayGame":
+				SelfPlay selfPlay = new SelfPlay();
+				int[] game = new int[1];
+				return () -> selfPlay.playGame(Weights.DEFAULT, Weights.DEFAULT, game[0]++ % 14);
+			default:
+				throw new IllegalArgumentException("No workload called " + name);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 benchmark runner
+//
+// java -jar benchmarks.jar runs every benchmark and writes the results to jmh-result.json, which can be kept to compare releases.
+// Any command line arguments are passed to JMH instead, for example -rf json -rff other.json selectMove.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package connect4.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public final class BenchmarkMain {
+	public static final String RESULTS = "jmh-result.json";
+
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		Options options = new OptionsBuilder()
+			.include(EngineBenchmark.class.getName())
+			.include(GeometryBenchmark.class.getName())
+			.resultFormat(ResultFormatType.JSON)
+			.result(RESULTS)
+			.build();
+		new Runner(options).run();
+	}
+}
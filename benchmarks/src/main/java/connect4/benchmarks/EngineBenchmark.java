@@ -0,0 +1,146 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 engine benchmarks
+//
+// JMH benchmarks of the engine's hot paths over the fixed set of positions in Workloads, so a change in speed can be measured.
+// Times are per position, except the self play game which is per game.
+// The benchmark JVM is given the Vector API module so that batchSelectMoveVector can use it.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package connect4.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class EngineBenchmark {
+	private static final int POSITIONS = 1024;		// Must match Workloads.POSITIONS.
+
+	private IntSupplier gameEnded;
+	private IntSupplier doWinningColumns;
+	private IntSupplier doWinningRows;
+	private IntSupplier doWinningDiagonalsUp;
+	private IntSupplier doWinningDiagonalsDown;
+	private IntSupplier doCombinedScores;
+	private IntSupplier selectMove;
+	private IntSupplier calculateMove;
+	private IntSupplier loadAndSelectMove;
+	private IntSupplier batchSelectMoveScalar;
+	private IntSupplier batchSelectMoveVector;
+	private IntSupplier selfPlayGame;
+
+	@Setup
+	public void setup() {
+		gameEnded = workload("gameEnded");
+		doWinningColumns = workload("doWinningColumns");
+		doWinningRows = workload("doWinningRows");
+		doWinningDiagonalsUp = workload("doWinningDiagonalsUp");
+		doWinningDiagonalsDown = workload("doWinningDiagonalsDown");
+		doCombinedScores = workload("doCombinedScores");
+		selectMove = workload("selectMove");
+		calculateMove = workload("calculateMove");
+		loadAndSelectMove = workload("loadAndSelectMove");
+		batchSelectMoveScalar = workload("batchSelectMoveScalar");
+		batchSelectMoveVector = workload("batchSelectMoveVector");
+		selfPlayGame = workload("selfPlayGame");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int gameEnded() {
+		return gameEnded.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int doWinningColumns() {
+		return doWinningColumns.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int doWinningRows() {
+		return doWinningRows.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int doWinningDiagonalsUp() {
+		return doWinningDiagonalsUp.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int doWinningDiagonalsDown() {
+		return doWinningDiagonalsDown.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int doCombinedScores() {
+		return doCombinedScores.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int selectMove() {
+		return selectMove.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int calculateMove() {
+		return calculateMove.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int loadAndSelectMove() {
+		return loadAndSelectMove.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int batchSelectMoveScalar() {
+		return batchSelectMoveScalar.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int batchSelectMoveVector() {
+		return batchSelectMoveVector.getAsInt();
+	}
+
+	@Benchmark
+	public int selfPlayGame() {
+		return selfPlayGame.getAsInt();
+	}
+
+	// The engine classes have no package, so they can't be named here. The workload is looked up once by name,
+	// and after that each call goes straight to it.
+	private static IntSupplier workload(String name) {
+		try {
+			return (IntSupplier)Class.forName("Workloads").getMethod("workload", String.class).invoke(null, name);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to load the " + name + " workload", e);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 geometry benchmarks
+//
+// How the evaluation and the search for any geometry scale with the size of the board and the length of the lines, over the positions
+// in Workloads.geometryWorkload. selectMove times are per position and search times are per search, 5 moves ahead.
+// The standard 7x6 board is included so it can be compared with selectMove in EngineBenchmark, which uses the fixed engine.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package connect4.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+	private static final int POSITIONS = 256;		// Must match Workloads.GEOMETRY_POSITIONS.
+	private static final int SEARCHES = 16;			// Must match Workloads.GEOMETRY_SEARCHES.
+
+	@Param({"7x6", "8x7", "9x7", "10x8", "9x7x5"})
+	public String geometry;
+
+	private IntSupplier geometrySelectMove;
+	private IntSupplier geometrySearch;
+
+	@Setup
+	public void setup() {
+		geometrySelectMove = workload("geometrySelectMove", geometry);
+		geometrySearch = workload("geometrySearch", geometry);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POSITIONS)
+	public int geometrySelectMove() {
+		return geometrySelectMove.getAsInt();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SEARCHES)
+	public int geometrySearch() {
+		return geometrySearch.getAsInt();
+	}
+
+	// As in EngineBenchmark, the workload is looked up once by name because the engine classes have no package.
+	private static IntSupplier workload(String name, String geometry) {
+		try {
+			return (IntSupplier)Class.forName("Workloads").getMethod("geometryWorkload", String.class, String.class).invoke(null, name, geometry);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to load the " + name + " workload for " + geometry, e);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 allocation test
+//
+// Evaluator and NeuralNetwork pick a move without allocating anything on the heap, which keeps self play free of garbage collection.
+// Each plays games until the compiler has settled on its code, then plays more while this thread's allocation counter is read, which
+// must not move. The earlier tests leave Evaluator compiled for other work, and code that is compiled again part way through can
+// allocate a few bytes once, so it gets a long warm up, and the counter is read around that too.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class AllocationTest {
+	private static com.sun.management.ThreadMXBean threads;
+
+	@BeforeAll
+	static void countAllocation() {
+		threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		assertTrue(threads.isThreadAllocatedMemorySupported(), "this JVM doesn't count the memory each thread allocates");
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	void evaluatorMovesDoNotAllocate() {
+		Random random = new Random(1);
+		Evaluator red = new Evaluator(Weights.DEFAULT);
+		Evaluator yellow = new Evaluator(new Weights(random.nextDouble() * 7.0 + 1.01, random.nextDouble() * 1.5 + 0.51,
+			random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51));
+		allocated();
+		playEvaluatorGames(red, yellow, 10000);
+		allocated();
+		long before = allocated();
+		int moves = playEvaluatorGames(red, yellow, 2000);
+		long after = allocated();
+		assertEquals(0, after - before, "bytes allocated by Evaluator.calculateMove over " + moves + " moves");
+	}
+
+	@Test
+	void networkMovesDoNotAllocate() {
+		NeuralNetwork network = NeuralNetwork.random(64, 32, 1);
+		Position board = new Position();
+		allocated();
+		playNetworkGames(network, board, 200);
+		allocated();
+		long before = allocated();
+		int moves = playNetworkGames(network, board, 200);
+		long after = allocated();
+		assertEquals(0, after - before, "bytes allocated by NeuralNetwork.selectMove over " + moves + " moves");
+	}
+
+	// The first read of the counter can allocate, so it is read twice.
+	private static long allocated() {
+		threads.getCurrentThreadAllocatedBytes();
+		return threads.getCurrentThreadAllocatedBytes();
+	}
+
+	// Play games from each opening as optimisation does, each evaluator following the other's moves, and return the moves made.
+	private static int playEvaluatorGames(Evaluator red, Evaluator yellow, int games) {
+		int moves = 0;
+		for (int z = 0; z < games; z++) {
+			red.clear();
+			yellow.clear();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			red.play(z%7, player);
+			yellow.play(z%7, player);
+			while (red.position().gameEnded() == ' ') {
+				player = (player == 'R') ? 'Y' : 'R';
+				if (player == 'R') {
+					yellow.play(red.calculateMove('R'), 'R');
+				}
+				else {
+					red.play(yellow.calculateMove('Y'), 'Y');
+				}
+				moves++;
+			}
+		}
+		return moves;
+	}
+
+	// Play the network against itself from each opening, and return the moves made.
+	private static int playNetworkGames(NeuralNetwork network, Position board, int games) {
+		int moves = 0;
+		for (int z = 0; z < games; z++) {
+			board.clear();
+			char player = (z%2 == 0) ? 'R' : 'Y';
+			board.play(z%7, player);
+			while (board.gameEnded() == ' ') {
+				player = (player == 'R') ? 'Y' : 'R';
+				board.play(network.selectMove(board, player), player);
+				moves++;
+			}
+		}
+		return moves;
+	}
+}
@@ -0,0 +1,89 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 batch evaluator test
+//
+// Puts positions from random games, full and won boards among them, through BatchEvaluator with the scalar kernel and with the vector
+// kernel, which the build's tests are run with, and compares each move, column score and combined score with Evaluator's for the same board.
+// A failure names the kernel, the weightings, the board and the player.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BatchEvaluatorTest {
+	private static final int POSITIONS = 3000;
+	private static final int CAPACITY = 1000;
+
+	@Test
+	void vectorKernelIsAvailable() {
+		assertTrue(BatchEvaluator.vectorAvailable(), "the tests should be run with --add-modules jdk.incubator.vector");
+	}
+
+	@Test
+	void scalarKernelMatchesSelectMove() {
+		assertKernelMatchesSelectMove(false, new Random(1));
+	}
+
+	@Test
+	void vectorKernelMatchesSelectMove() {
+		assertKernelMatchesSelectMove(true, new Random(2));
+	}
+
+	private static void assertKernelMatchesSelectMove(boolean vector, Random random) {
+		Position[] positions = new Position[POSITIONS];
+		char[] players = new char[POSITIONS];
+		Position board = new Position();
+		char player = 'R';
+		for (int i = 0; i < POSITIONS; i++) {
+			if (board.gameEnded() != ' ') {
+				board.clear();
+			}
+			if (board.play(random.nextInt(Position.WIDTH), player) >= 0) {
+				player = (player == 'R') ? 'Y' : 'R';
+			}
+			positions[i] = new Position(board);
+			players[i] = (random.nextInt(8) == 0) ? 'R' : board.toMove();		// Now and then the wrong player, as the batch must take any.
+		}
+		BatchEvaluator batch = new BatchEvaluator(Weights.DEFAULT, CAPACITY, vector);
+		String kernel = batch.vectorised() ? "vector" : "scalar";
+		Evaluator single = new Evaluator(Weights.DEFAULT);
+		for (Weights weights : new Weights[] {Weights.DEFAULT, randomWeights(random), randomWeights(random)}) {
+			batch.setWeights(weights);
+			for (int start = 0; start < POSITIONS; start += CAPACITY) {
+				batch.clear();
+				for (int i = start; i < start + CAPACITY; i++) {
+					batch.add(positions[i], players[i]);
+				}
+				batch.evaluate();
+				for (int i = start; i < start + CAPACITY; i++) {
+					single.load(positions[i], weights);
+					String where = kernel + " kernel, " + weights + ", board \"" + positions[i].toBoardString() + "\" with " + players[i] + " to move";
+					assertSameAnswer(single, single.selectMove(players[i]), batch, i - start, where);
+				}
+			}
+		}
+	}
+
+	// The move, every column score and every combined score must be exactly the same.
+	private static void assertSameAnswer(Evaluator single, int move, BatchEvaluator batch, int index, String where) {
+		assertEquals(move, batch.move(index), () -> where + ": move");
+		for (int x = 0; x < Position.WIDTH; x++) {
+			int column = x;
+			assertEquals(single.possible(x), batch.possible(index, x), () -> where + ": score of column " + (column + 1));
+			for (int y = 0; y < Position.HEIGHT; y++) {
+				String place = "column " + (x + 1) + " row " + (y + 1);
+				assertEquals(single.combinedScoreR(x, y), batch.combinedScoreR(index, x, y), () -> where + ": red combined score at " + place);
+				assertEquals(single.combinedScoreY(x, y), batch.combinedScoreY(index, x, y), () -> where + ": yellow combined score at " + place);
+			}
+		}
+	}
+
+	private static Weights randomWeights(Random random) {
+		return new Weights(random.nextDouble() * 7.0 + 1.01, random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51,
+			random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51);
+	}
+}
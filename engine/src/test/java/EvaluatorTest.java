@@ -0,0 +1,98 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 evaluator test
+//
+// Plays random games, taking about one move in four back, and after every change compares each line count, combined score and column
+// score of the incrementally updated evaluator with a new one loaded from the same board. This is done for the default weightings and
+// two random ones. A failure names the weightings, the change and the board.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class EvaluatorTest {
+	private static final int GAMES = 300;
+
+	@Test
+	void incrementalNeuronsMatchFullRecalculation() {
+		Random random = new Random(1);
+		for (Weights weights : new Weights[] {Weights.DEFAULT, randomWeights(random), randomWeights(random)}) {
+			Evaluator incremental = new Evaluator(weights);
+			Evaluator full = new Evaluator(weights);
+			for (int game = 0; game < GAMES; game++) {
+				incremental.clear();
+				char player = (game % 2 == 0) ? 'R' : 'Y';
+				while (incremental.gameEnded() == ' ') {
+					int x = random.nextInt(Position.WIDTH);
+					if (incremental.play(x, player) < 0) {
+						continue;
+					}
+					String change = player + " played in column " + (x + 1);
+					if (random.nextInt(4) == 0) {
+						incremental.undo(x);
+						change += " and taken back";
+					}
+					else {
+						player = (player == 'R') ? 'Y' : 'R';
+					}
+					full.load(incremental.position(), weights);
+					assertSameNeurons(full, incremental, player, weights + ", " + change + ", board \"" + incremental.toBoardString() + "\"");
+				}
+			}
+		}
+	}
+
+	@Test
+	void undoingEveryMoveGivesAnEmptyBoard() {
+		Random random = new Random(2);
+		Evaluator played = new Evaluator(Weights.DEFAULT);
+		Evaluator empty = new Evaluator(Weights.DEFAULT);
+		for (int game = 0; game < GAMES; game++) {
+			played.clear();
+			int[] moves = new int[Position.WIDTH * Position.HEIGHT];
+			int count = 0;
+			char player = 'R';
+			while (played.gameEnded() == ' ') {
+				int x = random.nextInt(Position.WIDTH);
+				if (played.play(x, player) >= 0) {
+					moves[count++] = x;
+					player = (player == 'R') ? 'Y' : 'R';
+				}
+			}
+			String board = played.toBoardString();
+			while (count > 0) {
+				played.undo(moves[--count]);
+			}
+			assertSameNeurons(empty, played, 'R', "every move of \"" + board + "\" taken back");
+		}
+	}
+
+	// The line counts, the combined scores of every place, and the move and column scores selectMove gives the player.
+	private static void assertSameNeurons(Evaluator expected, Evaluator actual, char player, String where) {
+		for (int line = 0; line < Position.LINE_COUNT; line++) {
+			int l = line;
+			assertEquals(expected.lineCountR(line), actual.lineCountR(line), () -> where + ": red count of line " + l);
+			assertEquals(expected.lineCountY(line), actual.lineCountY(line), () -> where + ": yellow count of line " + l);
+		}
+		for (int x = 0; x < Position.WIDTH; x++) {
+			for (int y = 0; y < Position.HEIGHT; y++) {
+				String place = "column " + (x + 1) + " row " + (y + 1);
+				assertEquals(expected.combinedScoreR(x, y), actual.combinedScoreR(x, y), () -> where + ": red combined score at " + place);
+				assertEquals(expected.combinedScoreY(x, y), actual.combinedScoreY(x, y), () -> where + ": yellow combined score at " + place);
+			}
+		}
+		assertEquals(expected.selectMove(player), actual.selectMove(player), () -> where + ": move for " + player);
+		for (int x = 0; x < Position.WIDTH; x++) {
+			int column = x;
+			assertEquals(expected.possible(x), actual.possible(x), () -> where + ": score of column " + (column + 1) + " for " + player);
+		}
+	}
+
+	private static Weights randomWeights(Random random) {
+		return new Weights(random.nextDouble() * 7.0 + 1.01, random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51,
+			random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51, random.nextDouble() * 1.5 + 0.51);
+	}
+}
@@ -0,0 +1,120 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 geometry test
+//
+// Checks that the generated line tables match Position, that Evaluator and Search give exactly the same moves and scores on the
+// standard board whether it is kept in a Position or a Board, and that the incremental neurons match a full recalculation on other boards.
+// A failure names the geometry and the board.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class GeometryTest {
+	@Test
+	void lineTablesMatchPosition() {
+		Geometry standard = Geometry.STANDARD;
+		assertEquals(Position.LINE_COUNT, standard.lineCount(), "number of lines");
+		for (int line = 0; line < Position.LINE_COUNT; line++) {
+			int l = line;
+			assertArrayEquals(Position.lineCells(line), standard.lineCells(line), () -> "places in line " + l);
+		}
+		for (int cell = 0; cell < standard.cells(); cell++) {
+			int c = cell;
+			assertArrayEquals(Position.cellLines(cell), standard.cellLines(cell), () -> "lines through place " + c);
+		}
+	}
+
+	@Test
+	void boardGivesTheSameAnswersAsBitboard() {
+		Random random = new Random(1);
+		Evaluator bitboard = new Evaluator(Weights.DEFAULT);
+		Evaluator general = new Evaluator(Geometry.STANDARD, Weights.DEFAULT, false);
+		Search bitboardSearch = new Search(new Evaluator(Weights.DEFAULT), null, 0);
+		Search generalSearch = new Search(new Evaluator(Geometry.STANDARD, Weights.DEFAULT, false), null, 0);
+		for (int game = 0; game < 300; game++) {
+			bitboard.clear();
+			general.clear();
+			char player = (game % 2 == 0) ? 'R' : 'Y';
+			while (bitboard.gameEnded() == ' ') {
+				int move = random.nextInt(Position.WIDTH);
+				if (bitboard.play(move, player) < 0) {
+					continue;
+				}
+				general.play(move, player);
+				player = (player == 'R') ? 'Y' : 'R';
+				String where = Geometry.STANDARD + " board \"" + bitboard.toBoardString() + "\" with " + player + " to move";
+				assertEquals(bitboard.gameEnded(), general.gameEnded(), () -> where + ": result");
+				if (bitboard.gameEnded() != ' ') {
+					break;
+				}
+				assertEquals(bitboard.selectMove(player), general.selectMove(player), () -> where + ": move");
+				for (int x = 0; x < Position.WIDTH; x++) {
+					int column = x;
+					assertEquals(bitboard.possible(column), general.possible(column), () -> where + ": score of column " + (column + 1));
+					if (!bitboard.isFull(column)) {
+						assertEquals(bitboard.isWinningMove(column, player), general.isWinningMove(column, player),
+							() -> where + ": winning move in column " + (column + 1));
+					}
+				}
+				assertSameScores(bitboard, general, where);
+				if (game < 30) {
+					assertEquals(bitboardSearch.bestMove(bitboard, player, 4), generalSearch.bestMove(general, player, 4), () -> where + ": search move");
+					assertEquals(bitboardSearch.score(), generalSearch.score(), () -> where + ": search score");
+				}
+			}
+		}
+	}
+
+	@Test
+	void incrementalNeuronsMatchFullRecalculationOnOtherBoards() {
+		Random random = new Random(2);
+		for (Geometry geometry : new Geometry[] {new Geometry(8, 7, 4), new Geometry(10, 8, 4), new Geometry(9, 7, 5), new Geometry(5, 4, 3)}) {
+			Evaluator incremental = new Evaluator(geometry, Weights.DEFAULT);
+			Evaluator full = new Evaluator(geometry, Weights.DEFAULT);
+			for (int game = 0; game < 100; game++) {
+				incremental.clear();
+				char player = (game % 2 == 0) ? 'R' : 'Y';
+				while (incremental.gameEnded() == ' ') {
+					int x = random.nextInt(geometry.width());
+					if (incremental.play(x, player) < 0) {
+						continue;
+					}
+					String change = player + " played in column " + (x + 1);
+					if (random.nextInt(4) == 0) {
+						incremental.undo(x);
+						change += " and taken back";
+					}
+					else {
+						player = (player == 'R') ? 'Y' : 'R';
+					}
+					full.load(incremental);
+					String where = geometry + ", " + change + ", board \"" + incremental.toBoardString() + "\"";
+					assertEquals(full.gameEnded(), incremental.gameEnded(), () -> where + ": result");
+					for (int line = 0; line < geometry.lineCount(); line++) {
+						int l = line;
+						assertEquals(full.lineCountR(line), incremental.lineCountR(line), () -> where + ": red count of line " + l);
+						assertEquals(full.lineCountY(line), incremental.lineCountY(line), () -> where + ": yellow count of line " + l);
+					}
+					assertSameScores(full, incremental, where);
+				}
+			}
+		}
+	}
+
+	// The combined scores of every place on the board.
+	private static void assertSameScores(Evaluator expected, Evaluator actual, String where) {
+		Geometry geometry = expected.geometry();
+		for (int x = 0; x < geometry.width(); x++) {
+			for (int y = 0; y < geometry.height(); y++) {
+				String place = "column " + (x + 1) + " row " + (y + 1);
+				assertEquals(expected.combinedScoreR(x, y), actual.combinedScoreR(x, y), () -> where + ": red combined score at " + place);
+				assertEquals(expected.combinedScoreY(x, y), actual.combinedScoreY(x, y), () -> where + ": yellow combined score at " + place);
+			}
+		}
+	}
+}
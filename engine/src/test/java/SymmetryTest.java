@@ -0,0 +1,116 @@
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Connect 4 symmetry test
+//
+// A position and its reflection left to right share their entries in the transposition table and the opening book, so each must give
+// back the reflected move for the reflection, and the solver must give both the same score. The book is a small one made for the test
+// in a temporary directory. A failure names the board and the player to move.
+//
+/////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SymmetryTest {
+	private static final int BOOK_PLIES = 5;
+	private static final int BOOK_DEPTH = 4;
+
+	@Test
+	void reflectionHasTheMirroredPieces() {
+		Random random = new Random(1);
+		for (int z = 0; z < 500; z++) {
+			char player = (z % 2 == 0) ? 'R' : 'Y';
+			Position board = randomPosition(random, player, random.nextInt(30));
+			Position mirrored = board.mirror();
+			String where = "board \"" + board.toBoardString() + "\"";
+			assertEquals(mirrored.key(), Position.mirrorKey(board.key()), () -> where + ": mirrored key");
+			assertEquals(board.key(), mirrored.mirror().key(), () -> where + ": key reflected twice");
+			for (int x = 0; x < Position.WIDTH; x++) {
+				for (int y = 0; y < Position.HEIGHT; y++) {
+					int column = x;
+					int row = y;
+					assertEquals(board.cell(x, y), mirrored.cell(Position.mirrorMove(x), y),
+						() -> where + ": column " + (column + 1) + " row " + (row + 1) + " reflected");
+				}
+			}
+		}
+	}
+
+	@Test
+	void transpositionTableGivesTheReflectedMove() {
+		Random random = new Random(2);
+		TranspositionTable table = new TranspositionTable(1);
+		TranspositionTable.Entry entry = new TranspositionTable.Entry();
+		for (int z = 0; z < 2000; z++) {
+			char player = (z % 2 == 0) ? 'R' : 'Y';
+			Position board = randomPosition(random, 'R', random.nextInt(30));
+			Position mirrored = board.mirror();
+			int move = random.nextInt(Position.WIDTH);
+			String where = "board \"" + board.toBoardString() + "\" with " + player + " to move";
+			table.store(TranspositionTable.key(board, player), z, TranspositionTable.EXACT, 1, move);
+			assertTrue(table.probe(TranspositionTable.key(board, player), entry), () -> where + ": stored entry not found");
+			assertEquals(move, entry.move, () -> where + ": stored move");
+			assertEquals(z, entry.score, () -> where + ": stored score");
+			assertTrue(table.probe(TranspositionTable.key(mirrored, player), entry), () -> where + ": reflection not found");
+			assertEquals(reflected(board, move), entry.move, () -> where + ": move for the reflection");
+			assertEquals(z, entry.score, () -> where + ": score for the reflection");
+		}
+	}
+
+	@Test
+	void openingBookGivesTheReflectedMove(@TempDir Path directory) throws IOException {
+		Path file = directory.resolve(OpeningBook.FILE);
+		OpeningBook.generate(file, Weights.DEFAULT, BOOK_PLIES, BOOK_DEPTH, 0);
+		OpeningBook book = OpeningBook.open(file, Weights.DEFAULT);
+		assertNotNull(book, "the book just made doesn't open");
+		Random random = new Random(3);
+		for (int z = 0; z < 1000; z++) {
+			char first = (z % 2 == 0) ? 'R' : 'Y';
+			Position board = randomPosition(random, first, random.nextInt(BOOK_PLIES));
+			char player = (board.moveCount() % 2 == 0) ? first : ((first == 'R') ? 'Y' : 'R');
+			String where = "board \"" + board.toBoardString() + "\" with " + player + " to move";
+			int move = book.move(board, player);
+			assertTrue(move >= 0, () -> where + ": not in the book");
+			assertEquals(reflected(board, move), book.move(board.mirror(), player), () -> where + ": book move for the reflection");
+		}
+	}
+
+	@Test
+	void solverGivesTheReflectionTheSameScore() {
+		Random random = new Random(4);
+		Solver solver = new Solver();
+		for (int z = 0; z < 200; z++) {
+			char first = (z % 2 == 0) ? 'R' : 'Y';
+			Position board = randomPosition(random, first, 20 + random.nextInt(11));
+			if (board.gameEnded() != ' ') {
+				continue;
+			}
+			char player = (board.moveCount() % 2 == 0) ? first : ((first == 'R') ? 'Y' : 'R');
+			String where = "board \"" + board.toBoardString() + "\" with " + player + " to move";
+			assertEquals(solver.solve(board, player), solver.solve(board.mirror(), player), () -> where + ": score for the reflection");
+		}
+	}
+
+	// Random moves from an empty board, the first by the player given, until there are that many pieces or the game is over.
+	private static Position randomPosition(Random random, char player, int pieces) {
+		Position board = new Position();
+		while ((board.moveCount() < pieces) && (board.gameEnded() == ' ')) {
+			if (board.play(random.nextInt(Position.WIDTH), player) >= 0) {
+				player = (player == 'R') ? 'Y' : 'R';
+			}
+		}
+		return board;
+	}
+
+	// A position that is its own reflection keeps its move.
+	private static int reflected(Position board, int move) {
+		return (board.mirror().key() == board.key()) ? move : Position.mirrorMove(move);
+	}
+}